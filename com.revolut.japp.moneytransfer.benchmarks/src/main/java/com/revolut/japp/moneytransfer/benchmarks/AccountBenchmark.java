@@ -0,0 +1,57 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.revolut.japp.moneytransfer.model.Account;
+
+/**
+ * Cost of {@link Account#withdraw(long)} and {@link Account#deposit(long)} themselves, without any locking.
+ * With several threads and {@link Skew#HOT} it shows what writing the same balances from many cores costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+
+    @Param({"1000"})
+    private int accounts;
+
+    @Param({"UNIFORM", "HOT"})
+    private Skew skew;
+
+    private Account[] all;
+
+    @Setup
+    public void setUp() {
+        all = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            all[i] = new Account("bench" + i, new BigDecimal("1000000"), Currency.getInstance("EUR"));
+        }
+    }
+
+    @Benchmark
+    public long depositAndWithdraw(Picker picker) {
+        Account account = all[picker.pick(skew, accounts)];
+        account.deposit(100);
+        account.withdraw(100);
+        return account.getBalanceMinor();
+    }
+
+}
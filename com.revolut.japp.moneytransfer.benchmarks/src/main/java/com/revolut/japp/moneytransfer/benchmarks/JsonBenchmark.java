@@ -0,0 +1,72 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.json.Json;
+
+/**
+ * Pretty-printed against compact encoding of the bodies the REST API answers with, and decoding of a
+ * transfer request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private Account account;
+    private Transfer transfer;
+    private String transferBody;
+
+    @Setup
+    public void setUp() {
+        Currency eur = Currency.getInstance("EUR");
+        account = new Account("Yuanwen", new BigDecimal("1111.00"), eur);
+        transfer = new Transfer(0, 1, new BigDecimal("650.00"), eur, "Rent");
+        transferBody = Json.encode(transfer);
+    }
+
+    @Benchmark
+    public String accountPretty() {
+        return Json.encodePrettily(account);
+    }
+
+    @Benchmark
+    public String accountCompact() {
+        return Json.encode(account);
+    }
+
+    @Benchmark
+    public String transferPretty() {
+        return Json.encodePrettily(transfer);
+    }
+
+    @Benchmark
+    public String transferCompact() {
+        return Json.encode(transfer);
+    }
+
+    @Benchmark
+    public Transfer transferDecode() {
+        return Json.decodeValue(transferBody, Transfer.class);
+    }
+
+}
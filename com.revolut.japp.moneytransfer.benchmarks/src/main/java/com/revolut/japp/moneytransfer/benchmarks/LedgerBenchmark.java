@@ -0,0 +1,83 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * The validation and execution done for {@code PUT /api/transfers/:id}, i.e. {@link AccountLedger#execute},
+ * and the bare balance move under the stripe locks. Run with {@code -t} above one and {@code skew=HOT} to
+ * measure lock contention, and with {@code hotCredits=true} to stripe the credits to the hot accounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerBenchmark {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    @Param({"1000", "100000"})
+    private int accounts;
+
+    @Param({"UNIFORM", "HOT"})
+    private Skew skew;
+
+    @Param({"false", "true"})
+    private boolean hotCredits;
+
+    private AccountLedger ledger;
+    private int[] ids;
+
+    @Setup
+    public void setUp() {
+        ledger = new AccountLedger();
+        ids = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account("bench" + i, BigDecimal.ZERO, EUR);
+            account.setBalanceMinor(Long.MAX_VALUE / 4);
+            ledger.add(account);
+            ids[i] = account.getId();
+        }
+        if (hotCredits) {
+            for (int i = 0; i < Math.min(Skew.HOT_ACCOUNTS, accounts); i++) {
+                ledger.setHot(ids[i], true);
+            }
+        }
+    }
+
+    @Benchmark
+    public TransferStatus execute(Picker picker) {
+        int from = picker.pick(skew, accounts);
+        int to = picker.pickOther(skew, accounts, from);
+        return ledger.execute(new Transfer(ids[from], ids[to], AMOUNT, EUR, null));
+    }
+
+    @Benchmark
+    public boolean transfer(Picker picker) {
+        int from = picker.pick(skew, accounts);
+        int to = picker.pickOther(skew, accounts, from);
+        return ledger.transfer(ids[from], ids[to], 100, EUR);
+    }
+
+}
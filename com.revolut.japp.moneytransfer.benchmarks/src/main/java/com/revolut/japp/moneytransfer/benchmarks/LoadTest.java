@@ -0,0 +1,351 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Drives a running server through its real REST routes and reports latency percentiles and throughput per
+ * operation, e.g. against a server started with {@code java -jar moneytransfer.jar}:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.revolut.japp.moneytransfer.benchmarks.LoadTest \
+ *     --connections=32 --pipeline=4 --duration=30 --mix=read:70,transfer:25,list:5 --skew=HOT \
+ *     --report=run.json --baseline=previous.json
+ * </pre>
+ *
+ * Every connection slot sends its next request as soon as the previous one is answered (closed loop), so
+ * the concurrency is {@code connections * pipeline}. A transfer is measured as the {@code POST} creating
+ * it plus the {@code PUT} executing it. Latencies are recorded in HdrHistograms once the warmup is over.
+ * The JSON report written with {@code --report} can be passed back as {@code --baseline} to a later run,
+ * which then prints how throughput and p99 moved.
+ */
+public class LoadTest {
+
+    enum Operation {
+        READ, TRANSFER, LIST
+    }
+
+    private static final long MAX_LATENCY = TimeUnit.SECONDS.toMicros(60);
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int pipeline;
+    private final int workers;
+    private final int accounts;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final Skew skew;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final int mixTotal;
+
+    private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+    private final List<Integer> ids = new ArrayList<>();
+
+    private LoadTest(Map<String, String> options) {
+        host = options.getOrDefault("host", "127.0.0.1");
+        port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        pipeline = Integer.parseInt(options.getOrDefault("pipeline", "1"));
+        workers = Integer.parseInt(options.getOrDefault("workers", String.valueOf(Math.min(connections, Runtime.getRuntime().availableProcessors()))));
+        accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        if (accounts < 2) {
+            throw new IllegalArgumentException("Transfers need at least two accounts");
+        }
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        skew = Skew.valueOf(options.getOrDefault("skew", "UNIFORM"));
+        int total = 0;
+        for (String entry : options.getOrDefault("mix", "read:70,transfer:25,list:5").split(",")) {
+            String[] weight = entry.split(":");
+            int value = Integer.parseInt(weight[1]);
+            mix.put(Operation.valueOf(weight[0].trim().toUpperCase()), value);
+            total += value;
+        }
+        mixTotal = total;
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new ConcurrentHistogram(MAX_LATENCY, 3));
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        LoadTest test = new LoadTest(options);
+        Vertx vertx = Vertx.vertx();
+        try {
+            test.createAccounts(vertx);
+            JsonObject report = test.run(vertx);
+            System.out.print(format(report));
+            if (options.containsKey("baseline")) {
+                JsonObject baseline = new JsonObject(new String(Files.readAllBytes(Paths.get(options.get("baseline"))), StandardCharsets.UTF_8));
+                System.out.print(compare(baseline, report));
+            }
+            if (options.containsKey("report")) {
+                Files.write(Paths.get(options.get("report")), report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            vertx.close();
+        }
+    }
+
+    /**
+     * Creates the accounts the run transfers between, with balances that never run dry.
+     */
+    private void createAccounts(Vertx vertx) throws Exception {
+        AtomicInteger remaining = new AtomicInteger(accounts);
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        Buffer body = Buffer.buffer(new JsonObject()
+                .put("userName", "load")
+                .put("balance", "1000000000")
+                .put("currency", "EUR").encode());
+        HttpClient[] client = new HttpClient[1];
+        vertx.getOrCreateContext().runOnContext(v -> {
+            client[0] = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(32));
+            for (int i = 0; i < Math.min(32, accounts); i++) {
+                createAccount(client[0], body, remaining, created);
+            }
+        });
+        try {
+            created.get(5, TimeUnit.MINUTES);
+        } finally {
+            client[0].close();
+        }
+    }
+
+    private void createAccount(HttpClient client, Buffer body, AtomicInteger remaining, CompletableFuture<Void> created) {
+        if (remaining.getAndDecrement() <= 0) {
+            synchronized (ids) {
+                if (ids.size() == accounts) {
+                    created.complete(null);
+                }
+            }
+            return;
+        }
+        send(client, HttpMethod.POST, "/api/accounts", body, response -> {
+            synchronized (ids) {
+                ids.add(response.getInteger("id"));
+            }
+            createAccount(client, body, remaining, created);
+        }, created::completeExceptionally);
+    }
+
+    private JsonObject run(Vertx vertx) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        int slots = connections * pipeline;
+        CountDownLatch done = new CountDownLatch(slots);
+        List<HttpClient> clients = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int workerSlots = slots / workers + (w < slots % workers ? 1 : 0);
+            int workerConnections = Math.max(1, connections / workers);
+            Context context = vertx.getOrCreateContext();
+            context.runOnContext(v -> {
+                HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                        .setDefaultHost(host)
+                        .setDefaultPort(port)
+                        .setKeepAlive(true)
+                        .setMaxPoolSize(workerConnections)
+                        .setPipelining(pipeline > 1)
+                        .setPipeliningLimit(Math.max(1, pipeline)));
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                SplittableRandom random = new SplittableRandom();
+                for (int s = 0; s < workerSlots; s++) {
+                    next(client, random, measureFrom, end, done);
+                }
+            });
+        }
+        done.await();
+        long measured = System.nanoTime() - measureFrom;
+        synchronized (clients) {
+            clients.forEach(HttpClient::close);
+        }
+        return report(measured);
+    }
+
+    private void next(HttpClient client, SplittableRandom random, long measureFrom, long end, CountDownLatch done) {
+        long start = System.nanoTime();
+        if (start >= end) {
+            done.countDown();
+            return;
+        }
+        Operation operation = pick(random);
+        Runnable completed = () -> {
+            long now = System.nanoTime();
+            if (start >= measureFrom) {
+                histograms.get(operation).recordValue(Math.min(MAX_LATENCY, TimeUnit.NANOSECONDS.toMicros(now - start)));
+            }
+            next(client, random, measureFrom, end, done);
+        };
+        Consumer<Throwable> failed = error -> {
+            if (start >= measureFrom) {
+                errors.get(operation).incrementAndGet();
+            }
+            next(client, random, measureFrom, end, done);
+        };
+        switch (operation) {
+            case READ:
+                send(client, HttpMethod.GET, "/api/accounts/" + account(random), null, response -> completed.run(), failed);
+                break;
+            case LIST:
+                send(client, HttpMethod.GET, "/api/transfers?limit=100&after=" + random.nextInt(Math.max(1, ids.size())), null,
+                        response -> completed.run(), failed);
+                break;
+            case TRANSFER:
+                int from = skew.pick(random, ids.size());
+                int to = (from + 1 + random.nextInt(ids.size() - 1)) % ids.size();
+                Buffer body = Buffer.buffer(new JsonObject()
+                        .put("fromAccountId", ids.get(from))
+                        .put("toAccountId", ids.get(to))
+                        .put("amount", "0.01")
+                        .put("currency", "EUR").encode());
+                send(client, HttpMethod.POST, "/api/transfers", body, transfer ->
+                        send(client, HttpMethod.PUT, "/api/transfers/" + transfer.getInteger("id"), Buffer.buffer(), executed -> completed.run(), failed),
+                        failed);
+                break;
+            default:
+                throw new IllegalStateException(operation.name());
+        }
+    }
+
+    private Operation pick(SplittableRandom random) {
+        int ticket = random.nextInt(mixTotal);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private int account(SplittableRandom random) {
+        return ids.get(skew.pick(random, ids.size()));
+    }
+
+    private void send(HttpClient client, HttpMethod method, String uri, Buffer body, Consumer<JsonObject> handler, Consumer<Throwable> failed) {
+        HttpClientRequest request = client.request(method, port, host, uri, response -> {
+            response.exceptionHandler(failed::accept);
+            response.bodyHandler(buffer -> {
+                if (response.statusCode() / 100 != 2) {
+                    failed.accept(new IOException(method + " " + uri + " answered " + response.statusCode()));
+                } else if (buffer.length() > 0 && buffer.getByte(0) == '{') {
+                    handler.accept(buffer.toJsonObject());
+                } else {
+                    handler.accept(null);
+                }
+            });
+        });
+        request.exceptionHandler(failed::accept);
+        if (body == null) {
+            request.end();
+        } else {
+            request.end(body);
+        }
+    }
+
+    private JsonObject report(long measuredNanos) {
+        double seconds = measuredNanos / 1e9;
+        JsonObject config = new JsonObject()
+                .put("connections", connections)
+                .put("pipeline", pipeline)
+                .put("workers", workers)
+                .put("accounts", accounts)
+                .put("skew", skew.name())
+                .put("mix", new JsonObject(mixAsMap()));
+        JsonObject operations = new JsonObject();
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = histograms.get(operation);
+            if (histogram.getTotalCount() == 0 && errors.get(operation).get() == 0) {
+                continue;
+            }
+            operations.put(operation.name().toLowerCase(), new JsonObject()
+                    .put("count", histogram.getTotalCount())
+                    .put("errors", errors.get(operation).get())
+                    .put("throughput", histogram.getTotalCount() / seconds)
+                    .put("p50", histogram.getValueAtPercentile(50))
+                    .put("p99", histogram.getValueAtPercentile(99))
+                    .put("p999", histogram.getValueAtPercentile(99.9))
+                    .put("max", histogram.getMaxValue()));
+        }
+        return new JsonObject().put("config", config).put("seconds", seconds).put("operations", operations);
+    }
+
+    private Map<String, Object> mixAsMap() {
+        Map<String, Object> weights = new LinkedHashMap<>();
+        mix.forEach((operation, weight) -> weights.put(operation.name().toLowerCase(), weight));
+        return weights;
+    }
+
+    private static String format(JsonObject report) {
+        StringBuilder text = new StringBuilder();
+        text.append("config ").append(report.getJsonObject("config").encode()).append('\n');
+        text.append(String.format("%-10s %10s %8s %12s %10s %10s %10s %10s%n", "operation", "count", "errors", "ops/s",
+                "p50 us", "p99 us", "p99.9 us", "max us"));
+        JsonObject operations = report.getJsonObject("operations");
+        for (String name : operations.fieldNames()) {
+            JsonObject op = operations.getJsonObject(name);
+            text.append(String.format("%-10s %10d %8d %12.1f %10d %10d %10d %10d%n", name, op.getLong("count"), op.getLong("errors"),
+                    op.getDouble("throughput"), op.getLong("p50"), op.getLong("p99"), op.getLong("p999"), op.getLong("max")));
+        }
+        return text.toString();
+    }
+
+    private static String compare(JsonObject baseline, JsonObject report) {
+        StringBuilder text = new StringBuilder();
+        if (!baseline.getJsonObject("config").equals(report.getJsonObject("config"))) {
+            text.append("warning: baseline was run with ").append(baseline.getJsonObject("config").encode()).append('\n');
+        }
+        text.append(String.format("%-10s %14s %14s%n", "vs baseline", "ops/s", "p99"));
+        JsonObject before = baseline.getJsonObject("operations");
+        JsonObject after = report.getJsonObject("operations");
+        for (String name : after.fieldNames()) {
+            if (!before.containsKey(name)) {
+                continue;
+            }
+            text.append(String.format("%-10s %+13.1f%% %+13.1f%%%n", name,
+                    change(before.getJsonObject(name).getDouble("throughput"), after.getJsonObject(name).getDouble("throughput")),
+                    change(before.getJsonObject(name).getLong("p99"), after.getJsonObject(name).getLong("p99"))));
+        }
+        return text.toString();
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+
+/**
+ * Account lookups as the number of accounts outgrows the CPU caches. {@link Skew#HOT} keeps most lookups
+ * in cache, {@link Skew#UNIFORM} measures the cache misses of a large book.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms6g", "-Xmx6g"})
+public class LookupBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int accounts;
+
+    @Param({"UNIFORM", "HOT"})
+    private Skew skew;
+
+    private AccountLedger ledger;
+    private int[] ids;
+
+    @Setup
+    public void setUp() {
+        Currency eur = Currency.getInstance("EUR");
+        ledger = new AccountLedger();
+        ids = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account("bench" + i, BigDecimal.TEN, eur);
+            ledger.add(account);
+            ids[i] = account.getId();
+        }
+    }
+
+    @Benchmark
+    public Account get(Picker picker) {
+        return ledger.get(ids[picker.pick(skew, accounts)]);
+    }
+
+}
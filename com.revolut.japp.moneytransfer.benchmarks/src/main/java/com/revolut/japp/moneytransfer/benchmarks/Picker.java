@@ -0,0 +1,29 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread source of account indexes, so benchmark threads never share a random generator.
+ */
+@State(Scope.Thread)
+public class Picker {
+
+    final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+
+    int pick(Skew skew, int accounts) {
+        return skew.pick(random, accounts);
+    }
+
+    /**
+     * @return an index other than {@code other}
+     */
+    int pickOther(Skew skew, int accounts, int other) {
+        int index = skew.pick(random, accounts);
+        return index == other ? (index + 1) % accounts : index;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.revolut.japp.moneytransfer.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * How the accounts touched by a benchmark are picked, i.e. how much its threads contend for the same ones.
+ */
+public enum Skew {
+
+    /**
+     * Every account is equally likely, so threads rarely meet.
+     */
+    UNIFORM {
+        @Override
+        int pick(SplittableRandom random, int accounts) {
+            return random.nextInt(accounts);
+        }
+    },
+
+    /**
+     * Nine picks in ten go to one of the first {@value #HOT_ACCOUNTS} accounts, like a payroll or merchant
+     * account every transfer goes through.
+     */
+    HOT {
+        @Override
+        int pick(SplittableRandom random, int accounts) {
+            return random.nextInt(10) == 0 ? random.nextInt(accounts) : random.nextInt(Math.min(HOT_ACCOUNTS, accounts));
+        }
+    };
+
+    static final int HOT_ACCOUNTS = 4;
+
+    /**
+     * @return an index in {@code [0, accounts)}
+     */
+    abstract int pick(SplittableRandom random, int accounts);
+
+}
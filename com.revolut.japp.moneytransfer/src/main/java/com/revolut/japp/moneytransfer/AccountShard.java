@@ -0,0 +1,229 @@
+package com.revolut.japp.moneytransfer;
+
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.fees.FeeSchedule;
+import com.revolut.japp.moneytransfer.fx.RateTable;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Owner of one hash shard of the account ids when {@link App} runs sharded.
+ * <p>
+ * A shard runs on the event loop of the verticle instance that registered it and executes what the HTTP API
+ * routes to it: the debit leg of a transfer on the shard of the debited account, each credit leg on the shard
+ * of the credited account, and account updates and deletions on the shard owning the account. The
+ * {@link AccountLedger} still guards every change with its stripe locks, which do not line up with the
+ * shards and which the binary server, the settlement worker, hot account folding, archiving and snapshots
+ * take as well.
+ * <p>
+ * A transfer is first routed to the shard of the debit account, which debits it with its
+ * {@link TransferLegs legs} and then hops to the shards of the credited accounts. The sender is refunded
+ * only what a shard refused to credit; a credit whose reply timed out may have been applied, so it is sent
+ * again until its outcome is known, and each leg is credited only once. The legs are journaled with every
+ * step, so a transfer interrupted between its debit and its outcome is finished by the {@link Bank} on
+ * replay.
+ */
+public class AccountShard {
+
+    private static final Logger log = Logger.getLogger(AccountShard.class);
+
+    public static final String ADDRESS_PREFIX = "moneytransfer.shard.";
+
+    public static final String OP_DEBIT = "debit";
+    public static final String OP_CREDIT = "credit";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    private final Vertx vertx;
+    private final Bank bank;
+    private final AccountLedger ledger;
+    private final Set<Integer> executing = new HashSet<>();
+    private final int index;
+    private final int count;
+    private final DeliveryOptions delivery;
+
+    public AccountShard(Vertx vertx, Bank bank, int index, int count) {
+        this(vertx, bank, index, count, DeliveryOptions.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param creditTimeout the milliseconds after which a credit leg without a reply is sent again
+     */
+    AccountShard(Vertx vertx, Bank bank, int index, int count, long creditTimeout) {
+        this.delivery = new DeliveryOptions().setSendTimeout(creditTimeout);
+        this.vertx = vertx;
+        this.bank = bank;
+        this.ledger = bank.getLedger();
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @return the shard owning the given account
+     */
+    public static int shardOf(int accountId, int count) {
+        return Math.floorMod(accountId, count);
+    }
+
+    /**
+     * @return the event bus address of the given shard
+     */
+    public static String address(int shard) {
+        return ADDRESS_PREFIX + shard;
+    }
+
+    public void register() {
+        vertx.eventBus().<JsonObject>consumer(address(index), this::handle);
+    }
+
+    private void handle(Message<JsonObject> message) {
+        String op = message.body().getString("op");
+        if (OP_DEBIT.equals(op)) {
+            debit(message);
+        } else if (OP_CREDIT.equals(op)) {
+            credit(message);
+        } else if (OP_UPDATE.equals(op)) {
+            update(message);
+        } else if (OP_DELETE.equals(op)) {
+            delete(message);
+        } else {
+            message.fail(400, "Unknown operation " + op);
+        }
+    }
+
+    private void debit(Message<JsonObject> message) {
+        final Transfer transfer = bank.getTransfers().get(message.body().getInteger("transfer"));
+        if (transfer == null) {
+            message.fail(404, "No such transfer");
+            return;
+        }
+        if (transfer.getStatus() != TransferStatus.PENDING || transfer.getLegs() != null || !executing.add(transfer.getId())) {
+            message.reply(new JsonObject().put("status", transfer.getStatus().name()));
+            return;
+        }
+        final Currency currency = transfer.getCurrency();
+        Account from = ledger.get(transfer.getFromAccountId());
+        Account to = ledger.get(transfer.getToAccountId());
+        if (currency == null || from == null || to == null || transfer.getFromAccountId() == transfer.getToAccountId()) {
+            complete(message, transfer, TransferStatus.FAILED);
+            return;
+        }
+        FeeSchedule fees = ledger.getFees();
+        long fee;
+        try {
+            fee = fees.fee(transfer);
+        } catch (ArithmeticException e) {
+            fee = -1;
+        }
+        Account feeAccount = fee > 0 && fees.getAccountId() >= 0 ? ledger.get(fees.getAccountId()) : null;
+        if (fee < 0 || fee > 0 && fees.getAccountId() >= 0 && feeAccount == null) {
+            complete(message, transfer, TransferStatus.FAILED);
+            return;
+        }
+        // converted up front, so that a refused credit refunds exactly what was debited
+        RateTable rates = ledger.getRates();
+        final Currency fromCurrency = from.getCurrency();
+        long debit = rates.convert(transfer.getAmountMinor(), currency, fromCurrency);
+        long feeDebit = fee == 0 ? 0 : rates.convert(fee, currency, fromCurrency);
+        long credit = rates.convert(transfer.getAmountMinor(), currency, to.getCurrency());
+        long feeCredit = feeAccount == null ? 0 : rates.convert(fee, currency, feeAccount.getCurrency());
+        if (debit <= 0 || credit <= 0 || feeDebit < 0 || feeCredit < 0 || debit > Long.MAX_VALUE - feeDebit) {
+            complete(message, transfer, TransferStatus.FAILED);
+            return;
+        }
+        TransferLegs legs = new TransferLegs(debit + feeDebit, feeDebit, fromCurrency, credit, to.getCurrency(),
+                feeAccount == null ? -1 : feeAccount.getId(), feeCredit, feeAccount == null ? null : feeAccount.getCurrency(), fee);
+        if (!ledger.debitLeg(transfer, legs)) {
+            complete(message, transfer, TransferStatus.FAILED);
+            return;
+        }
+        creditLeg(message, transfer, legs, false);
+    }
+
+    /**
+     * Sends one credit leg to the shard owning its account and moves on once it is credited or refused. A leg
+     * whose outcome is unknown, because the reply timed out, is sent again: the owner credits it only once.
+     */
+    private void creditLeg(Message<JsonObject> message, Transfer transfer, TransferLegs legs, boolean fee) {
+        int account = fee ? legs.getFeeAccountId() : transfer.getToAccountId();
+        JsonObject command = new JsonObject()
+                .put("op", OP_CREDIT)
+                .put("transfer", transfer.getId())
+                .put("fee", fee);
+        vertx.eventBus().<JsonObject>send(address(shardOf(account, count)), command, delivery, reply -> {
+            if (reply.failed() && !isRefusal(reply.cause())) {
+                log.warn("[shard]: credit of transfer " + transfer.getId() + " unanswered, sending it again", reply.cause());
+                creditLeg(message, transfer, legs, fee);
+            } else if (reply.succeeded() && !fee && legs.hasFeeLeg()) {
+                creditLeg(message, transfer, legs, true);
+            } else {
+                TransferStatus status = ledger.settleLegs(transfer);
+                executing.remove(transfer.getId());
+                message.reply(new JsonObject().put("status", status.name()));
+            }
+        });
+    }
+
+    /**
+     * @return true if the credit was certainly not applied: the owner refused it or no shard owns the account
+     */
+    private static boolean isRefusal(Throwable cause) {
+        if (!(cause instanceof ReplyException)) {
+            return false;
+        }
+        ReplyFailure failure = ((ReplyException) cause).failureType();
+        return failure == ReplyFailure.RECIPIENT_FAILURE || failure == ReplyFailure.NO_HANDLERS;
+    }
+
+    private void complete(Message<JsonObject> message, Transfer transfer, TransferStatus status) {
+        synchronized (transfer) {
+            transfer.setStatus(status);
+            bank.transferChanged(transfer);
+        }
+        executing.remove(transfer.getId());
+        message.reply(new JsonObject().put("status", status.name()));
+    }
+
+    private void credit(Message<JsonObject> message) {
+        Transfer transfer = bank.getTransfers().get(message.body().getInteger("transfer"));
+        if (transfer != null && ledger.creditLeg(transfer, message.body().getBoolean("fee", false))) {
+            message.reply(new JsonObject());
+        } else {
+            message.fail(409, "Account cannot be credited");
+        }
+    }
+
+    private void update(Message<JsonObject> message) {
+        JsonObject json = message.body().getJsonObject("body");
+        Boolean updated = ledger.update(message.body().getInteger("account"), account -> bank.update(account, json));
+        if (updated == null) {
+            message.fail(404, "No such account");
+        } else {
+            message.reply(new JsonObject().put("updated", updated));
+        }
+    }
+
+    private void delete(Message<JsonObject> message) {
+        if (ledger.remove(message.body().getInteger("account")) == null) {
+            message.fail(404, "No such account");
+        } else {
+            message.reply(new JsonObject());
+        }
+    }
+
+}
@@ -1,20 +1,43 @@
 package com.revolut.japp.moneytransfer;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Currency;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
+import com.revolut.japp.moneytransfer.admission.AdmissionControl;
+import com.revolut.japp.moneytransfer.archive.TransferStore;
+import com.revolut.japp.moneytransfer.codec.JsonReader;
+import com.revolut.japp.moneytransfer.codec.ModelCodec;
+import com.revolut.japp.moneytransfer.fx.RateTable;
+import com.revolut.japp.moneytransfer.idempotency.IdempotencyCache;
+import com.revolut.japp.moneytransfer.index.Pages;
+import com.revolut.japp.moneytransfer.index.TransferQuery;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.metrics.Metrics;
+import com.revolut.japp.moneytransfer.metrics.RoutePatterns;
 import com.revolut.japp.moneytransfer.model.Account;
 import com.revolut.japp.moneytransfer.model.Transfer;
 import com.revolut.japp.moneytransfer.model.TransferStatus;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Launcher;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Route;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
@@ -23,21 +46,108 @@ import io.vertx.ext.web.handler.StaticHandler;
 import org.apache.log4j.*;
 public class App extends AbstractVerticle {
 
-    private final Map<Integer, Account> accounts = new LinkedHashMap<>();
-    private final Map<Integer, Transfer> transfers = new LinkedHashMap<>();
+    private Bank bank;
+    private AccountLedger ledger;
+    private TransferStore transfers;
+    private int shardCount = 1;
+    private RoutePatterns routePatterns;
+    private static final int MAX_BATCH = 10000;
+    private static final long LAG_PROBE_MILLIS = 100;
+    private static final int DEFAULT_HTTP_PORT = 8080;
+    private static final int DEFAULT_BINARY_PORT = 8081;
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
     private static Logger log = Logger.getLogger(App.class);
 
+    /**
+     * Runs the verticle, passing any extra launcher options through, e.g.
+     * {@code -instances 8 -conf '{"sharded":true}'} to run one account shard per instance.
+     */
     public static void main(final String[] args) {
-        Launcher.executeCommand("run", App.class.getName());
+        String[] runArgs = new String[args.length + 1];
+        runArgs[0] = App.class.getName();
+        System.arraycopy(args, 0, runArgs, 1, args.length);
+        Launcher.executeCommand("run", runArgs);
     }
 
     @Override
     public void start(Future<Void> temp) {
 
-        initiateAccount();
+        vertx.<Bank>executeBlocking(future -> {
+            try {
+                Bank shared = Bank.shared(vertx, config());
+                if (shared.claimInitialisation()) {
+                    bank = shared;
+                    ledger = shared.getLedger();
+                    transfers = shared.getTransfers();
+                    initiateAccount();
+                }
+                future.complete(shared);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, result -> {
+            if (result.succeeded()) {
+                serve(result.result(), temp);
+            } else {
+                temp.fail(result.cause());
+            }
+        });
+    }
+
+    private void serve(Bank shared, Future<Void> temp) {
+
+        bank = shared;
+        ledger = bank.getLedger();
+        transfers = bank.getTransfers();
+
+        if (config().getBoolean("sharded", false) && context.getInstanceCount() > 1) {
+            shardCount = context.getInstanceCount();
+            int shard = bank.claimShard();
+            new AccountShard(vertx, bank, shard, shardCount).register();
+            log.info("[shard]: " + shard + "/" + shardCount);
+        }
+
+        Metrics metrics = bank.getMetrics();
+        AdmissionControl admission = bank.getAdmission();
+        long[] lastProbe = {System.nanoTime()};
+        vertx.setPeriodic(LAG_PROBE_MILLIS, id -> {
+            long now = System.nanoTime();
+            long lag = Math.max(0, now - lastProbe[0] - TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_MILLIS));
+            metrics.eventLoopLag(lag);
+            admission.lag(lag);
+            lastProbe[0] = now;
+        });
 
         Router router = Router.router(vertx);
 
+        router.route().handler(routingContext -> {
+            long start = System.nanoTime();
+            // labelled with the route the request was meant for, whichever handler answered it; a method unknown to
+            // Vert.x is OTHER, so clients cannot add series
+            routingContext.addBodyEndHandler(v -> metrics.request(routingContext.request().method().name(),
+                    routePatterns.match(routingContext.request().path()),
+                    routingContext.response().getStatusCode(), System.nanoTime() - start));
+            routingContext.next();
+        });
+
+        router.get("/metrics").handler(routingContext -> routingContext.response()
+                .putHeader("content-type", Metrics.CONTENT_TYPE)
+                .end(metrics.render(ledger, admission, bank.getJournal(), bank.getReplicationLeader(), bank.getReplicationFollower())));
+
+        router.route().handler(routingContext -> admit(routingContext, admission));
+
+        if (bank.isReplica()) {
+            // a follower only serves what it receives from its leader
+            router.route().handler(routingContext -> {
+                HttpMethod method = routingContext.request().method();
+                if (method == HttpMethod.GET || method == HttpMethod.HEAD) {
+                    routingContext.next();
+                } else {
+                    routingContext.response().setStatusCode(405).end();
+                }
+            });
+        }
+
         router.route("/").handler(routingContext -> {
             HttpServerResponse response = routingContext.response();
             response
@@ -47,69 +157,145 @@ public class App extends AbstractVerticle {
 
         router.route("/assets/*").handler(StaticHandler.create("assets"));
 
+        if (isSharded()) {
+            // an import would replace accounts and transfers behind the backs of the shards owning them
+            Handler<RoutingContext> refuse = routingContext -> routingContext.response().setStatusCode(405).end();
+            router.post("/api/accounts/import").handler(refuse);
+            router.post("/api/transfers/import").handler(refuse);
+        } else {
+            router.post("/api/accounts/import").handler(this::importAccounts);
+            router.post("/api/transfers/import").handler(this::importTransfers);
+        }
+
         router.route().handler(BodyHandler.create());
 
         router.get("/api/accounts").handler(this::getAllAccounts);
+        router.get("/api/accounts/export").handler(routingContext ->
+                Ndjson.export(routingContext.response(), ledger.getAll().iterator(), ModelCodec::write));
         router.get("/api/accounts/:id").handler(this::getAccount);
+        router.get("/api/accounts/:id/transfers").handler(this::getAccountTransfers);
         router.post("/api/accounts").handler(this::addAccount);
         router.put("/api/accounts/:id").handler(this::updateAccount);
         router.delete("/api/accounts/:id").handler(this::deleteAccount);
 
         router.get("/api/transfers").handler(this::getAllTransfers);
+        router.get("/api/transfers/export").handler(routingContext ->
+                Ndjson.export(routingContext.response(), transfers.values().iterator(), ModelCodec::write));
         router.get("/api/transfers/:id").handler(this::getTransfer);
-        router.post("/api/transfers").handler(this::addTransfer);
-        router.put("/api/transfers/:id").handler(this::updateTransfer);
-
-        vertx
-                .createHttpServer()
-                .requestHandler(router::accept)
-                .listen(
-                        8080,
-                        result -> {
-                            if (result.succeeded()) {
-                            	log.info("done");
-                                temp.complete();
+        router.post("/api/transfers").handler(routingContext -> idempotently(routingContext, this::respondCreated, this::addTransfer));
+        router.post("/api/transfers/batch").handler(this::addTransfers);
+        router.put("/api/transfers/:id").handler(routingContext -> idempotently(routingContext, this::respondTransfer, this::updateTransfer));
+
+        router.get("/api/reports").handler(routingContext -> report(routingContext, true, true));
+        router.get("/api/reports/balances").handler(routingContext -> report(routingContext, true, false));
+        router.get("/api/reports/transfers").handler(routingContext -> report(routingContext, false, true));
+
+        router.get("/api/fx/rates").handler(routingContext -> respondRates(routingContext, ledger.getRates()));
+        router.put("/api/fx/rates").handler(this::updateRates);
+
+        List<String> paths = new ArrayList<>();
+        for (Route route : router.getRoutes()) {
+            paths.add(route.getPath());
+        }
+        routePatterns = new RoutePatterns(paths);
+
+        new BinaryServer(vertx, bank, shardCount).listen(config().getInteger("binaryPort", DEFAULT_BINARY_PORT), binary -> {
+            if (binary.failed()) {
+                temp.fail(binary.cause());
+                return;
+            }
+            vertx
+                    .createHttpServer()
+                    .requestHandler(router::accept)
+                    .listen(
+                            config().getInteger("httpPort", DEFAULT_HTTP_PORT),
+                            result -> {
+                                if (result.succeeded()) {
+                                	log.info("done");
+                                    temp.complete();
                                 
-                            } else {
-                                temp.fail(result.cause());
+                                } else {
+                                    temp.fail(result.cause());
+                                }
                             }
-                        }
-                );
+                    );
+        });
     }
 
+    /**
+     * Lists all accounts or, given any of {@code after}, {@code limit} and {@code currency}, one page of them.
+     */
     private void getAllAccounts(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        if (!request.params().isEmpty()) {
+            try {
+                String currency = request.getParam("currency");
+                int limit = limit(request);
+                respondPage(routingContext, ledger.page(after(request), limit, currency == null ? null : Currency.getInstance(currency)),
+                        limit, Account::getId, App::encodeAccounts);
+            } catch (IllegalArgumentException e) {
+                routingContext.response().setStatusCode(400).end();
+            }
+            return;
+        }
         routingContext.response()
                 .putHeader("content-type", "application/json; charset=utf-8")
-                .end(Json.encodePrettily(accounts.values()));
+                .end(encodeAccounts(ledger.getAll()));
 
     }
 
+    /**
+     * Creates or replaces the accounts of an NDJSON body, keeping the ids they were exported with.
+     */
+    private void importAccounts(RoutingContext routingContext) {
+        Ndjson.read(routingContext.request(), context, bank, line -> {
+            Account decoded = ModelCodec.decodeAccount(line);
+            if (decoded.getCurrency() == null || decoded.getBalance() == null) {
+                throw new IllegalArgumentException("balance and currency are required");
+            }
+            ledger.add(new Account(decoded.getId(), decoded.getUserName(), decoded.getBalanceMinor(), decoded.getCurrency()));
+        }, counts -> respondImported(routingContext, counts));
+    }
+
     private void getAccount(RoutingContext routingContext) {
         final String id = routingContext.request().getParam("id");
         if (id == null) {
             routingContext.response().setStatusCode(400).end();
         } else {
             final Integer idInt = Integer.valueOf(id);
-            Account account = accounts.get(idInt);
+            Account account = ledger.get(idInt);
             if (account == null) {
                 routingContext.response().setStatusCode(404).end();
             } else {
                 routingContext.response()
                         .putHeader("content-type", "application/json; charset=utf-8")
-                        .end(Json.encodePrettily(account));
+                        .end(account.getView(ModelCodec::encode));
             }
         }
     }
 
+    /**
+     * Joins the cached views of the accounts into a JSON array, encoding only accounts that changed.
+     */
+    private static Buffer encodeAccounts(Collection<Account> accounts) {
+        Buffer json = Buffer.buffer(accounts.size() * 80 + 2).appendByte((byte) '[');
+        for (Account account : accounts) {
+            if (json.length() > 1) {
+                json.appendByte((byte) ',');
+            }
+            json.appendBuffer(account.getView(ModelCodec::encode));
+        }
+        return json.appendByte((byte) ']');
+    }
+
     private void addAccount(RoutingContext routingContext) {
         try {
-            final Account account = Json.decodeValue(routingContext.getBodyAsString(),
-                    Account.class);
-            accounts.put(account.getId(), account);
-            routingContext.response()
+            final Account account = ModelCodec.decodeAccount(routingContext.getBody());
+            ledger.add(account);
+            respondWhenDurable(routingContext, () -> routingContext.response()
                     .setStatusCode(201)
                     .putHeader("content-type", "application/json; charset=utf-8")
-                    .end(Json.encodePrettily(account));
+                    .end(account.getView(ModelCodec::encode)));
         } catch (Exception e) {
             routingContext.response().setStatusCode(400).end();
         }
@@ -117,60 +303,186 @@ public class App extends AbstractVerticle {
 
     private void updateAccount(RoutingContext routingContext) {
         final String id = routingContext.request().getParam("id");
-        JsonObject json = routingContext.getBodyAsJson();
+        JsonObject json = bodyAsJson(routingContext);
         if (id == null || json == null) {
             routingContext.response().setStatusCode(400).end();
         } else {
             final Integer user = Integer.valueOf(id);
-            Account account = accounts.get(user);
+            Account account = ledger.get(user);
             if (account == null) {
                 routingContext.response().setStatusCode(404).end();
+            } else if (isSharded()) {
+                JsonObject update = new JsonObject()
+                        .put("op", AccountShard.OP_UPDATE)
+                        .put("account", user)
+                        .put("body", json);
+                sendToOwner(user, update, routingContext, reply -> respondUpdate(routingContext, account, reply.getBoolean("updated")));
             } else {
-                boolean updated = false;
-                if (json.getString("name") != null && !json.getString("name").isEmpty()) {
-                    account.setUserName(json.getString("name"));
-                    updated = true;
-                }
-                if (json.getString("balance") != null && !json.getString("balance").isEmpty() && (new BigDecimal(json.getString("balance"))).compareTo(BigDecimal.ZERO) >= 0) {
-                    account.setBalance(new BigDecimal(json.getString("balance")));
-                    updated = true;
-                }
-                if (json.getString("currency") != null && !json.getString("currency").isEmpty()) {
-                    try {
-                        account.setCurrency(Currency.getInstance(json.getString("currency")));
-                        updated = true;
-                    } catch (Exception e) {
-                        updated = false;
-                    }
-                }
-                if (!updated) {
-                    routingContext.response().setStatusCode(400).end();
+                Boolean updated = ledger.update(user, toUpdate -> bank.update(toUpdate, json));
+                if (updated == null) {
+                    routingContext.response().setStatusCode(404).end();
                 } else {
-                    routingContext.response()
-                            .putHeader("content-type", "application/json; charset=utf-8")
-                            .end(Json.encodePrettily(account));
+                    respondUpdate(routingContext, account, updated);
                 }
             }
         }
     }
 
+    /**
+     * @return the JSON object of the body, or null if there is none or it is not JSON
+     */
+    private static JsonObject bodyAsJson(RoutingContext routingContext) {
+        try {
+            return routingContext.getBodyAsJson();
+        } catch (DecodeException e) {
+            return null;
+        }
+    }
+
+    private void respondUpdate(RoutingContext routingContext, Account account, boolean updated) {
+        if (!updated) {
+            routingContext.response().setStatusCode(400).end();
+        } else {
+            // an off-heap ledger hands out copies, so the one read before the update is stale
+            Account current = ledger.get(account.getId());
+            respondWhenDurable(routingContext, () -> routingContext.response()
+                    .putHeader("content-type", "application/json; charset=utf-8")
+                    .end((current == null ? account : current).getView(ModelCodec::encode)));
+        }
+    }
+
     private void deleteAccount(RoutingContext routingContext) {
         String id = routingContext.request().getParam("id");
         if (id == null) {
             routingContext.response().setStatusCode(400).end();
-        } else if (accounts.get(Integer.valueOf(id)) == null) {
+        } else if (ledger.get(Integer.valueOf(id)) == null) {
             routingContext.response().setStatusCode(404).end();
         } else {
             Integer user = Integer.valueOf(id);
-            accounts.remove(user);
-            routingContext.response().setStatusCode(204).end();
+            if (isSharded()) {
+                JsonObject delete = new JsonObject()
+                        .put("op", AccountShard.OP_DELETE)
+                        .put("account", user);
+                sendToOwner(user, delete, routingContext, reply ->
+                        respondWhenDurable(routingContext, () -> routingContext.response().setStatusCode(204).end()));
+            } else if (ledger.remove(user) == null) {
+                routingContext.response().setStatusCode(404).end();
+            } else {
+                respondWhenDurable(routingContext, () -> routingContext.response().setStatusCode(204).end());
+            }
         }
     }
 
+    /**
+     * Lists all transfers or, given any of {@code after}, {@code limit}, {@code status}, {@code currency},
+     * {@code fromAccountId}, {@code toAccountId} and {@code accountId}, one page of them.
+     */
     private void getAllTransfers(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        if (!request.params().isEmpty()) {
+            try {
+                TransferQuery query = transferQuery(request)
+                        .accountId(intParam(request, "accountId"));
+                respondPage(routingContext, bank.findTransfers(query), query.getLimit(), Transfer::getId,
+                        ModelCodec::encodeTransfers);
+            } catch (IllegalArgumentException e) {
+                routingContext.response().setStatusCode(400).end();
+            }
+            return;
+        }
         routingContext.response()
                 .putHeader("content-type", "application/json; charset=utf-8")
-                .end(Json.encodePrettily(transfers.values()));
+                .end(ModelCodec.encodeTransfers(transfers.values()));
+    }
+
+    /**
+     * Creates or replaces the transfers of an NDJSON body as they are, keeping their ids and statuses and
+     * without moving any money.
+     */
+    private void importTransfers(RoutingContext routingContext) {
+        Ndjson.read(routingContext.request(), context, bank, line -> {
+            Transfer decoded = ModelCodec.decodeTransfer(line);
+            if (decoded.getCurrency() == null || decoded.getAmount() == null || decoded.getStatus() == null) {
+                throw new IllegalArgumentException("amount, currency and status are required");
+            }
+            Transfer transfer = new Transfer(decoded.getId(), decoded.getFromAccountId(), decoded.getToAccountId(),
+                    decoded.getAmountMinor(), decoded.getCurrency(), decoded.getComment(), decoded.getStatus());
+            transfer.setDiscount(decoded.getDiscount());
+            transfer.setFeeRate(decoded.getFeeRate());
+            bank.addTransfer(transfer);
+        }, counts -> respondImported(routingContext, counts));
+    }
+
+    private void respondImported(RoutingContext routingContext, JsonObject counts) {
+        respondWhenDurable(routingContext, () -> routingContext.response()
+                .putHeader("content-type", "application/json; charset=utf-8")
+                .end(counts.encode()));
+    }
+
+    /**
+     * Lists one page of the transfers the account is either side of, taking the same parameters as the
+     * transfer listing.
+     */
+    private void getAccountTransfers(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        try {
+            int id = Integer.parseInt(request.getParam("id"));
+            if (ledger.get(id) == null) {
+                routingContext.response().setStatusCode(404).end();
+                return;
+            }
+            TransferQuery query = transferQuery(request).accountId(id);
+            respondPage(routingContext, bank.findTransfers(query), query.getLimit(), Transfer::getId,
+                    ModelCodec::encodeTransfers);
+        } catch (IllegalArgumentException e) {
+            routingContext.response().setStatusCode(400).end();
+        }
+    }
+
+    private static TransferQuery transferQuery(HttpServerRequest request) {
+        String status = request.getParam("status");
+        String currency = request.getParam("currency");
+        return new TransferQuery()
+                .after(after(request))
+                .limit(limit(request))
+                .status(status == null ? null : TransferStatus.valueOf(status))
+                .currency(currency == null ? null : Currency.getInstance(currency))
+                .fromAccountId(intParam(request, "fromAccountId"))
+                .toAccountId(intParam(request, "toAccountId"));
+    }
+
+    /**
+     * Answers with one page of records and, if the page is full, the id to ask for the next page after.
+     */
+    private <T> void respondPage(RoutingContext routingContext, List<T> page, int limit, ToIntFunction<T> id,
+                                 Function<List<T>, Buffer> encoder) {
+        HttpServerResponse response = routingContext.response()
+                .putHeader("content-type", "application/json; charset=utf-8");
+        if (page.size() == limit) {
+            response.putHeader("X-Next-After", String.valueOf(id.applyAsInt(page.get(page.size() - 1))));
+        }
+        response.end(encoder.apply(page));
+    }
+
+    private static int after(HttpServerRequest request) {
+        Integer after = intParam(request, "after");
+        return after == null ? -1 : after;
+    }
+
+    private static int limit(HttpServerRequest request) {
+        Integer limit = intParam(request, "limit");
+        if (limit == null) {
+            return Pages.DEFAULT_LIMIT;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, Pages.MAX_LIMIT);
+    }
+
+    private static Integer intParam(HttpServerRequest request, String name) {
+        String value = request.getParam(name);
+        return value == null ? null : Integer.valueOf(value);
     }
 
     private void getTransfer(RoutingContext routingContext) {
@@ -185,25 +497,101 @@ public class App extends AbstractVerticle {
             } else {
                 routingContext.response()
                         .putHeader("content-type", "application/json; charset=utf-8")
-                        .end(Json.encodePrettily(transfer));
+                        .end(ModelCodec.encode(transfer));
             }
         }
     }
 
     private void addTransfer(RoutingContext routingContext) {
         try {
-            final Transfer transfer = Json.decodeValue(routingContext.getBodyAsString(),
-                    Transfer.class);
-            transfers.put(transfer.getId(), transfer);
-            routingContext.response()
-                    .setStatusCode(201)
-                    .putHeader("content-type", "application/json; charset=utf-8")
-                    .end(Json.encodePrettily(transfer));
+            final Transfer transfer = ModelCodec.decodeTransfer(routingContext.getBody());
+            bank.addTransfer(transfer);
+            remember(routingContext, IdempotencyCache.succeeded(transfer.getId()));
+            respondCreated(routingContext, transfer);
         } catch (Exception e) {
+            remember(routingContext, IdempotencyCache.failed(400));
+            routingContext.response().setStatusCode(400).end();
+        }
+    }
+
+    private void respondCreated(RoutingContext routingContext, Transfer transfer) {
+        respondWhenDurable(routingContext, () -> routingContext.response()
+                .setStatusCode(201)
+                .putHeader("content-type", "application/json; charset=utf-8")
+                .end(ModelCodec.encode(transfer)));
+    }
+
+    /**
+     * Adds and executes a JSON array of transfers in one request. Items that cannot be decoded are reported
+     * with their error and skipped; the others are executed in order and reported with their status, e.g.
+     * {@code [{"index":0,"id":7,"status":"SUCCEED"},{"index":1,"error":"..."}]}.
+     */
+    private void addTransfers(RoutingContext routingContext) {
+        List<JsonObject> results = new ArrayList<>();
+        List<Transfer> batch = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        try {
+            JsonReader reader = new JsonReader(routingContext.getBody());
+            reader.beginArray();
+            for (int i = 0; reader.nextElement(); i++) {
+                if (i == MAX_BATCH) {
+                    routingContext.response().setStatusCode(413).end();
+                    return;
+                }
+                JsonObject result = new JsonObject().put("index", i);
+                results.add(result);
+                try {
+                    Transfer transfer = ModelCodec.readTransfer(reader);
+                    if (transfer.getCurrency() == null || transfer.getAmount() == null) {
+                        result.put("error", "amount and currency are required");
+                        continue;
+                    }
+                    batch.add(transfer);
+                    indexes.add(i);
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    result.put("error", "invalid transfer");
+                }
+            }
+            reader.end();
+        } catch (DecodeException e) {
             routingContext.response().setStatusCode(400).end();
+            return;
+        }
+        for (Transfer transfer : batch) {
+            bank.addTransfer(transfer);
+        }
+        Runnable respond = () -> {
+            for (int i = 0; i < batch.size(); i++) {
+                results.get(indexes.get(i)).put("id", batch.get(i).getId()).put("status", batch.get(i).getStatus().name());
+            }
+            respondWhenDurable(routingContext, () -> routingContext.response()
+                    .putHeader("content-type", "application/json; charset=utf-8")
+                    .end(new JsonArray(results).encode()));
+        };
+        if (!isSharded() || batch.isEmpty()) {
+            ledger.executeAll(batch);
+            respond.run();
+            return;
+        }
+        int[] outstanding = {batch.size()};
+        for (Transfer transfer : batch) {
+            JsonObject debit = new JsonObject()
+                    .put("op", AccountShard.OP_DEBIT)
+                    .put("transfer", transfer.getId());
+            String address = AccountShard.address(AccountShard.shardOf(transfer.getFromAccountId(), shardCount));
+            vertx.eventBus().<JsonObject>send(address, debit, reply -> {
+                if (--outstanding[0] == 0) {
+                    respond.run();
+                }
+            });
         }
     }
 
+    /**
+     * Queues a pending transfer for settlement and answers 202 at once with the transfer as it is. Its outcome
+     * can be polled with {@code GET /api/transfers/:id} or followed on {@link Bank#SETTLED_ADDRESS}. A
+     * transfer that already succeeded or failed is answered with 200, and 503 means the queue is full.
+     */
     private void updateTransfer(RoutingContext routingContext) {
         final String id = routingContext.request().getParam("id");
         if (id == null) {
@@ -213,43 +601,215 @@ public class App extends AbstractVerticle {
             Transfer transfer = transfers.get(user);
             if (transfer == null) {
                 routingContext.response().setStatusCode(404).end();
-            } else {
-                if (transfer.getStatus() != TransferStatus.PENDING && transfer.getStatus() != TransferStatus.FAILED &&
-            		transfer.getAmount().compareTo(BigDecimal.ZERO) > 0 &&
-            		accounts.get(transfer.getFromAccountId()).getBalance().compareTo(transfer.getAmount()) >= 0 &&
-            		accounts.get(transfer.getFromAccountId()) != null && accounts.get(transfer.getToAccountId()) != null &&
-            		
-            		accounts.get(transfer.getFromAccountId()).getCurrency().equals(accounts.get(transfer.getToAccountId()).getCurrency()) &&
-            		accounts.get(transfer.getFromAccountId()).getCurrency().equals(transfer.getCurrency()) &&
-            		accounts.get(transfer.getToAccountId()).getCurrency().equals(transfer.getCurrency())) 
-                {
-                    accounts.get(transfer.getFromAccountId()).withdraw(transfer.getAmount());
-                    accounts.get(transfer.getToAccountId()).deposit(transfer.getAmount());
-                    transfer.setStatus(TransferStatus.PENDING);
-                } else {
-                    transfer.setStatus(TransferStatus.FAILED);
+                return;
+            }
+            if (transfer.getStatus() == TransferStatus.PENDING) {
+                if (isSharded()) {
+                    JsonObject debit = new JsonObject()
+                            .put("op", AccountShard.OP_DEBIT)
+                            .put("transfer", user);
+                    vertx.eventBus().send(AccountShard.address(AccountShard.shardOf(transfer.getFromAccountId(), shardCount)), debit);
+                } else if (!bank.getSettlement().submit(transfer)) {
+                    routingContext.response().setStatusCode(503).putHeader("Retry-After", "1").end();
+                    return;
                 }
+            }
+            remember(routingContext, IdempotencyCache.succeeded(transfer.getId()));
+            respondTransfer(routingContext, transfer);
+        }
+    }
+
+    private void respondTransfer(RoutingContext routingContext, Transfer transfer) {
+        respondWhenDurable(routingContext, () -> routingContext.response()
+                .setStatusCode(transfer.getStatus() == TransferStatus.PENDING ? 202 : 200)
+                .putHeader("content-type", "application/json; charset=utf-8")
+                .end(ModelCodec.encode(transfer)));
+    }
+
+    /**
+     * Handles the request unless it carries an {@code Idempotency-Key} already used with the same method and
+     * path, which is answered from the stored outcome without touching the ledger: the transfer as it is now,
+     * answered by {@code replay}, or the refusal. A retry arriving while the first request with its key is
+     * still running gets 409.
+     */
+    private void idempotently(RoutingContext routingContext, BiConsumer<RoutingContext, Transfer> replay,
+                              Handler<RoutingContext> handler) {
+        HttpServerRequest request = routingContext.request();
+        String header = request.getHeader(IDEMPOTENCY_KEY);
+        if (header == null) {
+            handler.handle(routingContext);
+            return;
+        }
+        IdempotencyCache idempotency = bank.getIdempotency();
+        String key = request.rawMethod() + ' ' + request.path() + ' ' + header;
+        int outcome = idempotency.reserve(key);
+        if (outcome == IdempotencyCache.ABSENT) {
+            // requests that end or break without an outcome leave the key to their retry
+            routingContext.put(IDEMPOTENCY_KEY, key);
+            routingContext.addBodyEndHandler(v -> idempotency.release(key));
+            routingContext.response().closeHandler(v -> idempotency.release(key));
+            handler.handle(routingContext);
+        } else if (outcome == IdempotencyCache.IN_FLIGHT) {
+            routingContext.response().setStatusCode(409).end();
+        } else if (IdempotencyCache.isFailure(outcome)) {
+            routingContext.response().setStatusCode(IdempotencyCache.statusCode(outcome)).end();
+        } else {
+            Transfer transfer = transfers.get(IdempotencyCache.transferId(outcome));
+            if (transfer == null) {
+                routingContext.response().setStatusCode(404).end();
+            } else {
+                routingContext.response().putHeader("Idempotent-Replayed", "true");
+                replay.accept(routingContext, transfer);
+            }
+        }
+    }
+
+    /**
+     * Stores the outcome of a request made with an idempotency key, as soon as it is known so that a retry
+     * racing the response is not applied again.
+     */
+    private void remember(RoutingContext routingContext, int outcome) {
+        String key = routingContext.get(IDEMPOTENCY_KEY);
+        if (key != null) {
+            bank.getIdempotency().complete(key, outcome);
+        }
+    }
+
+    /**
+     * Refuses the request before its body is read if the client exceeds its rate or too many requests are
+     * in flight for its priority, and otherwise holds its slot until the response is done.
+     */
+    private static void admit(RoutingContext routingContext, AdmissionControl admission) {
+        HttpServerRequest request = routingContext.request();
+        switch (admission.admit(request.remoteAddress().host(), priority(request))) {
+            case ADMITTED:
+                routingContext.response().endHandler(v -> admission.release());
+                routingContext.next();
+                break;
+            case THROTTLED:
                 routingContext.response()
-                        .putHeader("content-type", "application/json; charset=utf-8")
-                        .end(Json.encodePrettily(transfer));
+                        .setStatusCode(429)
+                        .putHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()))
+                        .end();
+                break;
+            default:
+                routingContext.response()
+                        .setStatusCode(503)
+                        .putHeader("Retry-After", "1")
+                        .end();
+        }
+    }
+
+    private static AdmissionControl.Priority priority(HttpServerRequest request) {
+        String path = request.path();
+        boolean read = request.method() == HttpMethod.GET || request.method() == HttpMethod.HEAD;
+        if (path.endsWith("/import") || path.endsWith("/export") || path.startsWith("/api/reports") ||
+                read && (path.equals("/api/accounts") || path.endsWith("/transfers"))) {
+            return AdmissionControl.Priority.BULK;
+        }
+        if (!read && path.startsWith("/api/transfers")) {
+            return AdmissionControl.Priority.CRITICAL;
+        }
+        return AdmissionControl.Priority.NORMAL;
+    }
+
+    /**
+     * Answers with totals computed from a snapshot of the accounts and transfers on a worker thread, which
+     * splits the work over the cores while the event loop goes on serving.
+     */
+    private void report(RoutingContext routingContext, boolean balances, boolean transferTotals) {
+        vertx.<JsonObject>executeBlocking(future -> future.complete(bank.report(balances, transferTotals)), false, result -> {
+            if (result.failed()) {
+                log.error("[report]: failed", result.cause());
+                routingContext.response().setStatusCode(500).end();
+                return;
             }
+            JsonObject report = result.result();
+            routingContext.response()
+                    .putHeader("content-type", "application/json; charset=utf-8")
+                    .end((balances && transferTotals ? report : report.getJsonObject(balances ? "balances" : "transfers")).encodePrettily());
+        });
+    }
+
+    /**
+     * Answers the request on this verticle's event loop once the changes it made are persisted.
+     */
+    private void respondWhenDurable(RoutingContext routingContext, Runnable respond) {
+        if (bank.getJournal() == null) {
+            respond.run();
+            return;
         }
+        bank.whenDurable(result -> context.runOnContext(v -> {
+            if (result.succeeded()) {
+                respond.run();
+            } else {
+                routingContext.response().setStatusCode(500).end();
+            }
+        }));
+    }
+
+    private boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    /**
+     * Sends a command to the shard owning the account and hands a successful reply to the handler,
+     * answering the request with the failure code of the shard otherwise.
+     */
+    private void sendToOwner(int accountId, JsonObject command, RoutingContext routingContext, Handler<JsonObject> handler) {
+        String address = AccountShard.address(AccountShard.shardOf(accountId, shardCount));
+        vertx.eventBus().<JsonObject>send(address, command, reply -> {
+            if (reply.succeeded()) {
+                handler.handle(reply.result().body());
+            } else if (reply.cause() instanceof ReplyException && ((ReplyException) reply.cause()).failureCode() > 0) {
+                routingContext.response().setStatusCode(((ReplyException) reply.cause()).failureCode()).end();
+            } else {
+                routingContext.response().setStatusCode(500).end();
+            }
+        });
+    }
+
+    /**
+     * Replaces the exchange rates with those of the body, e.g. {@code {"base":"EUR","rates":{"USD":"1.0842"}}}.
+     */
+    private void updateRates(RoutingContext routingContext) {
+        // building a table works out the rate of every pair of currencies, too much for an event loop
+        vertx.<RateTable>executeBlocking(future -> future.complete(RateTable.parse(routingContext.getBodyAsJson())),
+                false, result -> {
+                    if (result.failed()) {
+                        routingContext.response().setStatusCode(400).end();
+                        return;
+                    }
+                    bank.setRates(result.result());
+                    respondRates(routingContext, result.result());
+                });
+    }
+
+    private void respondRates(RoutingContext routingContext, RateTable rates) {
+        routingContext.response()
+                .putHeader("content-type", "application/json; charset=utf-8")
+                .end(rates.toJson().encodePrettily());
     }
 
     private void initiateAccount() {
         Account account1 = new Account("Yuanwen", new BigDecimal("1111"), Currency.getInstance("EUR"));
-        accounts.put(account1.getId(), account1);
+        ledger.add(account1);
         log.info("[warm]: "+ account1.getId());
         Account account2 = new Account("Bach", new BigDecimal("234"), Currency.getInstance("EUR"));
-        accounts.put(account2.getId(), account2);
+        ledger.add(account2);
         Account account3 = new Account("Caesar", new BigDecimal("10000"), Currency.getInstance("GBP"));
-        accounts.put(account3.getId(), account3);
+        ledger.add(account3);
         Transfer trans1 = new Transfer(0, 1, new BigDecimal("650"), Currency.getInstance("EUR"), "Rent");
-        transfers.put(trans1.getId(), trans1);
+        bank.addTransfer(trans1);
         Transfer trans2 = new Transfer(1, 2, new BigDecimal("200"), Currency.getInstance("USD"), "Gift");
-        transfers.put(trans2.getId(), trans2);
+        bank.addTransfer(trans2);
         Transfer trans3 = new Transfer(1, 0, new BigDecimal("100"), Currency.getInstance("EUR"), "Shopping");
-        transfers.put(trans3.getId(), trans3);
+        bank.addTransfer(trans3);
+        if (ledger.getRates() == RateTable.EMPTY) {
+            bank.setRates(RateTable.parse(new JsonObject()
+                    .put("base", "EUR")
+                    .put("rates", new JsonObject().put("USD", "1.0842").put("GBP", "0.8571"))));
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,599 @@
+package com.revolut.japp.moneytransfer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.admission.AdmissionControl;
+import com.revolut.japp.moneytransfer.archive.TransferArchive;
+import com.revolut.japp.moneytransfer.archive.TransferStore;
+import com.revolut.japp.moneytransfer.fees.FeeSchedule;
+import com.revolut.japp.moneytransfer.fx.RateTable;
+import com.revolut.japp.moneytransfer.idempotency.IdempotencyCache;
+import com.revolut.japp.moneytransfer.index.TransferIndex;
+import com.revolut.japp.moneytransfer.index.TransferQuery;
+import com.revolut.japp.moneytransfer.journal.Journal;
+import com.revolut.japp.moneytransfer.journal.JournalHandler;
+import com.revolut.japp.moneytransfer.journal.JournalRecord;
+import com.revolut.japp.moneytransfer.journal.JournalingListener;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.ledger.AccountStore;
+import com.revolut.japp.moneytransfer.ledger.HeapAccountStore;
+import com.revolut.japp.moneytransfer.ledger.LedgerListener;
+import com.revolut.japp.moneytransfer.ledger.OffHeapAccountStore;
+import com.revolut.japp.moneytransfer.metrics.Metrics;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Money;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.replication.ReplicationFollower;
+import com.revolut.japp.moneytransfer.replication.ReplicationLeader;
+import com.revolut.japp.moneytransfer.report.Reports;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Account and transfer state shared by every {@link App} instance deployed in one Vert.x.
+ * <p>
+ * Each section of the config, e.g. {@code {"journal": {"dir": "data"}}}, configures one of its parts and is
+ * documented on the class of that part.
+ */
+public class Bank implements Shareable {
+
+    private static final Logger log = Logger.getLogger(Bank.class);
+
+    /**
+     * Event bus address on which {@code {"id": 7, "status": "SUCCEED"}} is published whenever a transfer
+     * succeeds or fails.
+     */
+    public static final String SETTLED_ADDRESS = "moneytransfer.transfers.settled";
+
+    private static final String SHARED_MAP = "moneytransfer";
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 300;
+    private static final long DEFAULT_ARCHIVE_AGE = 60 * 60;
+    private static final long ARCHIVE_INTERVAL_MILLIS = 1000;
+    private static final long DEFAULT_IDEMPOTENCY_TTL = 24 * 60 * 60;
+    private static final int DEFAULT_IDEMPOTENCY_KEYS = 1 << 24;
+    private static final int DEFAULT_SETTLEMENT_QUEUE = 65536;
+    private static final double DEFAULT_ADMISSION_RATE = 1000;
+    private static final int DEFAULT_ADMISSION_BURST = 2000;
+    private static final int DEFAULT_MIN_CONCURRENCY = 16;
+    private static final int DEFAULT_MAX_CONCURRENCY = 1024;
+    private static final long DEFAULT_TARGET_LAG = 50;
+    private static final long FOLD_INTERVAL_MILLIS = 50;
+
+    private final AccountLedger ledger;
+    private final TransferStore transfers = new TransferStore();
+    private final TransferIndex transferIndex = new TransferIndex(transfers::get, transfers::idsAfter);
+    private final Metrics metrics = new Metrics();
+    private IdempotencyCache idempotency = new IdempotencyCache(TimeUnit.SECONDS.toMillis(DEFAULT_IDEMPOTENCY_TTL), DEFAULT_IDEMPOTENCY_KEYS);
+    private AdmissionControl admission = new AdmissionControl(DEFAULT_ADMISSION_RATE, DEFAULT_ADMISSION_BURST,
+            DEFAULT_MIN_CONCURRENCY, DEFAULT_MAX_CONCURRENCY, DEFAULT_TARGET_LAG);
+    private final AtomicBoolean initialised = new AtomicBoolean();
+    private final AtomicInteger shards = new AtomicInteger();
+    private Vertx vertx;
+    private Settlement settlement;
+    private Journal journal;
+    private volatile LedgerListener journaling = LedgerListener.NONE;
+    private ReplicationLeader replicationLeader;
+    private ReplicationFollower replicationFollower;
+    private long snapshotAt;
+
+    public Bank() {
+        this(new HeapAccountStore());
+    }
+
+    public Bank(AccountStore store) {
+        ledger = new AccountLedger(store);
+        ledger.setListener(new LedgerListener() {
+            @Override
+            public void accountChanged(Account account) {
+                journaling.accountChanged(account);
+            }
+
+            @Override
+            public void accountRemoved(int id) {
+                journaling.accountRemoved(id);
+            }
+
+            @Override
+            public void transferred(Transfer transfer, Account from, Account to, Account feeAccount, long fee) {
+                if (transfer != null) {
+                    transferIndex.statusChanged(transfer);
+                    metrics.transferExecuted(transfer.getStatus());
+                    settled(transfer);
+                }
+                journaling.transferred(transfer, from, to, feeAccount, fee);
+            }
+
+            @Override
+            public void transferredToHot(Transfer transfer, Account from, Account to, long amount, Account feeAccount, long fee) {
+                if (transfer != null) {
+                    transferIndex.statusChanged(transfer);
+                    metrics.transferExecuted(transfer.getStatus());
+                    settled(transfer);
+                }
+                journaling.transferredToHot(transfer, from, to, amount, feeAccount, fee);
+            }
+
+            @Override
+            public void legMoved(Transfer transfer, Account account) {
+                journaling.legMoved(transfer, account);
+            }
+        });
+    }
+
+    /**
+     * Returns the bank shared by all verticles of the given vertx, creating it and replaying its journal on
+     * first use. May block, so it must not be called on an event loop.
+     */
+    public static Bank shared(Vertx vertx, JsonObject config) throws IOException {
+        LocalMap<String, Bank> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        synchronized (Bank.class) {
+            Bank bank = map.get("bank");
+            if (bank == null) {
+                bank = "offHeap".equals(config.getJsonObject("ledger", new JsonObject()).getString("store"))
+                        ? new Bank(new OffHeapAccountStore()) : new Bank();
+                bank.open(vertx, config);
+                map.put("bank", bank);
+            }
+            return bank;
+        }
+    }
+
+    private void open(Vertx vertx, JsonObject config) throws IOException {
+        this.vertx = vertx;
+        settlement = new Settlement(ledger, config.getJsonObject("settlement", new JsonObject())
+                .getInteger("queueSize", DEFAULT_SETTLEMENT_QUEUE));
+        settlement.start();
+        JsonArray hotAccounts = config.getJsonObject("ledger", new JsonObject()).getJsonArray("hotAccounts", new JsonArray());
+        for (int i = 0; i < hotAccounts.size(); i++) {
+            ledger.setHot(hotAccounts.getInteger(i), true);
+        }
+        JsonObject replicationConfig = config.getJsonObject("replication", new JsonObject());
+        String leader = replicationConfig.getString("leader");
+        if (leader == null) {
+            // a follower must keep the epochs of the leader, whose folds it receives
+            ScheduledExecutorService folder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "credit-folder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            folder.scheduleWithFixedDelay(ledger::foldHotAccounts, FOLD_INTERVAL_MILLIS, FOLD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        String ratesFile = config.getJsonObject("fx", new JsonObject()).getString("file");
+        if (ratesFile != null) {
+            setRates(RateTable.parse(new JsonObject(new String(Files.readAllBytes(Paths.get(ratesFile)), StandardCharsets.UTF_8))));
+        }
+        JsonObject feesConfig = config.getJsonObject("fees");
+        if (feesConfig != null) {
+            ledger.setFees(FeeSchedule.parse(feesConfig));
+        }
+        JsonObject idempotencyConfig = config.getJsonObject("idempotency", new JsonObject());
+        idempotency = new IdempotencyCache(
+                TimeUnit.SECONDS.toMillis(idempotencyConfig.getLong("ttl", DEFAULT_IDEMPOTENCY_TTL)),
+                idempotencyConfig.getInteger("maxKeys", DEFAULT_IDEMPOTENCY_KEYS));
+        JsonObject admissionConfig = config.getJsonObject("admission", new JsonObject());
+        admission = new AdmissionControl(
+                admissionConfig.getDouble("rate", DEFAULT_ADMISSION_RATE),
+                admissionConfig.getInteger("burst", DEFAULT_ADMISSION_BURST),
+                admissionConfig.getInteger("minConcurrency", DEFAULT_MIN_CONCURRENCY),
+                admissionConfig.getInteger("maxConcurrency", DEFAULT_MAX_CONCURRENCY),
+                admissionConfig.getLong("targetLag", DEFAULT_TARGET_LAG));
+
+        JsonObject archiveConfig = config.getJsonObject("archive");
+        if (archiveConfig != null && archiveConfig.getString("dir") != null) {
+            TransferArchive archive = TransferArchive.open(Paths.get(archiveConfig.getString("dir")), transferIndex::add);
+            transfers.archiveTo(archive, TimeUnit.SECONDS.toMillis(archiveConfig.getLong("age", DEFAULT_ARCHIVE_AGE)));
+            ScheduledExecutorService archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "transfer-archiver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            archiver.scheduleWithFixedDelay(this::archive, ARCHIVE_INTERVAL_MILLIS, ARCHIVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        if (leader != null) {
+            initialised.set(true);
+            int colon = leader.lastIndexOf(':');
+            replicationFollower = new ReplicationFollower(vertx, leader.substring(0, colon),
+                    Integer.parseInt(leader.substring(colon + 1)), ledger, restorer());
+            replicationFollower.start();
+            return;
+        }
+
+        JsonObject journalConfig = config.getJsonObject("journal");
+        if (journalConfig != null && journalConfig.getString("dir") != null) {
+            openJournal(journalConfig);
+        }
+        Integer replicationPort = replicationConfig.getInteger("port");
+        if (replicationPort != null) {
+            replicationLeader = new ReplicationLeader(vertx, ledger, transfers.values());
+            CompletableFuture<Void> listening = new CompletableFuture<>();
+            replicationLeader.listen(replicationPort, result -> {
+                if (result.succeeded()) {
+                    listening.complete(null);
+                } else {
+                    listening.completeExceptionally(result.cause());
+                }
+            });
+            try {
+                listening.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Cannot listen for followers on port " + replicationPort, e);
+            }
+            log.info("[replication]: leading on port " + replicationPort);
+        }
+        if (journal != null || replicationLeader != null) {
+            journaling = new JournalingListener(this::record);
+        }
+    }
+
+    private void openJournal(JsonObject journalConfig) throws IOException {
+        journal = Journal.open(Paths.get(journalConfig.getString("dir")),
+                journalConfig.getLong("segmentSize", DEFAULT_SEGMENT_SIZE), restorer());
+        if (journal.getRecoveredRecords() > 0) {
+            initialised.set(true);
+        }
+        journaling = new JournalingListener(this::record);
+        settleInterruptedLegs();
+        long interval = journalConfig.getLong("snapshotInterval", DEFAULT_SNAPSHOT_INTERVAL);
+        if (interval > 0) {
+            ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshots.scheduleWithFixedDelay(this::snapshot, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Finishes the transfers a crash interrupted between the debit and the outcome of their legs, crediting
+     * the legs that were not credited yet, or refunding the sender those the accounts refuse.
+     */
+    private void settleInterruptedLegs() {
+        int settled = 0;
+        for (Transfer transfer : transfers.inMemory()) {
+            TransferLegs legs = transfer.getLegs();
+            if (legs == null) {
+                continue;
+            }
+            if (legs.isCredited(false) || ledger.creditLeg(transfer, false)) {
+                if (legs.hasFeeLeg() && !legs.isCredited(true)) {
+                    ledger.creditLeg(transfer, true);
+                }
+            }
+            ledger.settleLegs(transfer);
+            settled++;
+        }
+        if (settled > 0) {
+            log.info("[journal]: settled " + settled + " transfers interrupted between their legs");
+        }
+    }
+
+    /**
+     * @return a handler replacing the state with the entries of journal or replication records
+     */
+    private JournalHandler restorer() {
+        return new JournalHandler() {
+            @Override
+            public void account(Account account) {
+                ledger.restore(account);
+            }
+
+            @Override
+            public void credited(int id, long amount, long epoch) {
+                ledger.restoreCredit(id, amount, epoch);
+            }
+
+            @Override
+            public void accountRemoved(int id) {
+                ledger.remove(id);
+            }
+
+            @Override
+            public void transfer(Transfer transfer) {
+                transfers.put(transfer);
+                transferIndex.add(transfer);
+            }
+        };
+    }
+
+    /**
+     * Writes a snapshot of the accounts and transfers unless there is no journal or nothing was journaled
+     * since the last one.
+     */
+    public synchronized void snapshot() {
+        if (journal == null) {
+            return;
+        }
+        long appended = journal.getAppended();
+        if (appended == snapshotAt) {
+            return;
+        }
+        try {
+            journal.snapshot(ledger.getAll(), transfers.inMemory(), ledger::foldHotAccounts);
+            snapshotAt = appended;
+        } catch (IOException | RuntimeException e) {
+            log.error("[snapshot]: failed, keeping the journal", e);
+        }
+    }
+
+    /**
+     * Moves the transfers finished long enough ago to the archive, keeping them in memory if that fails.
+     */
+    private void archive() {
+        try {
+            int archived = transfers.archive();
+            if (archived > 0) {
+                log.info("[archive]: moved " + archived + " transfers to disk");
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("[archive]: failed, keeping the transfers in memory", e);
+        }
+    }
+
+    /**
+     * @return the ledger holding the accounts
+     */
+    public AccountLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * @return the transfers, in memory or archived
+     */
+    public TransferStore getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * @return the page of transfers the query asks for
+     */
+    public List<Transfer> findTransfers(TransferQuery query) {
+        return transferIndex.page(query);
+    }
+
+    /**
+     * Computes the balances and, if asked for, the transfer totals from one snapshot, blocking until
+     * reports running meanwhile are done.
+     *
+     * @return the reports, keyed {@code balances} and {@code transfers}
+     */
+    public JsonObject report(boolean balances, boolean transferTotals) {
+        return ledger.snapshot(snapshot -> {
+            JsonObject report = new JsonObject();
+            if (balances) {
+                report.put("balances", Reports.balances(snapshot));
+            }
+            if (transferTotals) {
+                report.put("transfers", Reports.transfers(snapshot, transfers.values()));
+            }
+            return report;
+        });
+    }
+
+    /**
+     * @return the metrics of the service
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the queue transfers are executed from, or null before the bank is shared
+     */
+    public Settlement getSettlement() {
+        return settlement;
+    }
+
+    /**
+     * @return the outcomes of requests made with an idempotency key
+     */
+    public IdempotencyCache getIdempotency() {
+        return idempotency;
+    }
+
+    /**
+     * @return the admission control of HTTP requests
+     */
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return the replication to followers, or null unless the bank leads
+     */
+    public ReplicationLeader getReplicationLeader() {
+        return replicationLeader;
+    }
+
+    /**
+     * @return the replication from the leader, or null unless the bank follows one
+     */
+    public ReplicationFollower getReplicationFollower() {
+        return replicationFollower;
+    }
+
+    /**
+     * @return true if the bank is a read-only follower of another
+     */
+    public boolean isReplica() {
+        return replicationFollower != null;
+    }
+
+    /**
+     * @return the journal, or null if changes are not persisted
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Replaces the exchange rates; transfers already executing keep the rates they started with.
+     */
+    public void setRates(RateTable rates) {
+        ledger.setRates(rates);
+        log.info("[fx]: " + rates.toJson().getJsonObject("rates").size() + " rates against " + rates.getBase());
+    }
+
+    /**
+     * Stores, indexes and journals a new transfer.
+     */
+    public void addTransfer(Transfer transfer) {
+        synchronized (transfer) {
+            transfers.put(transfer);
+            transferIndex.add(transfer);
+            journal(transfer);
+        }
+        metrics.transferCreated();
+    }
+
+    /**
+     * Re-indexes and journals a transfer whose status was changed outside the ledger. The change must be
+     * visible in the transfers before it is journaled, or a snapshot taken in between could miss it.
+     */
+    public void transferChanged(Transfer transfer) {
+        transferIndex.statusChanged(transfer);
+        metrics.transferExecuted(transfer.getStatus());
+        settled(transfer);
+        journal(transfer);
+    }
+
+    private void settled(Transfer transfer) {
+        transfers.finished(transfer);
+        if (vertx != null) {
+            vertx.eventBus().publish(SETTLED_ADDRESS, new JsonObject()
+                    .put("id", transfer.getId())
+                    .put("status", transfer.getStatus().name()));
+        }
+    }
+
+    private void journal(Transfer transfer) {
+        if (journal != null || replicationLeader != null) {
+            record(new JournalRecord().transfer(transfer));
+        }
+    }
+
+    /**
+     * Journals the record and streams it to the followers.
+     */
+    private void record(JournalRecord record) {
+        if (journal != null) {
+            journal.append(record);
+        }
+        if (replicationLeader != null) {
+            replicationLeader.publish(record);
+        }
+    }
+
+    /**
+     * Calls the handler once every change made so far is persisted, straight away without a journal.
+     */
+    public void whenDurable(Handler<AsyncResult<Void>> handler) {
+        if (journal == null) {
+            handler.handle(Future.succeededFuture());
+        } else {
+            journal.whenDurable(handler);
+        }
+    }
+
+    /**
+     * @return true for exactly one caller, and only if nothing was recovered from the journal, which is then responsible for seeding the bank
+     */
+    public boolean claimInitialisation() {
+        return initialised.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the next unclaimed shard index
+     */
+    public int claimShard() {
+        return shards.getAndIncrement();
+    }
+
+    /**
+     * Applies the name, balance and currency found in an update request to the account. Every field is checked
+     * before any is applied, so a request with an invalid field changes nothing. A new balance is in the
+     * currency the account has after the update.
+     *
+     * @return true if at least one field was updated, false if none was given or one is invalid
+     */
+    public boolean update(Account account, JsonObject json) {
+        String name;
+        BigDecimal balance;
+        Currency currency;
+        try {
+            name = field(json, "name");
+            String amount = field(json, "balance");
+            String code = field(json, "currency");
+            balance = amount == null ? null : new BigDecimal(amount);
+            currency = code == null ? null : Currency.getInstance(code);
+            Currency target = currency == null ? account.getCurrency() : currency;
+            if (balance != null && balance.signum() < 0) {
+                return false;
+            }
+            if (balance != null && target != null) {
+                Money.toMinor(balance, target);
+            } else if (balance == null && currency != null) {
+                // the current balance must be expressible in the new currency
+                if (account.getCurrency() != null) {
+                    Money.rescale(account.getBalanceMinor(), account.getCurrency(), currency);
+                } else if (account.getBalance() != null) {
+                    Money.toMinor(account.getBalance(), currency);
+                }
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return false;
+        }
+        if (name != null) {
+            account.setUserName(name);
+        }
+        if (currency != null) {
+            if (balance != null) {
+                // replaced right after, so not rescaled into the new currency
+                account.setBalanceMinor(0);
+            }
+            account.setCurrency(currency);
+        }
+        if (balance != null) {
+            account.setBalance(balance);
+        }
+        return name != null || balance != null || currency != null;
+    }
+
+    /**
+     * @return the text of a string or number field, or null if it is missing or empty
+     * @throws IllegalArgumentException if the field is something else
+     */
+    private static String field(JsonObject json, String name) {
+        Object value = json.getValue(name);
+        if (value != null && !(value instanceof String) && !(value instanceof Number)) {
+            throw new IllegalArgumentException(name + " must be a string or a number");
+        }
+        return value == null || value.toString().isEmpty() ? null : value.toString();
+    }
+
+}
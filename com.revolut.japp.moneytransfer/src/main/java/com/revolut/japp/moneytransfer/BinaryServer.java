@@ -0,0 +1,342 @@
+package com.revolut.japp.moneytransfer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+/**
+ * Serves accounts and transfers over a compact binary protocol, for internal clients submitting transfers
+ * in bulk that would otherwise spend most of their time in HTTP and JSON.
+ * <p>
+ * Every frame is a big-endian {@code int} length followed by that many bytes. A request is
+ * {@code [int tag][byte op][body]} and its response {@code [int tag][byte result][body]}, the tag being
+ * chosen by the client and echoed back. Requests may be pipelined; responses come back in request order.
+ * <pre>
+ * op                    request body                                             response body
+ * GET_ACCOUNT      1    [int id]                                                 account
+ * GET_TRANSFER     2    [int id]                                                 transfer
+ * CREATE_TRANSFER  3    [int from][int to][long amount][currency][byte execute]  transfer
+ * EXECUTE_TRANSFER 4    [int id]                                                 transfer
+ *
+ * account:  [int id][long balance][currency]
+ * transfer: [int id][int from][int to][long amount][currency][byte status]
+ * </pre>
+ * Amounts and balances are minor units, a currency is its three-letter ISO 4217 code in ASCII and a status
+ * the ordinal of its {@link TransferStatus}. A request whose frame is not exactly as long as its op requires
+ * is answered with {@link #BAD_REQUEST} without being acted on. Unlike {@code PUT /api/transfers/:id},
+ * executing a transfer answers with its outcome instead of queueing it. Responses to changes are sent once
+ * they are durable. A replica answers changes with {@link #BAD_REQUEST}. An account or transfer without a
+ * currency, which the protocol cannot carry, is answered with {@link #ERROR}, as is a request that failed
+ * unexpectedly.
+ */
+public class BinaryServer {
+
+    private static final Logger log = Logger.getLogger(BinaryServer.class);
+
+    public static final byte GET_ACCOUNT = 1;
+    public static final byte GET_TRANSFER = 2;
+    public static final byte CREATE_TRANSFER = 3;
+    public static final byte EXECUTE_TRANSFER = 4;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte BAD_REQUEST = 2;
+    public static final byte ERROR = 3;
+
+    private static final String ASCII = StandardCharsets.US_ASCII.name();
+
+    private static final int MAX_FRAME = 1024;
+
+    /**
+     * Requests read but not answered yet after which a connection stops reading.
+     */
+    private static final int MAX_IN_FLIGHT = 4096;
+
+    private final Vertx vertx;
+    private final Bank bank;
+    private final AccountLedger ledger;
+    private final int shardCount;
+
+    public BinaryServer(Vertx vertx, Bank bank, int shardCount) {
+        this.vertx = vertx;
+        this.bank = bank;
+        this.ledger = bank.getLedger();
+        this.shardCount = shardCount;
+    }
+
+    public void listen(int port, Handler<AsyncResult<NetServer>> handler) {
+        vertx.createNetServer()
+                .connectHandler(socket -> new Connection(socket, vertx.getOrCreateContext()))
+                .listen(port, handler);
+    }
+
+    /**
+     * One client connection. Everything runs on the event loop the connection was accepted on.
+     */
+    private final class Connection {
+
+        private final NetSocket socket;
+        private final Context context;
+        private final ArrayDeque<Buffer[]> responses = new ArrayDeque<>();
+        private final List<Handler<Boolean>> awaitingDurable = new ArrayList<>();
+        /**
+         * Set while handling a read or a batch of answers, whose responses are then written together.
+         */
+        private boolean batching;
+        private boolean paused;
+
+        Connection(NetSocket socket, Context context) {
+            this.socket = socket;
+            this.context = context;
+            RecordParser parser = RecordParser.newFixed(4, null);
+            parser.setOutput(new Handler<Buffer>() {
+                private boolean header = true;
+
+                @Override
+                public void handle(Buffer buffer) {
+                    if (header) {
+                        int length = buffer.getInt(0);
+                        if (length < 5 || length > MAX_FRAME) {
+                            log.warn("[binary]: closing " + socket.remoteAddress() + " after a frame of " + length + " bytes");
+                            socket.close();
+                            return;
+                        }
+                        parser.fixedSizeMode(length);
+                    } else {
+                        request(buffer);
+                        parser.fixedSizeMode(4);
+                    }
+                    header = !header;
+                }
+            });
+            socket.handler(buffer -> {
+                batching = true;
+                try {
+                    parser.handle(buffer);
+                } finally {
+                    batching = false;
+                }
+                if (!awaitingDurable.isEmpty()) {
+                    whenDurable(new ArrayList<>(awaitingDurable));
+                    awaitingDurable.clear();
+                }
+                flush();
+            });
+            socket.exceptionHandler(e -> socket.close());
+            socket.drainHandler(v -> flush());
+        }
+
+        private void request(Buffer frame) {
+            int tag = frame.getInt(0);
+            byte op = frame.getByte(4);
+            Buffer[] response = new Buffer[1];
+            responses.add(response);
+            if (frame.length() != frameLength(op)) {
+                // a frame of the wrong length is refused before anything in it is acted on
+                answer(response, tag, BAD_REQUEST, null, null);
+            } else {
+                handle(response, tag, op, frame);
+            }
+            if (responses.size() >= MAX_IN_FLIGHT) {
+                pause();
+            }
+        }
+
+        private void handle(Buffer[] response, int tag, byte op, Buffer frame) {
+            try {
+                switch (op) {
+                    case GET_ACCOUNT:
+                        Account account = ledger.get(frame.getInt(5));
+                        answer(response, tag, account == null ? NOT_FOUND : OK, account, null);
+                        break;
+                    case GET_TRANSFER:
+                        Transfer found = bank.getTransfers().get(frame.getInt(5));
+                        answer(response, tag, found == null ? NOT_FOUND : OK, null, found);
+                        break;
+                    case CREATE_TRANSFER:
+                        if (bank.isReplica()) {
+                            answer(response, tag, BAD_REQUEST, null, null);
+                            break;
+                        }
+                        Transfer transfer = new Transfer();
+                        transfer.setFromAccountId(frame.getInt(5));
+                        transfer.setToAccountId(frame.getInt(9));
+                        transfer.setCurrency(Currency.getInstance(frame.getString(21, 24, ASCII)));
+                        transfer.setAmountMinor(frame.getLong(13));
+                        boolean executeNow = frame.getByte(24) != 0;
+                        bank.addTransfer(transfer);
+                        if (executeNow) {
+                            execute(response, tag, transfer);
+                        } else {
+                            answerWhenDurable(response, tag, transfer);
+                        }
+                        break;
+                    case EXECUTE_TRANSFER:
+                        Transfer pending = bank.getTransfers().get(frame.getInt(5));
+                        if (bank.isReplica()) {
+                            answer(response, tag, BAD_REQUEST, null, null);
+                        } else if (pending == null) {
+                            answer(response, tag, NOT_FOUND, null, null);
+                        } else {
+                            execute(response, tag, pending);
+                        }
+                        break;
+                    default:
+                        answer(response, tag, BAD_REQUEST, null, null);
+                }
+            } catch (IllegalArgumentException e) {
+                answer(response, tag, BAD_REQUEST, null, null);
+            } catch (RuntimeException e) {
+                // answered all the same, or the responses queued behind this one would never be sent
+                log.error("[binary]: request " + op + " failed", e);
+                answer(response, tag, ERROR, null, null);
+            }
+        }
+
+        /**
+         * @return the length of a well-formed request frame for the op, or -1 for an unknown op
+         */
+        private int frameLength(byte op) {
+            switch (op) {
+                case GET_ACCOUNT:
+                case GET_TRANSFER:
+                case EXECUTE_TRANSFER:
+                    return 9;
+                case CREATE_TRANSFER:
+                    return 25;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Executes the transfer here or, when sharded, on the shard owning the debited account.
+         */
+        private void execute(Buffer[] response, int tag, Transfer transfer) {
+            if (shardCount <= 1) {
+                ledger.execute(transfer);
+                answerWhenDurable(response, tag, transfer);
+                return;
+            }
+            JsonObject debit = new JsonObject()
+                    .put("op", AccountShard.OP_DEBIT)
+                    .put("transfer", transfer.getId());
+            String address = AccountShard.address(AccountShard.shardOf(transfer.getFromAccountId(), shardCount));
+            vertx.eventBus().<JsonObject>send(address, debit, reply -> {
+                if (reply.succeeded()) {
+                    answerWhenDurable(response, tag, transfer);
+                } else {
+                    answer(response, tag, ERROR, null, null);
+                }
+            });
+        }
+
+        /**
+         * Answers once the bank has persisted the change; the requests of one read share a single wait.
+         */
+        private void answerWhenDurable(Buffer[] response, int tag, Transfer transfer) {
+            Handler<Boolean> answer = durable -> answer(response, tag, durable ? OK : ERROR, null, transfer);
+            if (bank.getJournal() == null) {
+                answer.handle(true);
+            } else if (batching) {
+                awaitingDurable.add(answer);
+            } else {
+                List<Handler<Boolean>> answers = new ArrayList<>(1);
+                answers.add(answer);
+                whenDurable(answers);
+            }
+        }
+
+        private void whenDurable(List<Handler<Boolean>> answers) {
+            bank.whenDurable(result -> context.runOnContext(v -> {
+                batching = true;
+                try {
+                    for (Handler<Boolean> answer : answers) {
+                        answer.handle(result.succeeded());
+                    }
+                } finally {
+                    batching = false;
+                }
+                flush();
+            }));
+        }
+
+        private void answer(Buffer[] response, int tag, byte result, Account account, Transfer transfer) {
+            boolean unscaled = account != null && account.getCurrency() == null
+                    || transfer != null && transfer.getCurrency() == null;
+            if (result == OK && unscaled) {
+                result = ERROR;
+            }
+            Buffer frame = Buffer.buffer(40).appendInt(0).appendInt(tag).appendByte(result);
+            if (result == OK && account != null) {
+                frame.appendInt(account.getId())
+                        .appendLong(account.getBalanceMinor())
+                        .appendString(account.getCurrency().getCurrencyCode(), ASCII);
+            } else if (result == OK && transfer != null) {
+                frame.appendInt(transfer.getId())
+                        .appendInt(transfer.getFromAccountId())
+                        .appendInt(transfer.getToAccountId())
+                        .appendLong(transfer.getAmountMinor())
+                        .appendString(transfer.getCurrency().getCurrencyCode(), ASCII)
+                        .appendByte((byte) transfer.getStatus().ordinal());
+            }
+            response[0] = frame.setInt(0, frame.length() - 4);
+            if (!batching) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the answered responses at the head of the queue in one go and resumes reading once the
+         * client has caught up.
+         */
+        private void flush() {
+            Buffer out = null;
+            while (!responses.isEmpty() && responses.peek()[0] != null) {
+                Buffer frame = responses.poll()[0];
+                if (out == null) {
+                    out = frame;
+                } else {
+                    out.appendBuffer(frame);
+                }
+            }
+            if (out != null) {
+                socket.write(out);
+            }
+            if (socket.writeQueueFull()) {
+                pause();
+            } else if (paused && responses.size() < MAX_IN_FLIGHT / 2) {
+                paused = false;
+                socket.resume();
+            }
+        }
+
+        private void pause() {
+            if (!paused) {
+                paused = true;
+                socket.pause();
+            }
+        }
+
+    }
+
+}
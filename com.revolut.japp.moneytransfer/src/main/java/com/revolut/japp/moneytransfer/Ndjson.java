@@ -0,0 +1,137 @@
+package com.revolut.japp.moneytransfer;
+
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.revolut.japp.moneytransfer.codec.JsonWriter;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+
+/**
+ * Streams records as newline delimited JSON, one object per line, without ever holding more than a chunk
+ * of them in memory.
+ */
+public final class Ndjson {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final int CHUNK = 512;
+
+    /**
+     * Lines decoded between two waits for the journal during an import, bounding the records queued for it.
+     */
+    private static final int IMPORT_WINDOW = 4096;
+
+    /**
+     * The longest line an import takes, far beyond any record, so that a body without newlines is refused
+     * rather than buffered whole.
+     */
+    static final int MAX_LINE = 64 * 1024;
+
+    private Ndjson() {
+    }
+
+    /**
+     * Writes every record of the iterator to the response with the encoder, pausing whenever the write queue
+     * is full until the client has caught up. Nothing more is read from the iterator once the connection is
+     * closed or fails.
+     */
+    public static <T> void export(HttpServerResponse response, Iterator<T> records, BiConsumer<JsonWriter, T> encoder) {
+        boolean[] closed = new boolean[1];
+        response.setChunked(true).putHeader("content-type", CONTENT_TYPE);
+        response.closeHandler(v -> closed[0] = true);
+        response.exceptionHandler(e -> closed[0] = true);
+        write(response, records, encoder, closed);
+    }
+
+    private static <T> void write(HttpServerResponse response, Iterator<T> records, BiConsumer<JsonWriter, T> encoder,
+            boolean[] closed) {
+        if (closed[0]) {
+            return;
+        }
+        while (records.hasNext()) {
+            JsonWriter chunk = new JsonWriter(Buffer.buffer(CHUNK * 128));
+            for (int i = 0; i < CHUNK && records.hasNext(); i++) {
+                encoder.accept(chunk, records.next());
+                chunk.raw('\n');
+            }
+            response.write(chunk.getBuffer());
+            if (response.writeQueueFull()) {
+                response.drainHandler(v -> write(response, records, encoder, closed));
+                return;
+            }
+        }
+        response.end();
+    }
+
+    /**
+     * Reads the request body line by line and hands every line to the consumer to decode, pausing the
+     * request every few thousand lines until the bank has persisted what was imported so far. Blank lines
+     * are skipped; lines that the consumer rejects by throwing are counted as failed. A line longer than
+     * {@value #MAX_LINE} bytes ends the import with 413 and closes the connection, keeping what was imported
+     * before it.
+     *
+     * @param done called with the numbers of imported and failed lines once the body was read
+     */
+    public static void read(HttpServerRequest request, Context context, Bank bank, Consumer<Buffer> consumer,
+            Consumer<JsonObject> done) {
+        long[] counts = new long[2];
+        RecordParser parser = RecordParser.newDelimited("\n", line -> {
+            if (isBlank(line)) {
+                return;
+            }
+            try {
+                consumer.accept(line);
+                counts[0]++;
+            } catch (Exception e) {
+                counts[1]++;
+            }
+            if ((counts[0] + counts[1]) % IMPORT_WINDOW == 0) {
+                request.pause();
+                bank.whenDurable(result -> context.runOnContext(v -> request.resume()));
+            }
+        });
+        // bytes received since the last newline, i.e. what the parser holds
+        int[] pending = new int[1];
+        request.handler(buffer -> {
+            if (pending[0] < 0) {
+                return;
+            }
+            int last = buffer.length() - 1;
+            while (last >= 0 && buffer.getByte(last) != '\n') {
+                last--;
+            }
+            pending[0] = last < 0 ? pending[0] + buffer.length() : buffer.length() - last - 1;
+            if (pending[0] > MAX_LINE) {
+                pending[0] = -1;
+                request.response().setStatusCode(413).end();
+                request.connection().close();
+                return;
+            }
+            parser.handle(buffer);
+        });
+        request.endHandler(v -> {
+            if (pending[0] < 0) {
+                return;
+            }
+            parser.handle(Buffer.buffer("\n"));
+            done.accept(new JsonObject().put("imported", counts[0]).put("failed", counts[1]));
+        });
+    }
+
+    private static boolean isBlank(Buffer line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.getByte(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.revolut.japp.moneytransfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+/**
+ * Executes transfers off the request path. {@link App} submits a pending transfer and answers at once, and a
+ * single worker thread drains the queue in batches of up to {@value #BATCH} transfers, executing each batch
+ * in one pass of {@link AccountLedger#executeAll}, which moves every transfer to SUCCEED or FAILED. The bank
+ * announces each outcome on {@link Bank#SETTLED_ADDRESS}.
+ * <p>
+ * In the bank config, up to {@code settlement.queueSize} transfers (65536 by default) may wait for the worker.
+ */
+public class Settlement {
+
+    private static final Logger log = Logger.getLogger(Settlement.class);
+
+    static final int BATCH = 1024;
+
+    private final AccountLedger ledger;
+    private final BlockingQueue<Transfer> queue;
+
+    public Settlement(AccountLedger ledger, int capacity) {
+        this.ledger = ledger;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts the worker thread.
+     */
+    public void start() {
+        Thread worker = new Thread(this::run, "settlement");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a transfer for execution.
+     *
+     * @return false if the queue is full
+     */
+    public boolean submit(Transfer transfer) {
+        return queue.offer(transfer);
+    }
+
+    /**
+     * @return the number of transfers waiting to be executed
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<Transfer> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH - 1);
+            try {
+                ledger.executeAll(batch);
+            } catch (RuntimeException e) {
+                // the rest of the batch stays pending and is executed again when resubmitted
+                log.error("[settlement]: batch of " + batch.size() + " failed", e);
+            }
+            batch.clear();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.revolut.japp.moneytransfer.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether to serve a request at all, before anything is read or decoded, so that an overloaded
+ * service answers some requests quickly instead of all of them slowly.
+ * <p>
+ * Every client has a token bucket refilled at {@code rate} requests a second up to {@code burst}; a client
+ * without a token is {@link Decision#THROTTLED throttled}. All clients together share a limit on the requests
+ * in flight; a request over it is {@link Decision#SHED shed}. The limit adapts every {@value #ADJUST_MILLIS}
+ * ms: it shrinks by a quarter when an event loop lagged more than the target since the last adjustment, and
+ * grows by a sixteenth when the requests in flight came close to it without any lag, i.e. the queue is what
+ * limits the throughput.
+ * <p>
+ * A request may only take its {@link Priority priority}'s share of the limit, so bulk requests are shed while
+ * there is still room for transfers, whose latency then stays bounded during spikes.
+ * <p>
+ * In the bank config, every client may make {@code admission.rate} requests a second (1000 by default) in
+ * bursts of up to {@code admission.burst} (2000), and the limit on requests in flight moves between
+ * {@code admission.minConcurrency} (16) and {@code admission.maxConcurrency} (1024) with a target lag of
+ * {@code admission.targetLag} ms (50).
+ */
+public class AdmissionControl {
+
+    private static final long ADJUST_MILLIS = 100;
+    private static final long SWEEP_MILLIS = 10000;
+
+    public enum Priority {
+
+        /**
+         * Creating and executing transfers, which may use the whole limit.
+         */
+        CRITICAL(4),
+        /**
+         * Reading single accounts and transfers and other changes.
+         */
+        NORMAL(3),
+        /**
+         * Listings, exports, imports and reports, which are shed first.
+         */
+        BULK(2);
+
+        private final int quarters;
+
+        Priority(int quarters) {
+            this.quarters = quarters;
+        }
+
+    }
+
+    public enum Decision {
+        ADMITTED, THROTTLED, SHED
+    }
+
+    private final double rate;
+    private final double burst;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLagNanos;
+    private final LongSupplier clock;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong worstLag = new AtomicLong();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private volatile int limit;
+    private long adjusted;
+    private long swept;
+
+    /**
+     * @param rate            the requests a second each client may make
+     * @param burst           the requests a client may make at once after being idle
+     * @param minLimit        the lowest the limit on requests in flight shrinks to
+     * @param maxLimit        the highest the limit on requests in flight grows to, and where it starts
+     * @param targetLagMillis the event loop lag above which the limit shrinks
+     */
+    public AdmissionControl(double rate, int burst, int minLimit, int maxLimit, long targetLagMillis) {
+        this(rate, burst, minLimit, maxLimit, targetLagMillis, System::nanoTime);
+    }
+
+    AdmissionControl(double rate, int burst, int minLimit, int maxLimit, long targetLagMillis, LongSupplier clock) {
+        if (rate <= 0 || burst < 1 || minLimit < 1 || maxLimit < minLimit || targetLagMillis <= 0) {
+            throw new IllegalArgumentException("rate, burst, limits and target lag must be positive, the limits in order");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLagNanos = TimeUnit.MILLISECONDS.toNanos(targetLagMillis);
+        this.clock = clock;
+        this.limit = maxLimit;
+        this.adjusted = clock.getAsLong();
+        this.swept = adjusted;
+    }
+
+    /**
+     * Takes a slot and a token of the client for the request unless it is shed or throttled. An admitted
+     * request must be {@link #release() released} once answered.
+     */
+    public Decision admit(String client, Priority priority) {
+        int allowed = Math.max(1, limit * priority.quarters / 4);
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= allowed) {
+                shed.increment();
+                return Decision.SHED;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        if (!buckets.computeIfAbsent(client, key -> new Bucket(burst, clock.getAsLong())).take(clock.getAsLong())) {
+            inFlight.decrementAndGet();
+            throttled.increment();
+            return Decision.THROTTLED;
+        }
+        peakInFlight.accumulateAndGet(current + 1, Math::max);
+        return Decision.ADMITTED;
+    }
+
+    /**
+     * Frees the slot of an admitted request.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the seconds until a throttled client has a token again
+     */
+    public long getRetryAfterSeconds() {
+        return (long) Math.ceil(1 / rate);
+    }
+
+    /**
+     * Records how late an event loop ran a periodic probe, adapting the limit once an adjustment is due.
+     */
+    public void lag(long nanos) {
+        worstLag.accumulateAndGet(nanos, Math::max);
+        long now = clock.getAsLong();
+        synchronized (this) {
+            if (now - adjusted < TimeUnit.MILLISECONDS.toNanos(ADJUST_MILLIS)) {
+                return;
+            }
+            adjusted = now;
+            long worst = worstLag.getAndSet(0);
+            int peak = peakInFlight.getAndSet(inFlight.get());
+            if (worst > targetLagNanos) {
+                limit = Math.max(minLimit, limit - limit / 4);
+            } else if (peak >= limit - limit / 8) {
+                limit = Math.min(maxLimit, limit + Math.max(1, limit / 16));
+            }
+            if (now - swept >= TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS)) {
+                swept = now;
+                buckets.values().removeIf(bucket -> bucket.isFull(now));
+            }
+        }
+    }
+
+    /**
+     * @return the current limit on requests in flight
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of requests throttled
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return the number of requests shed
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * The tokens of one client.
+     */
+    private final class Bucket {
+
+        private double tokens;
+        private long refilled;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.refilled = now;
+        }
+
+        synchronized boolean take(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+        }
+
+    }
+
+}
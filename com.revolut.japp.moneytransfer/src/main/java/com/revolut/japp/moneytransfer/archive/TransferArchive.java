@@ -0,0 +1,431 @@
+package com.revolut.japp.moneytransfer.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * Finished transfers moved off the heap into compressed segment files on local disk.
+ * <p>
+ * A segment {@code transfers-N.seg} holds up to {@value #MAX_ROWS} transfers sorted by id, stored column by
+ * column (ids as deltas, then accounts, amounts, fees, currencies, statuses, rates, comments and the decimal
+ * amounts of transfers without a currency) and deflated as a whole, so similar values end up next to each
+ * other and compress well. Segments are written to a temporary file, synced and renamed, so a crash never
+ * leaves half a segment behind.
+ * <p>
+ * The only thing kept in memory is which segment holds each id, four bytes per id in pages of consecutive
+ * ids, since transfer ids are dense. Reading a transfer inflates its segment; the last
+ * {@value #CACHED_SEGMENTS} segments read are kept decoded, so paging through transfers of the same period
+ * does not inflate the same segment over and over. A transfer archived twice, e.g. after being imported
+ * again, is read from the newer segment.
+ * <p>
+ * In the bank config, {@code {"archive": {"dir": "archive", "age": 600}}} moves the transfers that succeeded or
+ * failed more than {@code archive.age} seconds ago (an hour by default) to an archive in that directory, so the
+ * heap holds the transfers in flight rather than the whole history.
+ */
+public class TransferArchive {
+
+    private static final Logger log = Logger.getLogger(TransferArchive.class);
+
+    static final String PREFIX = "transfers-";
+    static final String SUFFIX = ".seg";
+    static final int MAX_ROWS = 16384;
+    private static final int MAGIC = 0x54524632;
+    /**
+     * The magic of segments written before the decimal amounts of transfers without a currency were kept.
+     */
+    private static final int MAGIC_MINOR_ONLY = 0x54524631;
+    private static final int CACHED_SEGMENTS = 16;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE = 1 << PAGE_BITS;
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private final Path dir;
+    /**
+     * One more than the segment holding each id, 0 if the id is not archived.
+     */
+    private volatile int[][] pages = new int[0][];
+    private final AtomicInteger count = new AtomicInteger();
+    private int nextSegment;
+    private final Map<Integer, Segment> cache = new LinkedHashMap<Integer, Segment>(CACHED_SEGMENTS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Segment> eldest) {
+            return size() > CACHED_SEGMENTS;
+        }
+    };
+
+    private TransferArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Opens the archive in the directory, creating it if needed, and hands every archived transfer to
+     * {@code recovered}, e.g. to index it.
+     */
+    public static TransferArchive open(Path dir, Consumer<Transfer> recovered) throws IOException {
+        Files.createDirectories(dir);
+        TransferArchive archive = new TransferArchive(dir);
+        long start = System.nanoTime();
+        TreeMap<Integer, Path> segments = archive.segments();
+        for (Map.Entry<Integer, Path> entry : segments.entrySet()) {
+            Segment segment = read(entry.getValue());
+            for (int row = 0; row < segment.ids.length; row++) {
+                archive.index(segment.ids[row], entry.getKey());
+                recovered.accept(segment.transfer(row));
+            }
+            archive.nextSegment = entry.getKey() + 1;
+        }
+        log.info("[archive]: opened " + archive.size() + " transfers in " + segments.size() + " segments in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms");
+        return archive;
+    }
+
+    /**
+     * Writes the transfers, at most {@value #MAX_ROWS}, to a new segment and makes them readable from it
+     * once the segment is on disk.
+     */
+    public synchronized void append(List<Transfer> transfers) throws IOException {
+        if (transfers.isEmpty()) {
+            return;
+        }
+        if (transfers.size() > MAX_ROWS) {
+            throw new IllegalArgumentException("At most " + MAX_ROWS + " transfers fit in a segment");
+        }
+        List<Transfer> sorted = new ArrayList<>(transfers);
+        sorted.sort(Comparator.comparingInt(Transfer::getId));
+        int number = nextSegment++;
+        Path file = dir.resolve(name(number));
+        Path temp = dir.resolve(name(number) + ".tmp");
+        byte[] bytes = write(sorted);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        for (Transfer transfer : sorted) {
+            index(transfer.getId(), number);
+        }
+        log.debug("[archive]: wrote " + sorted.size() + " transfers (" + bytes.length + " bytes) to " + file.getFileName());
+    }
+
+    /**
+     * @return a copy of the archived transfer, or null if the id is not archived
+     */
+    public Transfer get(int id) {
+        int segment = segmentOf(id);
+        if (segment < 0) {
+            return null;
+        }
+        try {
+            Segment decoded = segment(segment);
+            int row = Arrays.binarySearch(decoded.ids, id);
+            return row < 0 ? null : decoded.transfer(row);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read archived transfer " + id, e);
+        }
+    }
+
+    public boolean contains(int id) {
+        return segmentOf(id) >= 0;
+    }
+
+    /**
+     * @return the number of archived transfers
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * @return the archived ids greater than {@code after}, in ascending order
+     */
+    public Iterator<Integer> idsAfter(int after) {
+        return new Iterator<Integer>() {
+            private int id = after;
+            private int next = -1;
+
+            @Override
+            public boolean hasNext() {
+                int[][] all = pages;
+                while (next < 0 && id < all.length * PAGE - 1) {
+                    id++;
+                    int[] page = all[id >>> PAGE_BITS];
+                    if (page == null) {
+                        id |= PAGE - 1;
+                    } else if (page[id & (PAGE - 1)] != 0) {
+                        next = id;
+                    }
+                }
+                return next >= 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int found = next;
+                next = -1;
+                return found;
+            }
+        };
+    }
+
+    private int segmentOf(int id) {
+        int[][] all = pages;
+        int index = id >>> PAGE_BITS;
+        int[] page = id < 0 || index >= all.length ? null : all[index];
+        return page == null ? -1 : page[id & (PAGE - 1)] - 1;
+    }
+
+    private synchronized void index(int id, int segment) {
+        int index = id >>> PAGE_BITS;
+        int[][] all = pages;
+        if (index >= all.length) {
+            all = Arrays.copyOf(all, Math.max(index + 1, all.length * 2));
+        }
+        if (all[index] == null) {
+            all[index] = new int[PAGE];
+        }
+        if (all[index][id & (PAGE - 1)] == 0) {
+            count.incrementAndGet();
+        }
+        all[index][id & (PAGE - 1)] = segment + 1;
+        pages = all;
+    }
+
+    private Segment segment(int number) throws IOException {
+        synchronized (cache) {
+            Segment cached = cache.get(number);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Segment decoded = read(dir.resolve(name(number)));
+        synchronized (cache) {
+            cache.put(number, decoded);
+        }
+        return decoded;
+    }
+
+    private TreeMap<Integer, Path> segments() throws IOException {
+        TreeMap<Integer, Path> numbered = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    numbered.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), path);
+                }
+            });
+        }
+        return numbered;
+    }
+
+    static String name(int segment) {
+        return String.format("%s%08d%s", PREFIX, segment, SUFFIX);
+    }
+
+    private static byte[] write(List<Transfer> transfers) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(transfers.size());
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            int previous = 0;
+            for (Transfer transfer : transfers) {
+                out.writeInt(transfer.getId() - previous);
+                previous = transfer.getId();
+            }
+            for (Transfer transfer : transfers) {
+                out.writeInt(transfer.getFromAccountId());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeInt(transfer.getToAccountId());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeLong(transfer.getAmountMinor());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeLong(transfer.getFeeMinor());
+            }
+            List<Currency> currencies = new ArrayList<>();
+            for (Transfer transfer : transfers) {
+                if (transfer.getCurrency() != null && !currencies.contains(transfer.getCurrency())) {
+                    currencies.add(transfer.getCurrency());
+                }
+            }
+            out.writeByte(currencies.size());
+            for (Currency currency : currencies) {
+                out.writeUTF(currency.getCurrencyCode());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeByte(currencies.indexOf(transfer.getCurrency()) + 1);
+            }
+            for (Transfer transfer : transfers) {
+                out.writeByte(transfer.getStatus().ordinal());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeDouble(transfer.getDiscount());
+            }
+            for (Transfer transfer : transfers) {
+                out.writeDouble(transfer.getFeeRate());
+            }
+            for (Transfer transfer : transfers) {
+                byte[] comment = transfer.getComment() == null ? null : transfer.getComment().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(comment == null ? -1 : comment.length);
+                if (comment != null) {
+                    out.write(comment);
+                }
+            }
+            for (Transfer transfer : transfers) {
+                // the amount of a transfer without a currency is a decimal, not minor units
+                if (transfer.getCurrency() == null) {
+                    out.writeUTF(transfer.getAmount() == null ? "" : transfer.getAmount().toString());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Segment read(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream header = new DataInputStream(stream);
+            int magic = header.readInt();
+            if (magic != MAGIC && magic != MAGIC_MINOR_ONLY) {
+                throw new IOException("Not a transfer segment: " + file);
+            }
+            int rows = header.readInt();
+            DataInputStream in = new DataInputStream(new InflaterInputStream(stream));
+            Segment segment = new Segment(rows);
+            int previous = 0;
+            for (int i = 0; i < rows; i++) {
+                previous += in.readInt();
+                segment.ids[i] = previous;
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.from[i] = in.readInt();
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.to[i] = in.readInt();
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.amounts[i] = in.readLong();
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.fees[i] = in.readLong();
+            }
+            Currency[] currencies = new Currency[in.readUnsignedByte() + 1];
+            for (int i = 1; i < currencies.length; i++) {
+                currencies[i] = Currency.getInstance(in.readUTF());
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.currencies[i] = currencies[in.readUnsignedByte()];
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.statuses[i] = STATUSES[in.readUnsignedByte()];
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.discounts[i] = in.readDouble();
+            }
+            for (int i = 0; i < rows; i++) {
+                segment.feeRates[i] = in.readDouble();
+            }
+            for (int i = 0; i < rows; i++) {
+                int length = in.readInt();
+                if (length >= 0) {
+                    byte[] comment = new byte[length];
+                    in.readFully(comment);
+                    segment.comments[i] = new String(comment, StandardCharsets.UTF_8);
+                }
+            }
+            for (int i = 0; magic == MAGIC && i < rows; i++) {
+                if (segment.currencies[i] == null) {
+                    String amount = in.readUTF();
+                    segment.unscaledAmounts[i] = amount.isEmpty() ? null : new BigDecimal(amount);
+                }
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * The columns of one segment.
+     */
+    private static final class Segment {
+
+        final int[] ids;
+        final int[] from;
+        final int[] to;
+        final long[] amounts;
+        final long[] fees;
+        final Currency[] currencies;
+        final TransferStatus[] statuses;
+        final double[] discounts;
+        final double[] feeRates;
+        final String[] comments;
+        final BigDecimal[] unscaledAmounts;
+
+        Segment(int rows) {
+            ids = new int[rows];
+            from = new int[rows];
+            to = new int[rows];
+            amounts = new long[rows];
+            fees = new long[rows];
+            currencies = new Currency[rows];
+            statuses = new TransferStatus[rows];
+            discounts = new double[rows];
+            feeRates = new double[rows];
+            comments = new String[rows];
+            unscaledAmounts = new BigDecimal[rows];
+        }
+
+        Transfer transfer(int row) {
+            Transfer transfer = new Transfer(ids[row], from[row], to[row], amounts[row], currencies[row], comments[row], statuses[row]);
+            if (currencies[row] == null) {
+                transfer.setAmount(unscaledAmounts[row]);
+            }
+            transfer.setFeeMinor(fees[row]);
+            transfer.setDiscount(discounts[row]);
+            transfer.setFeeRate(feeRates[row]);
+            return transfer;
+        }
+
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.revolut.japp.moneytransfer.archive;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * Every transfer by id: pending and recently finished ones on the heap, older finished ones in a
+ * {@link TransferArchive} on disk, so the heap holds what is in flight rather than the whole history.
+ * <p>
+ * A transfer that succeeded or failed is moved to the archive by {@link #archive()} once it has been
+ * finished for the configured age. It is written to disk before it leaves the heap, so it can be read from
+ * one or the other at any time. Without an archive every transfer stays on the heap.
+ */
+public class TransferStore {
+
+    private final NavigableMap<Integer, Transfer> inMemory = new ConcurrentSkipListMap<>();
+    private final Queue<Finished> finished = new ConcurrentLinkedQueue<>();
+    private final LongSupplier clock;
+    private volatile TransferArchive archive;
+    private volatile long ageMillis;
+
+    public TransferStore() {
+        this(System::currentTimeMillis);
+    }
+
+    TransferStore(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Moves transfers finished for longer than the given age to the archive from now on.
+     */
+    public void archiveTo(TransferArchive archive, long ageMillis) {
+        this.ageMillis = ageMillis;
+        this.archive = archive;
+    }
+
+    /**
+     * @return the transfer, read from the archive if it is no longer in memory, or null if there is none
+     */
+    public Transfer get(int id) {
+        Transfer transfer = inMemory.get(id);
+        TransferArchive cold = archive;
+        return transfer != null || cold == null ? transfer : cold.get(id);
+    }
+
+    /**
+     * Adds the transfer, replacing any transfer with the same id.
+     */
+    public void put(Transfer transfer) {
+        inMemory.put(transfer.getId(), transfer);
+        finished(transfer);
+    }
+
+    /**
+     * Starts the age of a transfer that just succeeded or failed. Transfers that are already archived, e.g.
+     * when replayed from the journal, are archived again, the newer copy replacing the older one.
+     */
+    public void finished(Transfer transfer) {
+        if (archive != null && transfer.getStatus() != TransferStatus.PENDING) {
+            finished.add(new Finished(transfer.getId(), clock.getAsLong()));
+        }
+    }
+
+    /**
+     * @return the number of transfers, counting a transfer being archived twice
+     */
+    public int size() {
+        TransferArchive cold = archive;
+        return inMemory.size() + (cold == null ? 0 : cold.size());
+    }
+
+    /**
+     * @return the transfers on the heap, in ascending order of id
+     */
+    public Collection<Transfer> inMemory() {
+        return inMemory.values();
+    }
+
+    /**
+     * @return a live view of all transfers, in ascending order of id, reading archived ones from disk
+     */
+    public Collection<Transfer> values() {
+        return new AbstractCollection<Transfer>() {
+            @Override
+            public Iterator<Transfer> iterator() {
+                Iterator<Integer> ids = idsAfter(-1);
+                return new Iterator<Transfer>() {
+                    private Transfer next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && ids.hasNext()) {
+                            next = get(ids.next());
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Transfer next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Transfer transfer = next;
+                        next = null;
+                        return transfer;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return TransferStore.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return the ids greater than {@code after}, in memory or archived, in ascending order
+     */
+    public Iterator<Integer> idsAfter(int after) {
+        Iterator<Integer> hot = inMemory.tailMap(after, false).keySet().iterator();
+        TransferArchive cold = archive;
+        if (cold == null) {
+            return hot;
+        }
+        Iterator<Integer> archived = cold.idsAfter(after);
+        return new Iterator<Integer>() {
+            private Integer nextHot = hot.hasNext() ? hot.next() : null;
+            private Integer nextArchived = archived.hasNext() ? archived.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextHot != null || nextArchived != null;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Integer id = nextArchived == null || nextHot != null && nextHot <= nextArchived ? nextHot : nextArchived;
+                if (id.equals(nextHot)) {
+                    nextHot = hot.hasNext() ? hot.next() : null;
+                }
+                if (id.equals(nextArchived)) {
+                    nextArchived = archived.hasNext() ? archived.next() : null;
+                }
+                return id;
+            }
+        };
+    }
+
+    /**
+     * Moves the transfers finished for longer than the age to the archive, a segment at a time.
+     *
+     * @return the number of transfers archived
+     */
+    public int archive() throws IOException {
+        TransferArchive cold = archive;
+        if (cold == null) {
+            return 0;
+        }
+        long before = clock.getAsLong() - ageMillis;
+        int archived = 0;
+        while (true) {
+            List<Transfer> batch = new ArrayList<>();
+            Set<Integer> ids = new HashSet<>();
+            Finished head;
+            while (batch.size() < TransferArchive.MAX_ROWS && (head = finished.peek()) != null && head.at <= before) {
+                finished.poll();
+                Transfer transfer = inMemory.get(head.id);
+                if (transfer != null && transfer.getStatus() != TransferStatus.PENDING && ids.add(transfer.getId())) {
+                    batch.add(transfer);
+                }
+            }
+            if (batch.isEmpty()) {
+                return archived;
+            }
+            cold.append(batch);
+            for (Transfer transfer : batch) {
+                inMemory.remove(transfer.getId(), transfer);
+            }
+            archived += batch.size();
+        }
+    }
+
+    private static final class Finished {
+
+        final int id;
+        final long at;
+
+        Finished(int id, long at) {
+            this.id = id;
+            this.at = at;
+        }
+
+    }
+
+}
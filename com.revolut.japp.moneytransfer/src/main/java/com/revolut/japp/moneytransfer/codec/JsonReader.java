@@ -0,0 +1,385 @@
+package com.revolut.japp.moneytransfer.codec;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+/**
+ * Pulls the tokens of one JSON document straight out of the bytes of a {@link Buffer}, without a tree or
+ * reflection, and without copying the bytes when the buffer is backed by an array.
+ * <p>
+ * Field names are matched against the byte arrays the caller knows, so reading an object allocates
+ * nothing but its string and decimal values. Syntax errors throw a {@link DecodeException}.
+ */
+public final class JsonReader {
+
+    private static final byte[][] NO_NAMES = new byte[0][];
+
+    /**
+     * Objects and arrays nested deeper than this are refused rather than skipped, so that skipping never
+     * runs out of stack.
+     */
+    private static final int MAX_DEPTH = 256;
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+    private char[] digits = new char[32];
+    /**
+     * Whether an object or array was just opened, so its first member has no comma before it.
+     */
+    private boolean opened;
+
+    public JsonReader(Buffer buffer) {
+        ByteBuf buf = buffer.getByteBuf();
+        if (buf.hasArray()) {
+            bytes = buf.array();
+            position = buf.arrayOffset() + buf.readerIndex();
+            end = position + buf.readableBytes();
+        } else {
+            bytes = buffer.getBytes();
+            position = 0;
+            end = bytes.length;
+        }
+    }
+
+    /**
+     * @return the bytes of a field name as {@link #nextField} matches it
+     */
+    public static byte[] name(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void beginObject() {
+        expect('{');
+        opened = true;
+    }
+
+    /**
+     * Reads the next field name of the object and the colon after it.
+     *
+     * @return the index of the name among {@code names}, -1 for another name, or -2 once the object ended
+     */
+    public int nextField(byte[][] names) {
+        byte next = peek();
+        if (next == '}') {
+            position++;
+            opened = false;
+            return -2;
+        }
+        if (!opened) {
+            expect(',');
+        }
+        opened = false;
+        expect('"');
+        int start = position;
+        while (position < end && bytes[position] != '"') {
+            if (bytes[position] == '\\') {
+                // escaped names are never ours; compare the decoded name anyway
+                position = start - 1;
+                String decoded = nextString();
+                expect(':');
+                return indexOf(name(decoded), 0, -1, names);
+            }
+            position++;
+        }
+        if (position == end) {
+            throw error("unterminated string");
+        }
+        int field = indexOf(bytes, start, position, names);
+        position++;
+        expect(':');
+        return field;
+    }
+
+    public void beginArray() {
+        expect('[');
+        opened = true;
+    }
+
+    /**
+     * Moves to the next element of the array.
+     *
+     * @return false once the array ended
+     */
+    public boolean nextElement() {
+        byte next = peek();
+        if (next == ']') {
+            position++;
+            opened = false;
+            return false;
+        }
+        if (!opened) {
+            expect(',');
+        }
+        opened = false;
+        return true;
+    }
+
+    /**
+     * @return the string, or null for a JSON null
+     */
+    public String nextString() {
+        if (nextNull()) {
+            return null;
+        }
+        if (peek() != '"') {
+            throw error("string expected");
+        }
+        position++;
+        int start = position;
+        while (position < end) {
+            byte b = bytes[position];
+            if (b == '"') {
+                return new String(bytes, start, position++ - start, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') {
+                return escaped(start);
+            }
+            position++;
+        }
+        throw error("unterminated string");
+    }
+
+    /**
+     * @return the number, which may be quoted, or null for a JSON null
+     */
+    public BigDecimal nextDecimal() {
+        if (nextNull()) {
+            return null;
+        }
+        boolean quoted = peek() == '"';
+        if (quoted) {
+            position++;
+        }
+        int start = position;
+        while (position < end && isNumberByte(bytes[position])) {
+            position++;
+        }
+        int length = position - start;
+        if (length == 0) {
+            throw error("number expected");
+        }
+        if (digits.length < length) {
+            digits = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            digits[i] = (char) bytes[start + i];
+        }
+        if (quoted) {
+            expect('"');
+        }
+        try {
+            return new BigDecimal(digits, 0, length);
+        } catch (NumberFormatException e) {
+            throw error("malformed number");
+        }
+    }
+
+    /**
+     * @return the integer, which may be quoted
+     */
+    public int nextInt() {
+        BigDecimal value = nextDecimal();
+        if (value == null) {
+            throw error("integer expected");
+        }
+        try {
+            return value.intValueExact();
+        } catch (ArithmeticException e) {
+            throw error("integer expected");
+        }
+    }
+
+    /**
+     * @return the number as a double, or the default for a JSON null
+     */
+    public double nextDouble(double defaultValue) {
+        BigDecimal value = nextDecimal();
+        return value == null ? defaultValue : value.doubleValue();
+    }
+
+    /**
+     * Skips over the next value, whatever it is.
+     */
+    public void skipValue() {
+        skipValue(0);
+    }
+
+    private void skipValue(int depth) {
+        byte next = peek();
+        if ((next == '{' || next == '[') && depth == MAX_DEPTH) {
+            throw error("nested too deeply");
+        }
+        switch (next) {
+            case '{':
+                beginObject();
+                while (nextField(NO_NAMES) != -2) {
+                    skipValue(depth + 1);
+                }
+                break;
+            case '[':
+                beginArray();
+                while (nextElement()) {
+                    skipValue(depth + 1);
+                }
+                break;
+            case '"':
+                nextString();
+                break;
+            case 't':
+                literal("true");
+                break;
+            case 'f':
+                literal("false");
+                break;
+            case 'n':
+                literal("null");
+                break;
+            default:
+                nextDecimal();
+        }
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the document.
+     */
+    public void end() {
+        skipWhitespace();
+        if (position != end) {
+            throw error("unexpected content after the document");
+        }
+    }
+
+    private boolean nextNull() {
+        if (peek() == 'n') {
+            literal("null");
+            return true;
+        }
+        return false;
+    }
+
+    private void literal(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (position == end || bytes[position++] != literal.charAt(i)) {
+                throw error(literal + " expected");
+            }
+        }
+    }
+
+    private String escaped(int start) {
+        StringBuilder decoded = new StringBuilder(position - start + 16);
+        int run = start;
+        while (position < end) {
+            byte b = bytes[position];
+            if (b == '"') {
+                decoded.append(new String(bytes, run, position++ - run, StandardCharsets.UTF_8));
+                return decoded.toString();
+            }
+            if (b != '\\') {
+                position++;
+                continue;
+            }
+            decoded.append(new String(bytes, run, position - run, StandardCharsets.UTF_8));
+            if (position + 1 >= end) {
+                break;
+            }
+            byte escape = bytes[position + 1];
+            position += 2;
+            switch (escape) {
+                case '"':
+                case '\\':
+                case '/':
+                    decoded.append((char) escape);
+                    break;
+                case 'b':
+                    decoded.append('\b');
+                    break;
+                case 'f':
+                    decoded.append('\f');
+                    break;
+                case 'n':
+                    decoded.append('\n');
+                    break;
+                case 'r':
+                    decoded.append('\r');
+                    break;
+                case 't':
+                    decoded.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > end) {
+                        throw error("truncated unicode escape");
+                    }
+                    try {
+                        decoded.append((char) Integer.parseInt(new String(bytes, position, 4, StandardCharsets.US_ASCII), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("malformed unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("unknown escape");
+            }
+            run = position;
+        }
+        throw error("unterminated string");
+    }
+
+    private byte peek() {
+        skipWhitespace();
+        if (position == end) {
+            throw error("unexpected end of input");
+        }
+        return bytes[position];
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("'" + c + "' expected");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(bytes[position])) {
+            position++;
+        }
+    }
+
+    private DecodeException error(String message) {
+        return new DecodeException("Failed to decode: " + message + " at " + position);
+    }
+
+    private static int indexOf(byte[] source, int from, int to, byte[][] names) {
+        int length = (to < 0 ? source.length : to) - from;
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (name.length == length && regionEquals(source, from, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] source, int from, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (source[from + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+}
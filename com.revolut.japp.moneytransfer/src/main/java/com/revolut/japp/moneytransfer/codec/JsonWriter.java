@@ -0,0 +1,183 @@
+package com.revolut.japp.moneytransfer.codec;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Appends compact JSON straight to a {@link Buffer}. Numbers and ASCII strings are written byte by byte,
+ * without formatting them into intermediate strings first; the caller puts the commas and brackets.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final long[] POWERS = new long[19];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    private final Buffer out;
+
+    public JsonWriter(Buffer out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the buffer written to
+     */
+    public Buffer getBuffer() {
+        return out;
+    }
+
+    public JsonWriter raw(char c) {
+        out.appendByte((byte) c);
+        return this;
+    }
+
+    /**
+     * Writes the field name, quoted, and the colon after it; the name must not need escaping.
+     */
+    public JsonWriter name(byte[] quotedName) {
+        out.appendBytes(quotedName);
+        return this;
+    }
+
+    /**
+     * @return the bytes {@link #name} writes for the field name
+     */
+    public static byte[] quoted(String name) {
+        return ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public JsonWriter nullValue() {
+        out.appendBytes(NULL);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        if (value == Long.MIN_VALUE) {
+            out.appendString(Long.toString(value));
+            return this;
+        }
+        if (value < 0) {
+            out.appendByte((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        while (digits < POWERS.length && value >= POWERS[digits]) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            out.appendByte((byte) ('0' + value / POWERS[i] % 10));
+        }
+        return this;
+    }
+
+    /**
+     * Writes an amount of minor units as the decimal number it stands for without trailing zeros, e.g. 1234
+     * with two fraction digits as 12.34, 1250 as 12.5 and 1200 as 12.
+     */
+    public JsonWriter decimal(long minor, int fractionDigits) {
+        while (fractionDigits > 0 && minor % 10 == 0) {
+            minor /= 10;
+            fractionDigits--;
+        }
+        if (fractionDigits == 0) {
+            return value(minor);
+        }
+        if (minor == Long.MIN_VALUE || fractionDigits >= POWERS.length) {
+            out.appendString(BigDecimal.valueOf(minor, fractionDigits).toPlainString());
+            return this;
+        }
+        if (minor < 0) {
+            out.appendByte((byte) '-');
+            minor = -minor;
+        }
+        long unit = POWERS[fractionDigits];
+        value(minor / unit);
+        out.appendByte((byte) '.');
+        long fraction = minor % unit;
+        for (int i = fractionDigits - 1; i >= 0; i--) {
+            out.appendByte((byte) ('0' + fraction / POWERS[i] % 10));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the double like Jackson does: as Java prints it, quoted unless it is finite.
+     */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value(Double.toString(value));
+        }
+        out.appendString(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes the string quoted and escaped, or null.
+     */
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        out.appendByte((byte) '"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // leave anything beyond ASCII to the UTF-8 encoder
+                escapeRest(value, i);
+                break;
+            }
+            escape(c);
+        }
+        out.appendByte((byte) '"');
+        return this;
+    }
+
+    private void escapeRest(String value, int from) {
+        int run = from;
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                out.appendBytes(value.substring(run, i).getBytes(StandardCharsets.UTF_8));
+                escape(c);
+                run = i + 1;
+            }
+        }
+        out.appendBytes(value.substring(run).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void escape(char c) {
+        switch (c) {
+            case '"':
+            case '\\':
+                out.appendByte((byte) '\\').appendByte((byte) c);
+                break;
+            case '\n':
+                out.appendByte((byte) '\\').appendByte((byte) 'n');
+                break;
+            case '\r':
+                out.appendByte((byte) '\\').appendByte((byte) 'r');
+                break;
+            case '\t':
+                out.appendByte((byte) '\\').appendByte((byte) 't');
+                break;
+            default:
+                if (c < 0x20) {
+                    out.appendByte((byte) '\\').appendByte((byte) 'u').appendByte((byte) '0').appendByte((byte) '0')
+                            .appendByte(HEX[c >> 4]).appendByte(HEX[c & 0xf]);
+                } else {
+                    out.appendByte((byte) c);
+                }
+        }
+    }
+
+}
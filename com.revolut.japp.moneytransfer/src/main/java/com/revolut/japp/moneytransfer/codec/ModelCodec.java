@@ -0,0 +1,309 @@
+package com.revolut.japp.moneytransfer.codec;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Money;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Hand-written JSON for {@link Account} and {@link Transfer}, read from and written to {@link Buffer}s with a
+ * {@link JsonReader} and a {@link JsonWriter} instead of Jackson databind.
+ * <p>
+ * The JSON is the one the model classes map to: the same fields in the same order, amounts as decimal
+ * numbers in the currency, a {@link TransferStatus} by name, and an unknown field, an unknown currency or
+ * status, or an amount with more fraction digits than its currency refused. Decoding collects the fields
+ * first, so they may come in any order. A transfer's {@code fee} is only ever written.
+ */
+public final class ModelCodec {
+
+    private static final int ACCOUNT_ID = 0;
+    private static final int USER_NAME = 1;
+    private static final int BALANCE = 2;
+    private static final int ACCOUNT_CURRENCY = 3;
+    private static final String[] ACCOUNT_FIELDS = {"id", "userName", "balance", "currency"};
+
+    private static final int TRANSFER_ID = 0;
+    private static final int FROM_ACCOUNT_ID = 1;
+    private static final int TO_ACCOUNT_ID = 2;
+    private static final int AMOUNT = 3;
+    private static final int DISCOUNT = 4;
+    private static final int FEE_RATE = 5;
+    private static final int FEE = 6;
+    private static final int TRANSFER_CURRENCY = 7;
+    private static final int COMMENT = 8;
+    private static final int STATUS = 9;
+    private static final String[] TRANSFER_FIELDS = {"id", "fromAccountId", "toAccountId", "amount", "discount", "feeRate", "fee", "currency", "comment", "status"};
+
+    private static final byte[][] ACCOUNT_NAMES = names(ACCOUNT_FIELDS);
+    private static final byte[][] ACCOUNT_QUOTED = quoted(ACCOUNT_FIELDS);
+    private static final byte[][] TRANSFER_NAMES = names(TRANSFER_FIELDS);
+    private static final byte[][] TRANSFER_QUOTED = quoted(TRANSFER_FIELDS);
+
+    private ModelCodec() {
+    }
+
+    /**
+     * @return the account of a JSON body
+     * @throws io.vertx.core.json.DecodeException if the body is not JSON
+     * @throws IllegalArgumentException if it is not an account
+     */
+    public static Account decodeAccount(Buffer body) {
+        JsonReader reader = new JsonReader(body);
+        Account account = readAccount(reader);
+        reader.end();
+        return account;
+    }
+
+    /**
+     * @return the transfer of a JSON body
+     * @throws io.vertx.core.json.DecodeException if the body is not JSON
+     * @throws IllegalArgumentException if it is not a transfer
+     */
+    public static Transfer decodeTransfer(Buffer body) {
+        JsonReader reader = new JsonReader(body);
+        Transfer transfer = readTransfer(reader);
+        reader.end();
+        return transfer;
+    }
+
+    /**
+     * Reads an account object. Even if it is refused with an {@link IllegalArgumentException}, the whole
+     * object has been read.
+     */
+    public static Account readAccount(JsonReader reader) {
+        Integer id = null;
+        String userName = null;
+        BigDecimal balance = null;
+        String currency = null;
+        String unknown = null;
+        reader.beginObject();
+        int field;
+        while ((field = reader.nextField(ACCOUNT_NAMES)) != -2) {
+            switch (field) {
+                case ACCOUNT_ID:
+                    id = reader.nextInt();
+                    break;
+                case USER_NAME:
+                    userName = reader.nextString();
+                    break;
+                case BALANCE:
+                    balance = reader.nextDecimal();
+                    break;
+                case ACCOUNT_CURRENCY:
+                    currency = reader.nextString();
+                    break;
+                default:
+                    unknown = "unknown field";
+                    reader.skipValue();
+            }
+        }
+        if (unknown != null) {
+            throw new IllegalArgumentException(unknown);
+        }
+        Account account = id == null ? new Account() : new Account(id, null, 0, null);
+        account.setUserName(userName);
+        account.setCurrency(currency(currency));
+        account.setBalance(balance);
+        return account;
+    }
+
+    /**
+     * Reads a transfer object. Even if it is refused with an {@link IllegalArgumentException}, the whole
+     * object has been read.
+     */
+    public static Transfer readTransfer(JsonReader reader) {
+        Integer id = null;
+        int fromAccountId = 0;
+        int toAccountId = 0;
+        BigDecimal amount = null;
+        double discount = 0;
+        double feeRate = 0;
+        String currency = null;
+        String comment = null;
+        String status = null;
+        String unknown = null;
+        reader.beginObject();
+        int field;
+        while ((field = reader.nextField(TRANSFER_NAMES)) != -2) {
+            switch (field) {
+                case TRANSFER_ID:
+                    id = reader.nextInt();
+                    break;
+                case FROM_ACCOUNT_ID:
+                    fromAccountId = reader.nextInt();
+                    break;
+                case TO_ACCOUNT_ID:
+                    toAccountId = reader.nextInt();
+                    break;
+                case AMOUNT:
+                    amount = reader.nextDecimal();
+                    break;
+                case DISCOUNT:
+                    discount = reader.nextDouble(discount);
+                    break;
+                case FEE_RATE:
+                    feeRate = reader.nextDouble(feeRate);
+                    break;
+                case TRANSFER_CURRENCY:
+                    currency = reader.nextString();
+                    break;
+                case COMMENT:
+                    comment = reader.nextString();
+                    break;
+                case STATUS:
+                    status = reader.nextString();
+                    break;
+                case FEE:
+                    reader.skipValue();
+                    break;
+                default:
+                    unknown = "unknown field";
+                    reader.skipValue();
+            }
+        }
+        if (unknown != null) {
+            throw new IllegalArgumentException(unknown);
+        }
+        if (currency != null && amount == null) {
+            // the amount of a transfer in a currency is kept in minor units, where a missing one would read as zero
+            throw new IllegalArgumentException("amount expected");
+        }
+        Transfer transfer = id == null ? new Transfer() : new Transfer(id, 0, 0, 0, null, null, TransferStatus.PENDING);
+        transfer.setFromAccountId(fromAccountId);
+        transfer.setToAccountId(toAccountId);
+        transfer.setCurrency(currency(currency));
+        transfer.setAmount(amount);
+        transfer.setDiscount(discount);
+        transfer.setFeeRate(feeRate);
+        transfer.setComment(comment);
+        if (status != null) {
+            transfer.setStatus(TransferStatus.valueOf(status));
+        }
+        return transfer;
+    }
+
+    /**
+     * @return the compact JSON of the account
+     */
+    public static Buffer encode(Account account) {
+        Buffer out = Buffer.buffer(96);
+        write(new JsonWriter(out), account);
+        return out;
+    }
+
+    public static void write(JsonWriter out, Account account) {
+        Currency currency = account.getCurrency();
+        write(out, account.getId(), account.getUserName(), account.getBalanceMinor(),
+                currency == null ? account.getBalance() : null, currency);
+    }
+
+    /**
+     * @return the compact JSON of an account in the given state, e.g. for a cached view
+     * @see com.revolut.japp.moneytransfer.model.AccountEncoder
+     */
+    public static Buffer encode(int id, String userName, long balanceMinor, BigDecimal unscaledBalance, Currency currency) {
+        Buffer out = Buffer.buffer(96);
+        write(new JsonWriter(out), id, userName, balanceMinor, unscaledBalance, currency);
+        return out;
+    }
+
+    /**
+     * Writes the account as it was in the given state.
+     */
+    public static void write(JsonWriter out, int id, String userName, long balanceMinor, BigDecimal unscaledBalance, Currency currency) {
+        out.raw('{').name(ACCOUNT_QUOTED[ACCOUNT_ID]).value(id)
+                .raw(',').name(ACCOUNT_QUOTED[USER_NAME]).value(userName)
+                .raw(',').name(ACCOUNT_QUOTED[BALANCE]);
+        if (currency != null) {
+            out.decimal(balanceMinor, Money.fractionDigits(currency));
+        } else if (unscaledBalance != null) {
+            out.getBuffer().appendString(unscaledBalance.toString());
+        } else {
+            out.nullValue();
+        }
+        out.raw(',').name(ACCOUNT_QUOTED[ACCOUNT_CURRENCY]).value(currency == null ? null : currency.getCurrencyCode())
+                .raw('}');
+    }
+
+    /**
+     * @return the compact JSON of the transfer
+     */
+    public static Buffer encode(Transfer transfer) {
+        Buffer out = Buffer.buffer(224);
+        write(new JsonWriter(out), transfer);
+        return out;
+    }
+
+    /**
+     * @return the compact JSON array of the transfers
+     */
+    public static Buffer encodeTransfers(Iterable<Transfer> transfers) {
+        JsonWriter out = new JsonWriter(Buffer.buffer(4096)).raw('[');
+        boolean first = true;
+        for (Transfer transfer : transfers) {
+            if (!first) {
+                out.raw(',');
+            }
+            write(out, transfer);
+            first = false;
+        }
+        return out.raw(']').getBuffer();
+    }
+
+    public static void write(JsonWriter out, Transfer transfer) {
+        Currency currency = transfer.getCurrency();
+        TransferStatus status = transfer.getStatus();
+        out.raw('{').name(TRANSFER_QUOTED[TRANSFER_ID]).value(transfer.getId())
+                .raw(',').name(TRANSFER_QUOTED[FROM_ACCOUNT_ID]).value(transfer.getFromAccountId())
+                .raw(',').name(TRANSFER_QUOTED[TO_ACCOUNT_ID]).value(transfer.getToAccountId())
+                .raw(',').name(TRANSFER_QUOTED[AMOUNT]);
+        if (currency != null) {
+            out.decimal(transfer.getAmountMinor(), Money.fractionDigits(currency));
+        } else if (transfer.getAmount() != null) {
+            out.getBuffer().appendString(transfer.getAmount().toString());
+        } else {
+            out.nullValue();
+        }
+        out.raw(',').name(TRANSFER_QUOTED[DISCOUNT]).value(transfer.getDiscount())
+                .raw(',').name(TRANSFER_QUOTED[FEE_RATE]).value(transfer.getFeeRate())
+                .raw(',').name(TRANSFER_QUOTED[FEE]);
+        if (currency != null) {
+            out.decimal(transfer.getFeeMinor(), Money.fractionDigits(currency));
+        } else {
+            out.nullValue();
+        }
+        out.raw(',').name(TRANSFER_QUOTED[TRANSFER_CURRENCY]).value(currency == null ? null : currency.getCurrencyCode())
+                .raw(',').name(TRANSFER_QUOTED[COMMENT]).value(transfer.getComment())
+                .raw(',').name(TRANSFER_QUOTED[STATUS]).value(status == null ? null : status.name())
+                .raw('}');
+    }
+
+    /**
+     * @throws IllegalArgumentException if the code is not an ISO 4217 currency
+     */
+    private static Currency currency(String code) {
+        return code == null ? null : Currency.getInstance(code);
+    }
+
+    private static byte[][] names(String[] fields) {
+        byte[][] names = new byte[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            names[i] = JsonReader.name(fields[i]);
+        }
+        return names;
+    }
+
+    private static byte[][] quoted(String[] fields) {
+        byte[][] quoted = new byte[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            quoted[i] = JsonWriter.quoted(fields[i]);
+        }
+        return quoted;
+    }
+
+}
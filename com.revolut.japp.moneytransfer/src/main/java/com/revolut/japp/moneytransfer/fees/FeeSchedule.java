@@ -0,0 +1,145 @@
+package com.revolut.japp.moneytransfer.fees;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.revolut.japp.moneytransfer.model.Money;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The fees charged on executed transfers, compiled from tiered rules by currency and amount band, e.g.
+ * <pre>
+ * {"account": 3, "rules": [
+ *     {"currency": "EUR", "from": "0", "rate": "0.005", "fixed": "0.25"},
+ *     {"currency": "EUR", "from": "1000", "rate": "0.002"}]}
+ * </pre>
+ * A rule applies to transfers in its currency with an amount from its {@code from} up to the {@code from} of
+ * the next rule, and charges a {@code rate} of the amount plus a {@code fixed} fee, both 0 by default.
+ * Transfers in a currency without rules, or below its lowest band, are free. A positive {@link Transfer#getFeeRate()
+ * fee rate} of the transfer replaces the rate of its rule, and its {@link Transfer#getDiscount() discount} takes
+ * that fraction off the whole fee. The sender pays the fee on top of the amount; it is credited to
+ * {@code account} if given.
+ * <p>
+ * The rules are compiled into sorted arrays of band bounds, rates in parts per million and fixed fees in
+ * minor units, so finding and computing the fee of a transfer is a binary search and a few {@code long}
+ * operations, with the fee rounded half up to a minor unit.
+ * <p>
+ * In the bank config, the schedule is the {@code fees} section.
+ */
+public final class FeeSchedule {
+
+    /**
+     * A schedule without fees.
+     */
+    public static final FeeSchedule NONE = new FeeSchedule(-1, new IdentityHashMap<>());
+
+    private static final long PPM = 1_000_000;
+
+    private final int accountId;
+    private final Map<Currency, Bands> bands;
+
+    private FeeSchedule(int accountId, Map<Currency, Bands> bands) {
+        this.accountId = accountId;
+        this.bands = bands;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a rule has no currency or a negative, overly precise or duplicate value
+     */
+    public static FeeSchedule parse(JsonObject json) {
+        Map<Currency, List<JsonObject>> rules = new IdentityHashMap<>();
+        JsonArray array = json.getJsonArray("rules", new JsonArray());
+        for (int i = 0; i < array.size(); i++) {
+            JsonObject rule = array.getJsonObject(i);
+            rules.computeIfAbsent(Currency.getInstance(rule.getString("currency")), currency -> new ArrayList<>()).add(rule);
+        }
+        Map<Currency, Bands> bands = new IdentityHashMap<>();
+        rules.forEach((currency, list) -> bands.put(currency, new Bands(currency, list)));
+        return new FeeSchedule(json.getInteger("account", -1), bands);
+    }
+
+    /**
+     * @return the account fees are credited to, or -1 if they are not collected into an account
+     */
+    public int getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return the fee for executing the transfer, in minor units of its currency
+     * @throws ArithmeticException if the fee does not fit in a {@code long}
+     */
+    public long fee(Transfer transfer) {
+        long ppm = 0;
+        long fixed = 0;
+        Bands rules = transfer.getCurrency() == null ? null : bands.get(transfer.getCurrency());
+        if (rules != null) {
+            int band = Arrays.binarySearch(rules.from, transfer.getAmountMinor());
+            if (band < 0) {
+                band = -band - 2;
+            }
+            if (band >= 0) {
+                ppm = rules.ppm[band];
+                fixed = rules.fixed[band];
+            }
+        }
+        if (transfer.getFeeRate() > 0) {
+            ppm = Math.round(Math.min(transfer.getFeeRate(), 1) * PPM);
+        }
+        long fee = Money.add(fixed, share(transfer.getAmountMinor(), ppm));
+        if (transfer.getDiscount() > 0) {
+            fee -= share(fee, Math.round(Math.min(transfer.getDiscount(), 1) * PPM));
+        }
+        return fee;
+    }
+
+    /**
+     * @return the parts per million of the non-negative amount, rounded half up, without overflowing
+     */
+    private static long share(long amount, long ppm) {
+        return amount / PPM * ppm + (amount % PPM * ppm + PPM / 2) / PPM;
+    }
+
+    private static final class Bands {
+
+        private final long[] from;
+        private final long[] ppm;
+        private final long[] fixed;
+
+        Bands(Currency currency, List<JsonObject> rules) {
+            rules.sort((a, b) -> decimal(a, "from").compareTo(decimal(b, "from")));
+            from = new long[rules.size()];
+            ppm = new long[rules.size()];
+            fixed = new long[rules.size()];
+            for (int i = 0; i < rules.size(); i++) {
+                JsonObject rule = rules.get(i);
+                try {
+                    from[i] = Money.toMinor(decimal(rule, "from"), currency);
+                    ppm[i] = decimal(rule, "rate").movePointRight(6).setScale(0, RoundingMode.UNNECESSARY).longValueExact();
+                    fixed[i] = Money.toMinor(decimal(rule, "fixed"), currency);
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Invalid fee rule " + rule.encode(), e);
+                }
+                if (from[i] < 0 || ppm[i] < 0 || ppm[i] > PPM || fixed[i] < 0 || i > 0 && from[i] == from[i - 1]) {
+                    throw new IllegalArgumentException("Invalid fee rule " + rule.encode());
+                }
+            }
+        }
+
+        private static BigDecimal decimal(JsonObject rule, String field) {
+            Object value = rule.getValue(field);
+            return value == null ? BigDecimal.ZERO : new BigDecimal(value.toString());
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.revolut.japp.moneytransfer.fx;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.revolut.japp.moneytransfer.model.Money;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * An immutable table of exchange rates against a base currency, e.g.
+ * {@code {"base":"EUR","rates":{"USD":"1.0842","GBP":"0.8571"}}} for 1 EUR = 1.0842 USD = 0.8571 GBP.
+ * <p>
+ * The rate between every pair of currencies, including the difference of their minor units, is worked out
+ * once when the table is built as an exact fraction of two {@code long}s. Converting an amount then takes
+ * one multiplication and one division of {@code long}s, rounding half to even, and only falls back to
+ * {@link BigDecimal} when the product would overflow. A new table replaces an old one as a whole, so readers
+ * need no lock and never see a half-updated table.
+ * <p>
+ * In the bank config, the table is read from the JSON file named by {@code fx.file}; it can be replaced at
+ * runtime through the bank.
+ */
+public final class RateTable {
+
+    /**
+     * A table without rates, which only converts a currency to itself.
+     */
+    public static final RateTable EMPTY = new RateTable(null, new LinkedHashMap<>());
+
+    /**
+     * The most significant digits, and the largest exponent either way, a rate may have. The fractions of a
+     * table grow with the difference of the exponents of its rates, e.g. {@code 1e-999999999} would need a
+     * power of ten of a billion digits.
+     */
+    private static final int MAX_RATE_DIGITS = 18;
+
+    private final Currency base;
+    private final Map<Currency, BigDecimal> rates;
+    private final Map<Currency, Integer> index = new HashMap<>();
+    private final long[] numerators;
+    private final long[] denominators;
+
+    private RateTable(Currency base, LinkedHashMap<Currency, BigDecimal> rates) {
+        this.base = base;
+        this.rates = rates;
+        for (Currency currency : rates.keySet()) {
+            index.put(currency, index.size());
+        }
+        int size = rates.size();
+        numerators = new long[size * size];
+        denominators = new long[size * size];
+        for (Map.Entry<Currency, BigDecimal> from : rates.entrySet()) {
+            for (Map.Entry<Currency, BigDecimal> to : rates.entrySet()) {
+                int pair = index.get(from.getKey()) * size + index.get(to.getKey());
+                BigInteger[] fraction = fraction(from.getKey(), from.getValue(), to.getKey(), to.getValue());
+                if (fraction[0].bitLength() < 63 && fraction[1].bitLength() < 63) {
+                    numerators[pair] = fraction[0].longValue();
+                    denominators[pair] = fraction[1].longValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the base, a currency or a rate is missing or invalid
+     */
+    public static RateTable parse(JsonObject json) {
+        Currency base = Currency.getInstance(json.getString("base"));
+        JsonObject quoted = json.getJsonObject("rates");
+        if (quoted == null) {
+            throw new IllegalArgumentException("rates are required");
+        }
+        LinkedHashMap<Currency, BigDecimal> rates = new LinkedHashMap<>();
+        rates.put(base, BigDecimal.ONE);
+        for (String code : quoted.fieldNames()) {
+            Object value = quoted.getValue(code);
+            BigDecimal rate = value == null ? null : new BigDecimal(value.toString());
+            if (rate == null || rate.signum() <= 0 || rate.precision() > MAX_RATE_DIGITS * 2) {
+                throw new IllegalArgumentException("Invalid rate for " + code);
+            }
+            rate = rate.stripTrailingZeros();
+            if (rate.precision() > MAX_RATE_DIGITS || Math.abs(rate.scale()) > MAX_RATE_DIGITS) {
+                throw new IllegalArgumentException("Invalid rate for " + code);
+            }
+            rates.put(Currency.getInstance(code), rate);
+        }
+        if (rates.get(base).compareTo(BigDecimal.ONE) != 0) {
+            throw new IllegalArgumentException("The base rate must be 1");
+        }
+        return new RateTable(base, rates);
+    }
+
+    public JsonObject toJson() {
+        JsonObject quoted = new JsonObject();
+        rates.forEach((currency, rate) -> {
+            if (!currency.equals(base)) {
+                quoted.put(currency.getCurrencyCode(), rate.toPlainString());
+            }
+        });
+        return new JsonObject()
+                .put("base", base == null ? null : base.getCurrencyCode())
+                .put("rates", quoted);
+    }
+
+    /**
+     * @return the base currency, or null for {@link #EMPTY}
+     */
+    public Currency getBase() {
+        return base;
+    }
+
+    /**
+     * Converts an amount in minor units of one currency into minor units of another, rounding half to even.
+     *
+     * @return the converted amount, or -1 if there is no rate between the currencies or the result does not
+     *         fit in a {@code long}
+     */
+    public long convert(long minor, Currency from, Currency to) {
+        if (from.equals(to)) {
+            return minor;
+        }
+        Integer fromIndex = index.get(from);
+        Integer toIndex = index.get(to);
+        if (fromIndex == null || toIndex == null) {
+            return -1;
+        }
+        int pair = fromIndex * rates.size() + toIndex;
+        long numerator = numerators[pair];
+        long denominator = denominators[pair];
+        if (numerator != 0 && minor >= 0 && minor <= Long.MAX_VALUE / numerator) {
+            long product = minor * numerator;
+            long quotient = product / denominator;
+            long twiceRemainder = (product % denominator) * 2;
+            if (twiceRemainder > denominator || twiceRemainder == denominator && (quotient & 1) != 0) {
+                quotient++;
+            }
+            return quotient;
+        }
+        BigInteger[] fraction = fraction(from, rates.get(from), to, rates.get(to));
+        BigInteger converted = new BigDecimal(BigInteger.valueOf(minor).multiply(fraction[0]))
+                .divide(new BigDecimal(fraction[1]), 0, RoundingMode.HALF_EVEN)
+                .toBigIntegerExact();
+        return converted.bitLength() < 64 ? converted.longValue() : -1;
+    }
+
+    /**
+     * @return the numerator and denominator, in lowest terms, that turn minor units of one currency into
+     *         minor units of the other
+     */
+    private static BigInteger[] fraction(Currency from, BigDecimal fromRate, Currency to, BigDecimal toRate) {
+        // minor(to) = minor(from) * 10^(digits(to) - digits(from)) * toRate / fromRate
+        int shift = Money.fractionDigits(to) - Money.fractionDigits(from) + fromRate.scale() - toRate.scale();
+        BigInteger numerator = toRate.unscaledValue();
+        BigInteger denominator = fromRate.unscaledValue();
+        if (shift > 0) {
+            numerator = numerator.multiply(BigInteger.TEN.pow(shift));
+        } else {
+            denominator = denominator.multiply(BigInteger.TEN.pow(-shift));
+        }
+        BigInteger gcd = numerator.gcd(denominator);
+        return new BigInteger[] {numerator.divide(gcd), denominator.divide(gcd)};
+    }
+
+}
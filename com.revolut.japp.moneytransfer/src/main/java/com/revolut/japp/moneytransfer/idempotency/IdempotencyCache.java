@@ -0,0 +1,251 @@
+package com.revolut.japp.moneytransfer.idempotency;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Outcomes of requests made with an {@code Idempotency-Key}, so that a retried request can be answered like
+ * the first one instead of being applied again.
+ * <p>
+ * A key is kept as a 64-bit fingerprint next to a 32-bit outcome in open-addressed arrays filled to at most
+ * three quarters, i.e. 16 bytes a key or more, instead of as a string in a map. Keys are spread over
+ * {@value #STRIPES} stripes, each with its own lock and a ring of {@value #GENERATIONS} generations: new keys
+ * go to the newest generation, which is replaced once it is full or a seventh of the time to live old,
+ * dropping the oldest generation as a whole. The generations are sized so that the seven kept besides the
+ * newest hold {@code maxKeys} keys spread evenly over the stripes, their arrays rounded up to a power of two.
+ * A key is therefore remembered for at least the time to live unless {@code maxKeys} newer keys pushed it
+ * out, and the cache takes between 16 and 37 bytes for each of {@code maxKeys} keys. Generations are
+ * allocated as they are needed, so an idle cache stays small.
+ * <p>
+ * Distinct keys share a fingerprint with a probability of about {@code n^2 / 2^65} for {@code n} keys, which
+ * is negligible even for hundreds of millions of keys.
+ * <p>
+ * In the bank config, outcomes are remembered for {@code idempotency.ttl} seconds (a day by default), up to
+ * {@code idempotency.maxKeys} keys (2^24 by default), e.g. {@code {"idempotency": {"maxKeys": 67108864}}} for
+ * tens of millions of requests a day.
+ */
+public class IdempotencyCache {
+
+    /**
+     * Returned by {@link #reserve} when the key is new; the caller goes on with the request.
+     */
+    public static final int ABSENT = 0;
+
+    /**
+     * Returned by {@link #reserve} while the first request with the key has no outcome yet.
+     */
+    public static final int IN_FLIGHT = Integer.MIN_VALUE;
+
+    private static final int STRIPES = 16;
+    private static final int GENERATIONS = 8;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongSupplier clock;
+    private final long ttlMillis;
+    private final long sliceMillis;
+    private final int tableSize;
+
+    public IdempotencyCache(long ttlMillis, int maxKeys) {
+        this(ttlMillis, maxKeys, System::currentTimeMillis);
+    }
+
+    IdempotencyCache(long ttlMillis, int maxKeys, LongSupplier clock) {
+        if (ttlMillis <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("ttl and maxKeys must be positive");
+        }
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+        this.sliceMillis = Math.max(1, ttlMillis / (GENERATIONS - 1));
+        long perGeneration = (maxKeys + STRIPES * (GENERATIONS - 1) - 1L) / (STRIPES * (GENERATIONS - 1));
+        long slots = Math.max(4, Math.min(1 << 30, (perGeneration * 4 + 2) / 3));
+        this.tableSize = Integer.highestOneBit((int) slots - 1) << 1;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the outcome stored for a transfer the request created or executed
+     */
+    public static int succeeded(int transferId) {
+        return transferId + 1;
+    }
+
+    /**
+     * @return the outcome stored for a request that was refused with the status code
+     */
+    public static int failed(int statusCode) {
+        return -statusCode;
+    }
+
+    /**
+     * @return true if the outcome is one of {@link #failed}
+     */
+    public static boolean isFailure(int outcome) {
+        return outcome < 0;
+    }
+
+    /**
+     * @return the transfer of an outcome of {@link #succeeded}
+     */
+    public static int transferId(int outcome) {
+        return outcome - 1;
+    }
+
+    /**
+     * @return the status code of an outcome of {@link #failed}
+     */
+    public static int statusCode(int outcome) {
+        return -outcome;
+    }
+
+    /**
+     * Looks the key up and, if it has no outcome, marks it in flight for the caller.
+     *
+     * @return {@link #ABSENT} if the caller now owns the key, {@link #IN_FLIGHT} if another request does, or
+     * the stored outcome
+     */
+    public int reserve(String key) {
+        long fingerprint = fingerprint(key);
+        return stripe(fingerprint).reserve(fingerprint, clock.getAsLong());
+    }
+
+    /**
+     * Stores the outcome of the request owning the key.
+     */
+    public void complete(String key, int outcome) {
+        long fingerprint = fingerprint(key);
+        stripe(fingerprint).set(fingerprint, outcome, clock.getAsLong(), false);
+    }
+
+    /**
+     * Forgets a key that is still in flight, e.g. because its request failed before changing anything, so
+     * that a retry is applied. Keys with an outcome are left alone.
+     */
+    public void release(String key) {
+        long fingerprint = fingerprint(key);
+        stripe(fingerprint).set(fingerprint, ABSENT, clock.getAsLong(), true);
+    }
+
+    private Stripe stripe(long fingerprint) {
+        return stripes[(int) (fingerprint >>> 32) & (STRIPES - 1)];
+    }
+
+    /**
+     * FNV-1a over the characters followed by the MurmurHash3 finaliser, never 0 as that marks a free slot.
+     */
+    static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private final class Stripe {
+
+        private final Generation[] ring = new Generation[GENERATIONS];
+        private int newest;
+
+        synchronized int reserve(long fingerprint, long now) {
+            expire(now);
+            for (int i = 0; i < GENERATIONS; i++) {
+                Generation generation = ring[(newest - i + GENERATIONS) % GENERATIONS];
+                int slot = generation == null ? -1 : generation.find(fingerprint);
+                if (slot >= 0) {
+                    int outcome = generation.outcomes[slot];
+                    if (outcome == ABSENT) {
+                        generation.outcomes[slot] = IN_FLIGHT;
+                    }
+                    return outcome;
+                }
+            }
+            current(now).insert(fingerprint, IN_FLIGHT);
+            return ABSENT;
+        }
+
+        synchronized void set(long fingerprint, int outcome, long now, boolean onlyInFlight) {
+            expire(now);
+            for (int i = 0; i < GENERATIONS; i++) {
+                Generation generation = ring[(newest - i + GENERATIONS) % GENERATIONS];
+                int slot = generation == null ? -1 : generation.find(fingerprint);
+                if (slot >= 0) {
+                    if (!onlyInFlight || generation.outcomes[slot] == IN_FLIGHT) {
+                        generation.outcomes[slot] = outcome;
+                    }
+                    return;
+                }
+            }
+            if (!onlyInFlight) {
+                // pushed out while the request was running
+                current(now).insert(fingerprint, outcome);
+            }
+        }
+
+        private void expire(long now) {
+            for (int i = 0; i < GENERATIONS; i++) {
+                if (ring[i] != null && ring[i].openedAt + sliceMillis + ttlMillis < now) {
+                    ring[i] = null;
+                }
+            }
+        }
+
+        private Generation current(long now) {
+            Generation generation = ring[newest];
+            if (generation == null || generation.size == generation.capacity || now - generation.openedAt >= sliceMillis) {
+                newest = (newest + 1) % GENERATIONS;
+                generation = new Generation(tableSize, now);
+                ring[newest] = generation;
+            }
+            return generation;
+        }
+
+    }
+
+    private static final class Generation {
+
+        private final long[] fingerprints;
+        private final int[] outcomes;
+        private final int capacity;
+        private final long openedAt;
+        private int size;
+
+        Generation(int tableSize, long openedAt) {
+            this.fingerprints = new long[tableSize];
+            this.outcomes = new int[tableSize];
+            this.capacity = tableSize / 4 * 3;
+            this.openedAt = openedAt;
+        }
+
+        /**
+         * @return the slot of the fingerprint, or -1
+         */
+        int find(long fingerprint) {
+            int mask = fingerprints.length - 1;
+            for (int slot = (int) fingerprint & mask; fingerprints[slot] != 0; slot = (slot + 1) & mask) {
+                if (fingerprints[slot] == fingerprint) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        void insert(long fingerprint, int outcome) {
+            int mask = fingerprints.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            fingerprints[slot] = fingerprint;
+            outcomes[slot] = outcome;
+            size++;
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.revolut.japp.moneytransfer.index;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ids grouped by a key and kept in ascending order, so a page of the ids after a given one is found
+ * without looking at the ones before it. Safe for concurrent use; readers see a weakly consistent view.
+ */
+public class IdIndex<K> {
+
+    private final Map<K, NavigableSet<Integer>> ids = new ConcurrentHashMap<>();
+
+    public void add(K key, int id) {
+        ids.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(id);
+    }
+
+    public void remove(K key, int id) {
+        NavigableSet<Integer> set = ids.get(key);
+        if (set != null) {
+            set.remove(id);
+        }
+    }
+
+    /**
+     * @return the ids indexed under the key that are greater than {@code after}, in ascending order
+     */
+    public Iterator<Integer> after(K key, int after) {
+        NavigableSet<Integer> set = ids.get(key);
+        return set == null ? Collections.emptyIterator() : set.tailSet(after, false).iterator();
+    }
+
+}
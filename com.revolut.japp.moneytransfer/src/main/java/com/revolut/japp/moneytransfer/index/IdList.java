@@ -0,0 +1,167 @@
+package com.revolut.japp.moneytransfer.index;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ascending set of ints stored in segments of plain int arrays, about four bytes per id instead of the
+ * forty or so a boxed, linked structure costs.
+ * <p>
+ * Ids normally arrive in ascending order and are simply appended, filling every segment completely. An id
+ * arriving out of order is inserted into its segment, which is split in two when full. The first segment
+ * starts small and grows, so the many ids with only a handful of entries stay cheap. Readers copy a chunk
+ * at a time under the lock and continue after the last id they saw, so they never hold the lock for long
+ * and never miss an id because of a concurrent split.
+ */
+public class IdList {
+
+    static final int SEGMENT = 256;
+    private static final int FIRST_SEGMENT = 4;
+    private static final int CHUNK = 64;
+
+    private int[][] segments = new int[1][];
+    private int[] sizes = new int[1];
+    private int used;
+    private int size;
+
+    /**
+     * @return true if the id was not in the list yet
+     */
+    public synchronized boolean add(int id) {
+        if (used == 0) {
+            insertSegment(0, new int[FIRST_SEGMENT]);
+        }
+        int s = segmentOf(id);
+        int n = sizes[s];
+        int position = Arrays.binarySearch(segments[s], 0, n, id);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (n == segments[s].length) {
+            if (n < SEGMENT) {
+                segments[s] = Arrays.copyOf(segments[s], Math.min(n * 2, SEGMENT));
+            } else if (position == n && s == used - 1) {
+                insertSegment(used, new int[SEGMENT]);
+                s++;
+                position = 0;
+            } else {
+                split(s);
+                if (position > SEGMENT / 2) {
+                    s++;
+                    position -= SEGMENT / 2;
+                }
+            }
+        }
+        int[] segment = segments[s];
+        System.arraycopy(segment, position, segment, position + 1, sizes[s] - position);
+        segment[position] = id;
+        sizes[s]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the number of ids
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies the smallest ids greater than {@code after} into the array.
+     *
+     * @return the number of ids copied
+     */
+    public synchronized int copyAfter(int after, int[] into) {
+        if (used == 0) {
+            return 0;
+        }
+        int s = segmentOf(after);
+        int position = Arrays.binarySearch(segments[s], 0, sizes[s], after);
+        position = position >= 0 ? position + 1 : -position - 1;
+        int copied = 0;
+        while (copied < into.length && s < used) {
+            int count = Math.min(sizes[s] - position, into.length - copied);
+            System.arraycopy(segments[s], position, into, copied, count);
+            copied += count;
+            s++;
+            position = 0;
+        }
+        return copied;
+    }
+
+    /**
+     * @return the ids greater than {@code after}, in ascending order, read a chunk at a time
+     */
+    public Iterator<Integer> after(int after) {
+        return new Iterator<Integer>() {
+
+            private final int[] chunk = new int[CHUNK];
+            private int last = after;
+            private int length;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == length && length != -1) {
+                    length = copyAfter(last, chunk);
+                    next = 0;
+                    if (length == 0) {
+                        length = -1;
+                    }
+                }
+                return length > 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = chunk[next++];
+                return last;
+            }
+
+        };
+    }
+
+    /**
+     * @return the last segment whose first id is not greater than the id, or the first segment
+     */
+    private int segmentOf(int id) {
+        int low = 0;
+        int high = used - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments[middle][0] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void split(int s) {
+        int[] upper = new int[SEGMENT];
+        System.arraycopy(segments[s], SEGMENT / 2, upper, 0, SEGMENT / 2);
+        sizes[s] = SEGMENT / 2;
+        insertSegment(s + 1, upper);
+        sizes[s + 1] = SEGMENT / 2;
+    }
+
+    private void insertSegment(int s, int[] segment) {
+        if (used == segments.length) {
+            segments = Arrays.copyOf(segments, used * 2);
+            sizes = Arrays.copyOf(sizes, used * 2);
+        }
+        System.arraycopy(segments, s, segments, s + 1, used - s);
+        System.arraycopy(sizes, s, sizes, s + 1, used - s);
+        segments[s] = segment;
+        sizes[s] = 0;
+        used++;
+    }
+
+}
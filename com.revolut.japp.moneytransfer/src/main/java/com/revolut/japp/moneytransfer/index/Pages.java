@@ -0,0 +1,36 @@
+package com.revolut.japp.moneytransfer.index;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Helpers for keyset pagination: a page holds the records with the smallest ids greater than the last id
+ * of the previous page, so reading a page costs the same wherever it is in the listing.
+ */
+public final class Pages {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private Pages() {
+    }
+
+    /**
+     * Looks up the records of ascending ids and collects those accepted by the filter until the page is
+     * full. Ids whose record is gone are skipped.
+     */
+    public static <T> List<T> collect(Iterator<Integer> ids, IntFunction<T> lookup, Predicate<T> filter, int limit) {
+        List<T> page = new ArrayList<>(Math.min(limit, MAX_LIMIT));
+        while (page.size() < limit && ids.hasNext()) {
+            T record = lookup.apply(ids.next());
+            if (record != null && filter.test(record)) {
+                page.add(record);
+            }
+        }
+        return page;
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.revolut.japp.moneytransfer.index;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * Secondary indexes over the transfers, by account, status and currency, used to answer
+ * {@link TransferQuery queries} in time proportional to the page rather than to all transfers.
+ * <p>
+ * The history of each account, the transfers it is either side of, is an {@link IdList}, so accounts with
+ * hundreds of thousands of transfers cost little more than the ids themselves.
+ * <p>
+ * Accounts and currency of a transfer never change once it is added; its status is re-indexed by
+ * {@link #statusChanged(Transfer)}. Index entries may briefly lag behind the transfers, so every candidate
+ * is checked against the query again before it is returned.
+ */
+public class TransferIndex {
+
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private final IntFunction<Transfer> lookup;
+    private final IntFunction<Iterator<Integer>> idsAfter;
+    private final Map<Integer, IdList> byAccount = new ConcurrentHashMap<>();
+    private final IdIndex<TransferStatus> byStatus = new IdIndex<>();
+    private final IdIndex<Currency> byCurrency = new IdIndex<>();
+
+    /**
+     * @param transfers the transfers by id, in ascending order
+     */
+    public TransferIndex(NavigableMap<Integer, Transfer> transfers) {
+        this(transfers::get, after -> transfers.tailMap(after, false).keySet().iterator());
+    }
+
+    /**
+     * @param lookup finds a transfer by id
+     * @param idsAfter lists the ids of all transfers greater than the given one, in ascending order
+     */
+    public TransferIndex(IntFunction<Transfer> lookup, IntFunction<Iterator<Integer>> idsAfter) {
+        this.lookup = lookup;
+        this.idsAfter = idsAfter;
+    }
+
+    /**
+     * Indexes a new transfer. Indexing one again, e.g. while replaying the journal, is harmless.
+     */
+    public void add(Transfer transfer) {
+        history(transfer.getFromAccountId()).add(transfer.getId());
+        history(transfer.getToAccountId()).add(transfer.getId());
+        if (transfer.getCurrency() != null) {
+            byCurrency.add(transfer.getCurrency(), transfer.getId());
+        }
+        statusChanged(transfer);
+    }
+
+    public void statusChanged(Transfer transfer) {
+        TransferStatus status = transfer.getStatus();
+        byStatus.add(status, transfer.getId());
+        for (TransferStatus other : STATUSES) {
+            if (other != status) {
+                byStatus.remove(other, transfer.getId());
+            }
+        }
+    }
+
+    /**
+     * Reads the page from the index of the most selective filter set: an account, then the status, then
+     * the currency.
+     */
+    public List<Transfer> page(TransferQuery query) {
+        int after = query.getAfter();
+        Iterator<Integer> candidates;
+        Integer account = query.getFromAccountId() != null ? query.getFromAccountId() :
+                query.getToAccountId() != null ? query.getToAccountId() : query.getAccountId();
+        if (account != null) {
+            IdList history = byAccount.get(account);
+            candidates = history == null ? Collections.emptyIterator() : history.after(after);
+        } else if (query.getStatus() != null) {
+            candidates = byStatus.after(query.getStatus(), after);
+        } else if (query.getCurrency() != null) {
+            candidates = byCurrency.after(query.getCurrency(), after);
+        } else {
+            candidates = idsAfter.apply(after);
+        }
+        return Pages.collect(candidates, lookup, query::matches, query.getLimit());
+    }
+
+    private IdList history(int accountId) {
+        return byAccount.computeIfAbsent(accountId, id -> new IdList());
+    }
+
+}
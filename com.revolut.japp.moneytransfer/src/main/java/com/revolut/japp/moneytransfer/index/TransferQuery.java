@@ -0,0 +1,99 @@
+package com.revolut.japp.moneytransfer.index;
+
+import java.util.Currency;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * A page of transfers: the first {@code limit} transfers with an id greater than {@code after} that match
+ * every filter set. Filters left null match everything.
+ */
+public class TransferQuery {
+
+    private int after = -1;
+    private int limit = Pages.DEFAULT_LIMIT;
+    private TransferStatus status;
+    private Currency currency;
+    private Integer fromAccountId;
+    private Integer toAccountId;
+    private Integer accountId;
+
+    public TransferQuery after(int after) {
+        this.after = after;
+        return this;
+    }
+
+    public TransferQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public TransferQuery status(TransferStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public TransferQuery currency(Currency currency) {
+        this.currency = currency;
+        return this;
+    }
+
+    public TransferQuery fromAccountId(Integer fromAccountId) {
+        this.fromAccountId = fromAccountId;
+        return this;
+    }
+
+    public TransferQuery toAccountId(Integer toAccountId) {
+        this.toAccountId = toAccountId;
+        return this;
+    }
+
+    /**
+     * @param accountId the account that must be either side of the transfer
+     */
+    public TransferQuery accountId(Integer accountId) {
+        this.accountId = accountId;
+        return this;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TransferStatus getStatus() {
+        return status;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public Integer getFromAccountId() {
+        return fromAccountId;
+    }
+
+    public Integer getToAccountId() {
+        return toAccountId;
+    }
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return true if the transfer matches every filter set
+     */
+    public boolean matches(Transfer transfer) {
+        return (status == null || transfer.getStatus() == status) &&
+                (currency == null || currency.equals(transfer.getCurrency())) &&
+                (fromAccountId == null || transfer.getFromAccountId() == fromAccountId) &&
+                (toAccountId == null || transfer.getToAccountId() == toAccountId) &&
+                (accountId == null || transfer.getFromAccountId() == accountId || transfer.getToAccountId() == accountId);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and reads the {@code [int length][int crc32][payload]} frames journal segments and snapshots are
+ * made of. Reading maps the file in windows of at most 1 GB, so files of any size can be replayed.
+ * Not thread safe.
+ */
+final class Frames {
+
+    static final int HEADER = 8;
+    private static final long WINDOW = 1L << 30;
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer;
+    private long records;
+    private long payloadBytes;
+    private long frameBytes;
+
+    Frames(int capacity) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Buffers one frame, writing the buffer to the channel first if the frame does not fit.
+     */
+    void put(FileChannel channel, byte[] payload) throws IOException {
+        int frame = HEADER + payload.length;
+        if (buffer.remaining() < frame) {
+            flush(channel);
+            if (buffer.capacity() < frame) {
+                buffer = ByteBuffer.allocateDirect(frame);
+            }
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        records++;
+        payloadBytes += payload.length;
+        frameBytes += frame;
+    }
+
+    void flush(FileChannel channel) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+
+    /**
+     * Replays every intact frame of the file through memory-mapped reads, stopping at the first torn or
+     * corrupt one.
+     *
+     * @return the length of the intact part of the file
+     */
+    long read(FileChannel file, JournalHandler handler) throws IOException {
+        long size = file.size();
+        long position = 0;
+        while (true) {
+            long window = Math.min(size - position, WINDOW);
+            if (window < HEADER) {
+                return position;
+            }
+            ByteBuffer map = file.map(FileChannel.MapMode.READ_ONLY, position, window);
+            int offset = 0;
+            boolean corrupt = false;
+            while (offset + HEADER <= window) {
+                int length = map.getInt(offset);
+                if (length <= 0) {
+                    corrupt = true;
+                    break;
+                }
+                if (offset + HEADER + (long) length > window) {
+                    break;
+                }
+                ByteBuffer payload = map.duplicate();
+                ((Buffer) payload).limit(offset + HEADER + length);
+                ((Buffer) payload).position(offset + HEADER);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != map.getInt(offset + 4)) {
+                    corrupt = true;
+                    break;
+                }
+                JournalRecord.decode(payload, handler);
+                offset += HEADER + length;
+                records++;
+                payloadBytes += length;
+                frameBytes += HEADER + length;
+            }
+            position += offset;
+            if (corrupt || offset == 0 || position == size) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames written or read
+     */
+    long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the payload bytes written or read
+     */
+    long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return the bytes written or read, framing included
+     */
+    long getFrameBytes() {
+        return frameBytes;
+    }
+
+}
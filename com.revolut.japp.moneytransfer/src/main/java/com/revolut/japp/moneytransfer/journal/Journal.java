@@ -0,0 +1,478 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+/**
+ * Append-only write-ahead journal of account and transfer changes.
+ * <p>
+ * Records are framed as {@code [int length][int crc32][payload]} and appended to numbered segment files
+ * through a {@link FileChannel}. Appending only queues the record; a single writer thread writes whatever
+ * has queued up since its last pass and fsyncs once for the whole batch (group commit), so the cost of a
+ * sync is shared by every request that arrived meanwhile. Callers that must not answer before their change
+ * is on disk wait for it with {@link #whenDurable(Handler)}.
+ * <p>
+ * {@link #snapshot(Collection, Collection)} writes the complete state to {@code snapshot-N.bin} and drops
+ * the segments before N. The snapshot is fuzzy: it is read from the live maps while requests keep changing
+ * them, but the journal moves on to segment N before the first entry is read, so every change the snapshot
+ * may have missed is in segment N or later. Each record holds the complete state of what it touches, so
+ * replaying those segments over the snapshot yields exactly the state at the end of the journal. The one
+ * exception are credits pending on hot accounts, which are only replayed within their epoch: the caller
+ * folds them once the journal has moved on, so that none of them is left only in a dropped segment.
+ * <p>
+ * On open the latest snapshot and the segments from it on are replayed through memory-mapped reads. A torn
+ * or corrupt record at the end of the last segment, left by a crash in the middle of a write, is cut off.
+ * <p>
+ * In the bank config, {@code {"journal": {"dir": "data"}}} journals every change to that directory and
+ * rebuilds the state from it when the bank is created; {@code journal.segmentSize} bounds the segments (64 MiB
+ * by default), and a snapshot is written every {@code journal.snapshotInterval} seconds (300 by default, 0 to
+ * disable) so that only the journal written after it needs replaying.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger log = Logger.getLogger(Journal.class);
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_BATCH = 512;
+    private static final byte[] ROTATE = new byte[0];
+
+    private final Path dir;
+    private final long segmentSize;
+    private final Frames frames = new Frames(1 << 20);
+    private FileChannel channel;
+    private long segment;
+
+    private final Object lock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private List<byte[]> spare = new ArrayList<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final ArrayDeque<CompletableFuture<Long>> rotations = new ArrayDeque<>();
+    private long appended;
+    private long durable;
+    private Throwable failure;
+    private boolean closed;
+    private final Thread writer;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private volatile long recoveredRecords;
+    private volatile long recoveryMillis;
+    private volatile long snapshotEntries;
+    private volatile long snapshotMillis;
+
+    private Journal(Path dir, long segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal in the directory, replays the latest snapshot and every record written after it
+     * through the handler and starts accepting appends.
+     */
+    public static Journal open(Path dir, long segmentSize, JournalHandler handler) throws IOException {
+        Files.createDirectories(dir);
+        Journal journal = new Journal(dir, segmentSize);
+        journal.replay(handler);
+        journal.writer.start();
+        return journal;
+    }
+
+    /**
+     * Queues a record. It is written and synced by the next group commit. Once a write has failed the record
+     * is dropped instead, and {@link #whenDurable} reports the failure straight away.
+     */
+    public void append(JournalRecord record) {
+        if (record.isEmpty()) {
+            return;
+        }
+        byte[] payload = record.toBytes();
+        synchronized (lock) {
+            if (failure != null) {
+                return;
+            }
+            pending.add(payload);
+            appended++;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Calls the handler, on the writer thread, once every record appended so far is on disk.
+     */
+    public void whenDurable(Handler<AsyncResult<Void>> handler) {
+        AsyncResult<Void> result = null;
+        synchronized (lock) {
+            if (failure != null) {
+                result = Future.failedFuture(failure);
+            } else if (appended <= durable) {
+                result = Future.succeededFuture();
+            } else {
+                waiters.add(new Waiter(appended, handler));
+            }
+        }
+        if (result != null) {
+            handler.handle(result);
+        }
+    }
+
+    /**
+     * @return the number of records appended since the journal was opened, whether on disk yet or not
+     */
+    public long getAppended() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given live views and deletes the segments and snapshots it makes obsolete.
+     * Takes as long as writing the snapshot takes, but never holds up appends.
+     */
+    public void snapshot(Collection<Account> accounts, Collection<Transfer> transfers) throws IOException {
+        snapshot(accounts, transfers, () -> {
+        });
+    }
+
+    /**
+     * Writes a snapshot like {@link #snapshot(Collection, Collection)}, running {@code rotated} once the
+     * journal has moved to the new segment and before the first entry is read.
+     */
+    public void snapshot(Collection<Account> accounts, Collection<Transfer> transfers, Runnable rotated) throws IOException {
+        long start = System.nanoTime();
+        long first = rotate();
+        rotated.run();
+        Path file = dir.resolve(snapshotName(first));
+        Path temp = dir.resolve(snapshotName(first) + ".tmp");
+        Frames snapshot = new Frames(1 << 20);
+        long entries = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            JournalRecord record = new JournalRecord();
+            for (Account account : accounts) {
+                record.account(account);
+                if (++entries % SNAPSHOT_BATCH == 0) {
+                    snapshot.put(out, record.toBytes());
+                    record = new JournalRecord();
+                }
+            }
+            for (Transfer transfer : transfers) {
+                record.transfer(transfer);
+                if (++entries % SNAPSHOT_BATCH == 0) {
+                    snapshot.put(out, record.toBytes());
+                    record = new JournalRecord();
+                }
+            }
+            if (!record.isEmpty()) {
+                snapshot.put(out, record.toBytes());
+            }
+            snapshot.flush(out);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        for (Path old : files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(first).values()) {
+            Files.delete(old);
+        }
+        for (Path old : files(SEGMENT_PREFIX, SEGMENT_SUFFIX).headMap(first).values()) {
+            Files.delete(old);
+        }
+        snapshotEntries = entries;
+        snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("[journal]: wrote snapshot of " + entries + " entries (" + snapshot.getFrameBytes() + " bytes) up to segment " +
+                first + " in " + snapshotMillis + " ms");
+    }
+
+    /**
+     * @return the number of records appended
+     */
+    public long getRecords() {
+        return records.get();
+    }
+
+    /**
+     * @return the bytes written to disk for every byte of record payload, framing included
+     */
+    public double getWriteAmplification() {
+        long payload = payloadBytes.get();
+        return payload == 0 ? 0 : (double) writtenBytes.get() / payload;
+    }
+
+    /**
+     * @return the number of records written per fsync
+     */
+    public double getRecordsPerSync() {
+        long count = syncs.get();
+        return count == 0 ? 0 : (double) records.get() / count;
+    }
+
+    /**
+     * @return the number of fsyncs
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * @return the number of records replayed when the journal was opened, snapshot included
+     */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /**
+     * @return the time replaying the journal took when it was opened
+     */
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    /**
+     * @return the number of accounts and transfers in the last snapshot written
+     */
+    public long getSnapshotEntries() {
+        return snapshotEntries;
+    }
+
+    /**
+     * @return the time writing the last snapshot took
+     */
+    public long getSnapshotMillis() {
+        return snapshotMillis;
+    }
+
+    /**
+     * Writes and syncs whatever is still queued and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        log.info("[journal]: closed after " + records.get() + " records, " + syncs.get() + " syncs, write amplification " +
+                String.format("%.3f", getWriteAmplification()));
+    }
+
+    private void replay(JournalHandler handler) throws IOException {
+        long start = System.nanoTime();
+        Frames replay = new Frames(0);
+        TreeMap<Long, Path> snapshots = files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Long, Path> segments = files(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        segment = 1;
+        if (!snapshots.isEmpty()) {
+            Path snapshot = snapshots.lastEntry().getValue();
+            try (FileChannel file = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                if (replay.read(file, handler) < file.size()) {
+                    throw new IOException("Corrupt snapshot " + snapshot);
+                }
+            }
+            segment = snapshots.lastKey();
+            segments = new TreeMap<>(segments.tailMap(segment));
+        }
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            Path path = entry.getValue();
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = file.size();
+                long valid = replay.read(file, handler);
+                if (valid < size) {
+                    if (!entry.getKey().equals(segments.lastKey())) {
+                        throw new IOException("Corrupt record at " + valid + " in " + path);
+                    }
+                    log.warn("[journal]: cutting " + (size - valid) + " bytes of torn records off " + path);
+                    file.truncate(valid);
+                }
+            }
+            segment = entry.getKey();
+        }
+        openSegment();
+        recoveredRecords = replay.getRecords();
+        recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("[journal]: replayed " + replay.getRecords() + " records (" + replay.getFrameBytes() + " bytes) from " +
+                (snapshots.isEmpty() ? "no snapshot" : snapshotName(snapshots.lastKey())) + " and " + segments.size() +
+                " segments in " + recoveryMillis + " ms");
+    }
+
+    private TreeMap<Long, Path> files(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> numbered = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    numbered.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+                }
+            });
+        }
+        return numbered;
+    }
+
+    static String segmentName(long segment) {
+        return String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX);
+    }
+
+    static String snapshotName(long segment) {
+        return String.format("%s%08d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX);
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(dir.resolve(segmentName(segment)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Makes the writer move on to a new segment right after the records queued so far.
+     *
+     * @return the number of the new segment
+     */
+    private long rotate() throws IOException {
+        CompletableFuture<Long> rotated = new CompletableFuture<>();
+        synchronized (lock) {
+            if (failure != null || closed) {
+                throw new IOException("Journal is closed", failure);
+            }
+            pending.add(ROTATE);
+            rotations.add(rotated);
+            lock.notify();
+        }
+        try {
+            return rotated.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rotating the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Journal failed", e.getCause());
+        }
+    }
+
+    private void roll() throws IOException {
+        frames.flush(channel);
+        channel.force(false);
+        channel.close();
+        segment++;
+        openSegment();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long upTo;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                upTo = appended;
+            }
+            try {
+                for (byte[] payload : batch) {
+                    if (payload == ROTATE) {
+                        roll();
+                        CompletableFuture<Long> rotated;
+                        synchronized (lock) {
+                            rotated = rotations.poll();
+                        }
+                        rotated.complete(segment);
+                    } else {
+                        frames.put(channel, payload);
+                    }
+                }
+                frames.flush(channel);
+                channel.force(false);
+                syncs.incrementAndGet();
+                records.set(frames.getRecords());
+                payloadBytes.set(frames.getPayloadBytes());
+                writtenBytes.set(frames.getFrameBytes());
+                if (channel.size() >= segmentSize) {
+                    roll();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("[journal]: write failed, refusing further commits", e);
+                List<CompletableFuture<Long>> failed;
+                synchronized (lock) {
+                    failure = e;
+                    pending.clear();
+                    failed = new ArrayList<>(rotations);
+                    rotations.clear();
+                }
+                failed.forEach(rotated -> rotated.completeExceptionally(e));
+                complete(Long.MAX_VALUE, Future.failedFuture(e));
+                return;
+            }
+            batch.clear();
+            synchronized (lock) {
+                spare = batch;
+                durable = upTo;
+            }
+            complete(upTo, Future.succeededFuture());
+        }
+    }
+
+    private void complete(long upTo, AsyncResult<Void> result) {
+        List<Waiter> done = new ArrayList<>();
+        synchronized (lock) {
+            while (!waiters.isEmpty() && waiters.peek().target <= upTo) {
+                done.add(waiters.poll());
+            }
+        }
+        for (Waiter waiter : done) {
+            waiter.handler.handle(result);
+        }
+    }
+
+    private static final class Waiter {
+
+        private final long target;
+        private final Handler<AsyncResult<Void>> handler;
+
+        private Waiter(long target, Handler<AsyncResult<Void>> handler) {
+            this.target = target;
+            this.handler = handler;
+        }
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+/**
+ * Applies the entries decoded from a {@link JournalRecord}. Every entry but a credit carries the complete
+ * state of one account or transfer, so applying it replaces whatever was known about it before. A credit
+ * to a hot account counts only while the account is still in the epoch the credit was made in; later
+ * epochs have it folded into their balance.
+ */
+public interface JournalHandler {
+
+    void account(Account account);
+
+    void accountRemoved(int id);
+
+    void transfer(Transfer transfer);
+
+    void credited(int id, long amount, long epoch);
+
+}
@@ -0,0 +1,305 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Currency;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * Binary encoding of the entries making up one journal record. A record is written and replayed as a
+ * whole, so the entries of one change, e.g. both accounts and the transfer of an execution, are never
+ * seen separately.
+ * <p>
+ * Entries are a type byte followed by fixed-width fields; strings are a length (-1 for null) and UTF-8 bytes.
+ * An account or transfer without a currency, whose balance or amount is a decimal rather than minor units,
+ * has an entry of its own holding that decimal as a string.
+ */
+public final class JournalRecord {
+
+    static final byte ACCOUNT = 1;
+    static final byte ACCOUNT_REMOVED = 2;
+    static final byte TRANSFER = 3;
+    static final byte CREDIT = 4;
+    static final byte ACCOUNT_EPOCH = 5;
+    static final byte TRANSFER_FEE = 6;
+    static final byte TRANSFER_LEGS = 7;
+    static final byte ACCOUNT_UNSCALED = 8;
+    static final byte TRANSFER_UNSCALED = 9;
+
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private byte[] bytes = new byte[64];
+    private int size;
+
+    /**
+     * Adds the account with its folded balance; credits pending on a hot account are journaled by
+     * {@link #credit(int, long, long)} and replayed on top of it as long as its epoch has not moved on.
+     */
+    public JournalRecord account(Account account) {
+        if (account.getCurrency() == null) {
+            writeByte(ACCOUNT_UNSCALED);
+            writeInt(account.getId());
+            writeString(account.getUserName());
+            writeDecimal(account.getBalance());
+            return this;
+        }
+        long epoch;
+        long balance;
+        do {
+            // a fold changes both, and makes the epoch odd while it does
+            epoch = account.getEpoch();
+            balance = account.getFoldedBalanceMinor();
+        } while ((epoch & 1) != 0 || epoch != account.getEpoch());
+        writeByte(epoch == 0 ? ACCOUNT : ACCOUNT_EPOCH);
+        writeInt(account.getId());
+        writeString(account.getUserName());
+        writeLong(balance);
+        writeString(account.getCurrency().getCurrencyCode());
+        if (epoch != 0) {
+            writeLong(epoch);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a credit pending on a hot account in the given epoch.
+     */
+    public JournalRecord credit(int id, long amount, long epoch) {
+        writeByte(CREDIT);
+        writeInt(id);
+        writeLong(amount);
+        writeLong(epoch);
+        return this;
+    }
+
+    public JournalRecord accountRemoved(int id) {
+        writeByte(ACCOUNT_REMOVED);
+        writeInt(id);
+        return this;
+    }
+
+    /**
+     * Adds the transfer, followed by the fee it was charged if there was one and by its legs while it is
+     * executed in legs.
+     */
+    public JournalRecord transfer(Transfer transfer) {
+        if (transfer.getCurrency() == null) {
+            // never executed, so without fee or legs
+            writeByte(TRANSFER_UNSCALED);
+            writeInt(transfer.getId());
+            writeInt(transfer.getFromAccountId());
+            writeInt(transfer.getToAccountId());
+            writeDecimal(transfer.getAmount());
+            writeLong(Double.doubleToRawLongBits(transfer.getDiscount()));
+            writeLong(Double.doubleToRawLongBits(transfer.getFeeRate()));
+            writeByte((byte) transfer.getStatus().ordinal());
+            writeString(transfer.getComment());
+            return this;
+        }
+        long fee = transfer.getFeeMinor();
+        TransferLegs legs = transfer.getLegs();
+        writeByte(legs != null ? TRANSFER_LEGS : fee == 0 ? TRANSFER : TRANSFER_FEE);
+        writeInt(transfer.getId());
+        writeInt(transfer.getFromAccountId());
+        writeInt(transfer.getToAccountId());
+        writeLong(transfer.getAmountMinor());
+        writeString(transfer.getCurrency().getCurrencyCode());
+        writeLong(Double.doubleToRawLongBits(transfer.getDiscount()));
+        writeLong(Double.doubleToRawLongBits(transfer.getFeeRate()));
+        writeByte((byte) transfer.getStatus().ordinal());
+        writeString(transfer.getComment());
+        if (fee != 0 || legs != null) {
+            writeLong(fee);
+        }
+        if (legs != null) {
+            writeLong(legs.getDebit());
+            writeLong(legs.getFeeDebit());
+            writeString(legs.getFromCurrency().getCurrencyCode());
+            writeLong(legs.getCredit());
+            writeString(legs.getToCurrency().getCurrencyCode());
+            writeInt(legs.getFeeAccountId());
+            writeLong(legs.getFeeCredit());
+            writeString(legs.getFeeCurrency() == null ? null : legs.getFeeCurrency().getCurrencyCode());
+            writeLong(legs.getFee());
+            writeByte((byte) ((legs.isCredited(false) ? 1 : 0) | (legs.isCredited(true) ? 2 : 0)));
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the encoded entries
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Decodes all entries between the position and the limit of the buffer and hands them to the handler.
+     */
+    public static void decode(ByteBuffer buffer, JournalHandler handler) {
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            switch (type) {
+                case ACCOUNT:
+                case ACCOUNT_EPOCH: {
+                    int id = buffer.getInt();
+                    String userName = readString(buffer);
+                    long balance = buffer.getLong();
+                    Currency currency = readCurrency(buffer);
+                    Account account = new Account(id, userName, balance, currency);
+                    if (type == ACCOUNT_EPOCH) {
+                        account.setEpoch(buffer.getLong());
+                    }
+                    handler.account(account);
+                    break;
+                }
+                case ACCOUNT_UNSCALED: {
+                    Account account = new Account(buffer.getInt(), readString(buffer), 0, null);
+                    account.setBalance(readDecimal(buffer));
+                    handler.account(account);
+                    break;
+                }
+                case TRANSFER_UNSCALED: {
+                    int id = buffer.getInt();
+                    int from = buffer.getInt();
+                    int to = buffer.getInt();
+                    BigDecimal amount = readDecimal(buffer);
+                    double discount = Double.longBitsToDouble(buffer.getLong());
+                    double feeRate = Double.longBitsToDouble(buffer.getLong());
+                    TransferStatus status = STATUSES[buffer.get()];
+                    Transfer transfer = new Transfer(id, from, to, 0, null, readString(buffer), status);
+                    transfer.setAmount(amount);
+                    transfer.setDiscount(discount);
+                    transfer.setFeeRate(feeRate);
+                    handler.transfer(transfer);
+                    break;
+                }
+                case CREDIT:
+                    handler.credited(buffer.getInt(), buffer.getLong(), buffer.getLong());
+                    break;
+                case ACCOUNT_REMOVED:
+                    handler.accountRemoved(buffer.getInt());
+                    break;
+                case TRANSFER:
+                case TRANSFER_FEE:
+                case TRANSFER_LEGS: {
+                    int id = buffer.getInt();
+                    int from = buffer.getInt();
+                    int to = buffer.getInt();
+                    long amount = buffer.getLong();
+                    Currency currency = readCurrency(buffer);
+                    double discount = Double.longBitsToDouble(buffer.getLong());
+                    double feeRate = Double.longBitsToDouble(buffer.getLong());
+                    TransferStatus status = STATUSES[buffer.get()];
+                    String comment = readString(buffer);
+                    Transfer transfer = new Transfer(id, from, to, amount, currency, comment, status);
+                    transfer.setDiscount(discount);
+                    transfer.setFeeRate(feeRate);
+                    if (type != TRANSFER) {
+                        transfer.setFeeMinor(buffer.getLong());
+                    }
+                    if (type == TRANSFER_LEGS) {
+                        transfer.setLegs(readLegs(buffer));
+                    }
+                    handler.transfer(transfer);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown journal entry type " + type);
+            }
+        }
+    }
+
+    private static TransferLegs readLegs(ByteBuffer buffer) {
+        long debit = buffer.getLong();
+        long feeDebit = buffer.getLong();
+        Currency fromCurrency = readCurrency(buffer);
+        long credit = buffer.getLong();
+        Currency toCurrency = readCurrency(buffer);
+        int feeAccountId = buffer.getInt();
+        long feeCredit = buffer.getLong();
+        Currency feeCurrency = readCurrency(buffer);
+        long fee = buffer.getLong();
+        byte credited = buffer.get();
+        TransferLegs legs = new TransferLegs(debit, feeDebit, fromCurrency, credit, toCurrency, feeAccountId, feeCredit,
+                feeCurrency, fee);
+        if ((credited & 1) != 0) {
+            legs.setCredited(false);
+        }
+        if ((credited & 2) != 0) {
+            legs.setCredited(true);
+        }
+        return legs;
+    }
+
+    private static Currency readCurrency(ByteBuffer buffer) {
+        String code = readString(buffer);
+        return code == null ? null : Currency.getInstance(code);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer buffer) {
+        String decimal = readString(buffer);
+        return decimal == null ? null : new BigDecimal(decimal);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private void writeByte(byte value) {
+        ensure(1);
+        bytes[size++] = value;
+    }
+
+    private void writeInt(int value) {
+        ensure(4);
+        bytes[size++] = (byte) (value >>> 24);
+        bytes[size++] = (byte) (value >>> 16);
+        bytes[size++] = (byte) (value >>> 8);
+        bytes[size++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeDecimal(BigDecimal value) {
+        writeString(value == null ? null : value.toString());
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import java.util.function.Consumer;
+
+import com.revolut.japp.moneytransfer.ledger.LedgerListener;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+/**
+ * Appends every ledger change to the journal, or whatever else takes its records. Since the ledger calls it
+ * while still holding the account locks, the records of one account are queued in the order the changes
+ * were made.
+ */
+public class JournalingListener implements LedgerListener {
+
+    private final Consumer<JournalRecord> journal;
+
+    public JournalingListener(Journal journal) {
+        this(journal::append);
+    }
+
+    public JournalingListener(Consumer<JournalRecord> journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void accountChanged(Account account) {
+        journal.accept(new JournalRecord().account(account));
+    }
+
+    @Override
+    public void accountRemoved(int id) {
+        journal.accept(new JournalRecord().accountRemoved(id));
+    }
+
+    @Override
+    public void transferred(Transfer transfer, Account from, Account to, Account feeAccount, long fee) {
+        JournalRecord record = new JournalRecord();
+        if (from != null) {
+            record.account(from);
+        }
+        if (to != null) {
+            record.account(to);
+        }
+        if (feeAccount != null) {
+            record.credit(feeAccount.getId(), fee, feeAccount.getEpoch());
+        }
+        if (transfer != null) {
+            record.transfer(transfer);
+        }
+        journal.accept(record);
+    }
+
+    @Override
+    public void transferredToHot(Transfer transfer, Account from, Account to, long amount, Account feeAccount, long fee) {
+        JournalRecord record = new JournalRecord()
+                .account(from)
+                .credit(to.getId(), amount, to.getEpoch());
+        if (feeAccount != null) {
+            record.credit(feeAccount.getId(), fee, feeAccount.getEpoch());
+        }
+        if (transfer != null) {
+            record.transfer(transfer);
+        }
+        journal.accept(record);
+    }
+
+    @Override
+    public void legMoved(Transfer transfer, Account account) {
+        journal.accept(new JournalRecord().account(account).transfer(transfer));
+    }
+
+}
@@ -0,0 +1,902 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.fees.FeeSchedule;
+import com.revolut.japp.moneytransfer.fx.RateTable;
+import com.revolut.japp.moneytransfer.index.Pages;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.CreditStripes;
+import com.revolut.japp.moneytransfer.model.Money;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * Holds every account and performs all balance changes atomically.
+ * <p>
+ * Accounts live in an {@link AccountStore} whose lookups and reads never block. Writers lock one of a fixed set of
+ * lock stripes chosen by account id; a transfer locks the stripes of both accounts in ascending stripe
+ * order, so two transfers can never deadlock and transfers between unrelated accounts never contend.
+ * Amounts are minor units of the currency (see {@link Money}); a change that would overflow a balance is
+ * rejected before anything is modified.
+ * <p>
+ * By default the accounts are objects on the heap, see {@link HeapAccountStore}. An {@link OffHeapAccountStore}
+ * keeps them in direct memory instead, so {@link #get(int)} may return a copy of an account that is only
+ * valid until the account changes; the ledger writes every change it makes back to the store.
+ * <p>
+ * Credits to a hot account, e.g. a merchant account most transfers go to, would all serialize on its lock.
+ * Instead they are added to its {@link CreditStripes} under the lock of the debited account only, and
+ * {@link #foldHotAccounts()}, called periodically, folds them into the balance. Balance reads and debits
+ * see the folded balance plus the pending credits. Accounts are flagged hot with {@link #setHot(int, boolean)}
+ * or become hot when credits to them keep finding their lock taken, and cool down again once no credits
+ * arrive for a while.
+ * <p>
+ * A transfer's amount is in the transfer's currency. Each side is converted into its account's currency using
+ * the current {@link RateTable}. Without a rate between two currencies, a transfer between them fails.
+ * Executed transfers are charged the fees of the current {@link FeeSchedule}; its fee account is kept hot,
+ * so collecting fees from every transfer does not serialize them on its lock.
+ * <p>
+ * While a {@link LedgerSnapshot} is open, every change first preserves what it changes in the snapshot.
+ * <p>
+ * In the bank config, the accounts listed in {@code ledger.hotAccounts} are hot from the start, and their
+ * pending credits are folded every 50 ms; {@code "ledger": {"store": "offHeap"}} keeps the accounts in an
+ * {@link OffHeapAccountStore}, for tens of millions of accounts.
+ */
+public class AccountLedger {
+
+    private static final Logger log = Logger.getLogger(AccountLedger.class);
+
+    private static final int STRIPES = 1024;
+    /**
+     * Contended credits between two folds that make an account hot.
+     */
+    private static final int HOT_THRESHOLD = 64;
+    /**
+     * Folds without any credits after which an account is no longer hot.
+     */
+    private static final int COOL_FOLDS = 200;
+
+    private final AccountStore store;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private volatile LedgerListener listener = LedgerListener.NONE;
+    private volatile RateTable rates = RateTable.EMPTY;
+    private volatile FeeSchedule fees = FeeSchedule.NONE;
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder contendedNanos = new LongAdder();
+    private final Map<Integer, Account> hot = new ConcurrentHashMap<>();
+    private final Set<Integer> pinned = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, LongAdder> contention = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> idleFolds = new ConcurrentHashMap<>();
+    private final Object snapshotting = new Object();
+    private volatile LedgerSnapshot snapshot;
+
+    public AccountLedger() {
+        this(new HeapAccountStore());
+    }
+
+    public AccountLedger(AccountStore store) {
+        this.store = store;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param listener the listener to tell about every change from now on
+     */
+    public void setListener(LedgerListener listener) {
+        this.listener = listener == null ? LedgerListener.NONE : listener;
+    }
+
+    /**
+     * @param rates the exchange rates to convert transfers with from now on
+     */
+    public void setRates(RateTable rates) {
+        this.rates = rates == null ? RateTable.EMPTY : rates;
+    }
+
+    /**
+     * @return the exchange rates transfers are converted with
+     */
+    public RateTable getRates() {
+        return rates;
+    }
+
+    /**
+     * @param fees the fees to charge on executed transfers from now on
+     */
+    public void setFees(FeeSchedule fees) {
+        FeeSchedule schedule = fees == null ? FeeSchedule.NONE : fees;
+        int previous = this.fees.getAccountId();
+        if (schedule.getAccountId() >= 0) {
+            setHot(schedule.getAccountId(), true);
+        }
+        this.fees = schedule;
+        if (previous >= 0 && previous != schedule.getAccountId()) {
+            setHot(previous, false);
+        }
+    }
+
+    /**
+     * @return the fees charged on executed transfers
+     */
+    public FeeSchedule getFees() {
+        return fees;
+    }
+
+    /**
+     * @return the account, or null if there is none with this id
+     */
+    public Account get(int id) {
+        return store.get(id);
+    }
+
+    /**
+     * @return the number of accounts
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return a live view of all accounts, in ascending order of id
+     */
+    public Collection<Account> getAll() {
+        return store.values();
+    }
+
+    /**
+     * @return the first {@code limit} accounts with an id greater than {@code after} and, unless null, the
+     *         given currency
+     */
+    public List<Account> page(int after, int limit, Currency currency) {
+        return Pages.collect(store.idsAfter(after, currency), store::get, account -> currency == null || currency.equals(account.getCurrency()), limit);
+    }
+
+    /**
+     * Adds the account, replacing any account with the same id.
+     */
+    public void add(Account account) {
+        put(account, false);
+    }
+
+    /**
+     * Adds an account replayed from the journal like {@link #add(Account)}, keeping the credits pending on the
+     * account it replaces if both are in the same epoch.
+     */
+    public void restore(Account account) {
+        put(account, true);
+    }
+
+    /**
+     * Adds a credit replayed from the journal to the credits pending on the account, unless the account has
+     * moved on to a later epoch since.
+     */
+    public void restoreCredit(int id, long amount, long epoch) {
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            if (account == null || account.getEpoch() != epoch) {
+                return;
+            }
+            preserve(account);
+            if (account.getCredits() == null) {
+                account.setCredits(new CreditStripes());
+                hot.put(id, account);
+                store.balanceChanged(account);
+            }
+            CreditStripes credits = account.getCredits();
+            int cell = credits.enter();
+            credits.add(cell, amount);
+            credits.exit(cell);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Account account, boolean keepPending) {
+        ReentrantLock lock = lockFor(account.getId());
+        acquire(lock);
+        try {
+            Account replaced = store.get(account.getId());
+            preserve(account.getId(), replaced);
+            if (keepPending && replaced != null && replaced.getCredits() != null && replaced.getEpoch() == account.getEpoch()) {
+                account.setCredits(replaced.getCredits());
+            } else if (pinned.contains(account.getId()) && account.getCredits() == null) {
+                account.setCredits(new CreditStripes());
+            }
+            store.put(account);
+            if (account.getCredits() != null) {
+                hot.put(account.getId(), account);
+            } else {
+                hot.remove(account.getId());
+            }
+            listener.accountChanged(account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the removed account, or null if there was none with this id
+     */
+    public Account remove(int id) {
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            preserve(id, store.get(id));
+            Account removed = store.remove(id);
+            if (removed != null) {
+                hot.remove(id);
+                listener.accountRemoved(id);
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the update against the account while no balance change can interleave with it. The credits pending
+     * on a hot account are folded first, so the update sees the whole balance.
+     *
+     * @return the result of the update, or null if there is no account with this id
+     */
+    public <T> T update(int id, Function<Account, T> update) {
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            if (account == null) {
+                return null;
+            }
+            preserve(account);
+            Currency currency = account.getCurrency();
+            AtomicReference<T> result = new AtomicReference<>();
+            account.fold(false, () -> {
+                result.set(update.apply(account));
+                store.changed(account, currency);
+                listener.accountChanged(account);
+            });
+            return result.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws the amount if the account exists, holds the currency and has sufficient funds.
+     *
+     * @return true if the account was debited
+     */
+    public boolean debit(int id, long amount, Currency currency) {
+        if (amount <= 0) {
+            return false;
+        }
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            if (account == null || !holds(account, currency) || account.getBalanceMinor() < amount) {
+                return false;
+            }
+            preserve(account);
+            account.withdraw(amount);
+            store.balanceChanged(account);
+            listener.accountChanged(account);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deposits the amount if the account exists and holds the currency.
+     *
+     * @return true if the account was credited
+     */
+    public boolean credit(int id, long amount, Currency currency) {
+        if (amount <= 0) {
+            return false;
+        }
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            if (account == null || !holds(account, currency) || !canAdd(account.getBalanceMinor(), amount)) {
+                return false;
+            }
+            preserve(account);
+            account.deposit(amount);
+            store.balanceChanged(account);
+            listener.accountChanged(account);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Debits the sender of a transfer executed in legs, e.g. across account shards, and attaches the legs to
+     * the transfer in the same journaled change, so that the credits it owes survive a crash. Every leg must
+     * then be {@link #creditLeg credited} or refused before the outcome is {@link #settleLegs settled}.
+     *
+     * @return true if the sender was debited
+     */
+    public boolean debitLeg(Transfer transfer, TransferLegs legs) {
+        if (legs.getDebit() <= 0) {
+            return false;
+        }
+        synchronized (transfer) {
+            if (transfer.getStatus() != TransferStatus.PENDING || transfer.getLegs() != null) {
+                return false;
+            }
+            ReentrantLock lock = lockFor(transfer.getFromAccountId());
+            acquire(lock);
+            try {
+                Account account = store.get(transfer.getFromAccountId());
+                if (account == null || !holds(account, legs.getFromCurrency()) || account.getBalanceMinor() < legs.getDebit()) {
+                    return false;
+                }
+                preserve(account);
+                account.withdraw(legs.getDebit());
+                store.balanceChanged(account);
+                transfer.setLegs(legs);
+                listener.legMoved(transfer, account);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Credits the receiver, or for {@code fee} the fee account, of a transfer debited by {@link #debitLeg},
+     * marking the leg in the same journaled change. A leg credited before is not credited again, so a leg
+     * whose outcome was lost can safely be sent again.
+     *
+     * @return true if the leg is credited, false if the account cannot take it or the transfer has no legs
+     */
+    public boolean creditLeg(Transfer transfer, boolean fee) {
+        TransferLegs legs = transfer.getLegs();
+        if (legs == null || fee && !legs.hasFeeLeg()) {
+            return false;
+        }
+        int id = fee ? legs.getFeeAccountId() : transfer.getToAccountId();
+        long amount = fee ? legs.getFeeCredit() : legs.getCredit();
+        Currency currency = fee ? legs.getFeeCurrency() : legs.getToCurrency();
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            if (legs.isCredited(fee)) {
+                return true;
+            }
+            Account account = store.get(id);
+            if (account == null || !holds(account, currency) || amount <= 0 || !canAdd(account.getBalanceMinor(), amount)) {
+                return false;
+            }
+            preserve(account);
+            account.deposit(amount);
+            store.balanceChanged(account);
+            legs.setCredited(fee);
+            listener.legMoved(transfer, account);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the outcome of a transfer whose legs were each credited or refused: it succeeded if the receiver
+     * was credited, and was charged its fee unless the fee leg was refused. Whatever was not credited is
+     * refunded to the sender in the same journaled change.
+     *
+     * @return the resulting status of the transfer
+     */
+    public TransferStatus settleLegs(Transfer transfer) {
+        synchronized (transfer) {
+            TransferLegs legs = transfer.getLegs();
+            if (legs == null) {
+                return transfer.getStatus();
+            }
+            boolean credited = legs.isCredited(false);
+            boolean feeRefused = legs.hasFeeLeg() && !legs.isCredited(true);
+            long refund = !credited ? legs.getDebit() : feeRefused ? legs.getFeeDebit() : 0;
+            ReentrantLock lock = lockFor(transfer.getFromAccountId());
+            acquire(lock);
+            try {
+                Account from = refund > 0 ? store.get(transfer.getFromAccountId()) : null;
+                if (from != null && holds(from, legs.getFromCurrency()) && canAdd(from.getBalanceMinor(), refund)) {
+                    preserve(from);
+                    from.deposit(refund);
+                    store.balanceChanged(from);
+                } else if (refund > 0) {
+                    from = null;
+                    log.error("[ledger]: cannot refund " + refund + " to account " + transfer.getFromAccountId() +
+                            " for transfer " + transfer.getId() + ", it is gone or changed its currency");
+                }
+                preserve(transfer);
+                transfer.setFeeMinor(credited && !feeRefused ? legs.getFee() : 0);
+                transfer.setStatus(credited ? TransferStatus.SUCCEED : TransferStatus.FAILED);
+                transfer.setLegs(null);
+                listener.transferred(transfer, from, null, null, 0);
+                return transfer.getStatus();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves the amount between the two accounts as one step: either both balances change or neither does.
+     * The amount is in the given currency and converted into the currency of each account. No fee is charged.
+     *
+     * @return true if the money was moved
+     */
+    public boolean transfer(int fromId, int toId, long amount, Currency currency) {
+        return move(fromId, toId, amount, currency, null, 0, -1);
+    }
+
+    /**
+     * Executes a pending transfer and records its outcome, charging the sender the fee of the current
+     * {@link FeeSchedule} on top of the amount. A transfer that already succeeded or failed is left
+     * untouched, so executing it again never moves money twice.
+     *
+     * @return the resulting status of the transfer
+     */
+    public TransferStatus execute(Transfer transfer) {
+        synchronized (transfer) {
+            if (transfer.getStatus() == TransferStatus.PENDING) {
+                FeeSchedule schedule = fees;
+                long fee;
+                try {
+                    fee = schedule.fee(transfer);
+                } catch (ArithmeticException e) {
+                    fee = -1;
+                }
+                boolean moved = transfer.getCurrency() != null && fee >= 0 &&
+                        move(transfer.getFromAccountId(), transfer.getToAccountId(), transfer.getAmountMinor(), transfer.getCurrency(),
+                                transfer, fee, schedule.getAccountId());
+                if (!moved) {
+                    preserve(transfer);
+                    transfer.setStatus(TransferStatus.FAILED);
+                    listener.transferred(transfer, null, null, null, 0);
+                }
+            }
+            return transfer.getStatus();
+        }
+    }
+
+    /**
+     * Executes the transfers one after the other in a single pass, so a transfer may spend money credited by
+     * an earlier one of the same batch.
+     *
+     * @return the resulting status of each transfer, in the same order
+     */
+    public List<TransferStatus> executeAll(List<Transfer> transfers) {
+        List<TransferStatus> statuses = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            statuses.add(execute(transfer));
+        }
+        return statuses;
+    }
+
+    /**
+     * Moves the money under the locks of both accounts, charging the fee to the sender and crediting it to
+     * the fee account, if any, and, if a transfer is given, marks it succeeded before the locks are released.
+     */
+    private boolean move(int fromId, int toId, long amount, Currency currency, Transfer transfer, long fee, int feeAccountId) {
+        if (fromId == toId || amount <= 0) {
+            return false;
+        }
+        Account hotTo = store.get(toId);
+        if (hotTo != null && hotTo.getCredits() != null) {
+            Boolean moved = moveToHot(fromId, hotTo, amount, currency, transfer, fee, feeAccountId);
+            if (moved != null) {
+                return moved;
+            }
+        }
+        ReentrantLock first = locks[Math.min(stripe(fromId), stripe(toId))];
+        ReentrantLock second = locks[Math.max(stripe(fromId), stripe(toId))];
+        boolean contended = acquire(first) | acquire(second);
+        try {
+            Account from = store.get(fromId);
+            Account to = store.get(toId);
+            if (from == null || to == null) {
+                return false;
+            }
+            RateTable table = rates;
+            long debit = debit(table, amount, fee, currency, from.getCurrency());
+            long credit = table.convert(amount, currency, to.getCurrency());
+            if (debit <= 0 || credit <= 0 || from.getBalanceMinor() < debit || !canAdd(to.getBalanceMinor(), credit)) {
+                return false;
+            }
+            FeeCharge charge = chargeFee(table, fee, currency, feeAccountId);
+            if (charge == null) {
+                return false;
+            }
+            try {
+                preserve(from);
+                preserve(to);
+                preserve(transfer);
+                from.withdraw(debit);
+                to.deposit(credit);
+                store.balanceChanged(from);
+                store.balanceChanged(to);
+                charge.book();
+                if (transfer != null) {
+                    transfer.setFeeMinor(fee);
+                    transfer.setStatus(TransferStatus.SUCCEED);
+                }
+                listener.transferred(transfer, from, to, charge.account, charge.amount);
+            } finally {
+                charge.exit();
+            }
+            if (contended) {
+                contention.computeIfAbsent(toId, id -> new LongAdder()).increment();
+            }
+            return true;
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    /**
+     * Moves the money into a hot account under the lock of the debited account only, adding it to the
+     * credits pending on the credited one.
+     *
+     * @return whether the money was moved, or null if the account is no longer hot
+     */
+    private Boolean moveToHot(int fromId, Account to, long amount, Currency currency, Transfer transfer, long fee, int feeAccountId) {
+        CreditStripes credits = to.getCredits();
+        if (credits == null) {
+            return null;
+        }
+        ReentrantLock lock = lockFor(fromId);
+        acquire(lock);
+        try {
+            int cell = credits.enter();
+            try {
+                if (to.getCredits() != credits || store.get(to.getId()) != to) {
+                    return null;
+                }
+                Account from = store.get(fromId);
+                if (from == null) {
+                    return false;
+                }
+                RateTable table = rates;
+                long debit = debit(table, amount, fee, currency, from.getCurrency());
+                long credit = table.convert(amount, currency, to.getCurrency());
+                if (debit <= 0 || credit <= 0 || from.getBalanceMinor() < debit || !canAdd(to.getBalanceMinor(), credit)) {
+                    return false;
+                }
+                FeeCharge charge = chargeFee(table, fee, currency, feeAccountId);
+                if (charge == null) {
+                    return false;
+                }
+                try {
+                    // the hot account was preserved when the snapshot was taken or when it became hot
+                    preserve(from);
+                    preserve(transfer);
+                    from.withdraw(debit);
+                    store.balanceChanged(from);
+                    // the credit must be pending before it is journaled, see foldHotAccounts
+                    credits.add(cell, credit);
+                    charge.book();
+                    if (transfer != null) {
+                        transfer.setFeeMinor(fee);
+                        transfer.setStatus(TransferStatus.SUCCEED);
+                    }
+                    listener.transferredToHot(transfer, from, to, credit, charge.account, charge.amount);
+                    return true;
+                } finally {
+                    charge.exit();
+                }
+            } finally {
+                credits.exit(cell);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return what the sender pays for the amount and the fee in its currency, or -1 if that cannot be converted
+     */
+    private static long debit(RateTable table, long amount, long fee, Currency currency, Currency fromCurrency) {
+        long debit = table.convert(amount, currency, fromCurrency);
+        long feeDebit = fee == 0 ? 0 : table.convert(fee, currency, fromCurrency);
+        return debit < 0 || feeDebit < 0 || debit > Long.MAX_VALUE - feeDebit ? -1 : debit + feeDebit;
+    }
+
+    /**
+     * Enters the credits of the hot fee account for a fee in the given currency, so that the account cannot
+     * be folded until the charge is booked, journaled and {@link FeeCharge#exit() exited}. Must be called
+     * with the locks of the transfer held: a fold waits for the charge while holding the lock of the fee
+     * account, which may be one of them.
+     *
+     * @return the charge, or null if the fee account is gone or cannot take the fee
+     */
+    private FeeCharge chargeFee(RateTable table, long fee, Currency currency, int feeAccountId) {
+        if (fee == 0 || feeAccountId < 0) {
+            return FeeCharge.NONE;
+        }
+        Account account = store.get(feeAccountId);
+        CreditStripes credits = account == null ? null : account.getCredits();
+        if (credits == null) {
+            return null;
+        }
+        int cell = credits.enter();
+        long amount = table.convert(fee, currency, account.getCurrency());
+        if (account.getCredits() != credits || store.get(feeAccountId) != account || amount < 0 || !canAdd(account.getBalanceMinor(), amount)) {
+            credits.exit(cell);
+            return null;
+        }
+        return new FeeCharge(account, credits, cell, amount);
+    }
+
+    /**
+     * Flags the account as hot until it is unflagged, after which it cools down like any account that
+     * became hot by itself.
+     */
+    public void setHot(int id, boolean flag) {
+        if (!flag) {
+            pinned.remove(id);
+            return;
+        }
+        pinned.add(id);
+        makeHot(id);
+    }
+
+    /**
+     * @return the number of hot accounts
+     */
+    public int getHotAccounts() {
+        return hot.size();
+    }
+
+    /**
+     * Folds the credits pending on every hot account into its balance, makes accounts whose credits were
+     * often contended since the last call hot and lets hot accounts that got no credits for a while cool
+     * down. Called periodically, and by a snapshot once the journal moved to a new segment: a credit is
+     * pending before it is journaled, so afterwards none of those journaled in the old segment is left.
+     */
+    public void foldHotAccounts() {
+        for (Map.Entry<Integer, LongAdder> entry : contention.entrySet()) {
+            if (entry.getValue().sum() >= HOT_THRESHOLD) {
+                makeHot(entry.getKey());
+            }
+        }
+        contention.clear();
+        for (Integer id : hot.keySet()) {
+            fold(id);
+        }
+    }
+
+    private void makeHot(int id) {
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            if (account != null && account.getCredits() == null) {
+                preserve(account);
+                account.setCredits(new CreditStripes());
+                hot.put(id, account);
+                store.balanceChanged(account);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fold(int id) {
+        ReentrantLock lock = lockFor(id);
+        acquire(lock);
+        try {
+            Account account = store.get(id);
+            CreditStripes credits = account == null ? null : account.getCredits();
+            if (credits == null) {
+                hot.remove(id);
+                idleFolds.remove(id);
+                return;
+            }
+            boolean idle = credits.sum() == 0;
+            boolean cool = idle && !pinned.contains(id) && idleFolds.merge(id, 1, Integer::sum) >= COOL_FOLDS;
+            if (!idle) {
+                idleFolds.remove(id);
+            } else if (!cool) {
+                return;
+            }
+            account.fold(cool, () -> listener.accountChanged(account));
+            store.balanceChanged(account);
+            if (cool) {
+                hot.remove(id);
+                idleFolds.remove(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the accounts and transfers and runs the report against it, one report at a time.
+     * Balance changes wait only while every lock stripe is held to copy the hot accounts, whose pending
+     * credits are added without their own lock.
+     *
+     * @return the result of the report
+     */
+    public <T> T snapshot(Function<LedgerSnapshot, T> report) {
+        synchronized (snapshotting) {
+            LedgerSnapshot taken;
+            for (ReentrantLock lock : locks) {
+                lock.lock();
+            }
+            try {
+                taken = new LedgerSnapshot(this, Transfer.getIssuedIds());
+                for (Account account : hot.values()) {
+                    taken.preserve(account);
+                }
+                snapshot = taken;
+            } finally {
+                for (int i = STRIPES - 1; i >= 0; i--) {
+                    locks[i].unlock();
+                }
+            }
+            try {
+                return report.apply(taken);
+            } finally {
+                snapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Preserves the balance of every account the snapshot has not preserved yet, in parallel.
+     */
+    void freeze(LedgerSnapshot taken) {
+        store.values().parallelStream().forEach(account -> {
+            ReentrantLock lock = lockFor(account.getId());
+            acquire(lock);
+            try {
+                Account current = store.get(account.getId());
+                if (current != null) {
+                    taken.preserve(current);
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private void preserve(Account account) {
+        LedgerSnapshot open = snapshot;
+        if (open != null) {
+            open.preserve(account);
+        }
+    }
+
+    private void preserve(int id, Account current) {
+        LedgerSnapshot open = snapshot;
+        if (open != null) {
+            if (current == null) {
+                open.preserveAdded(id);
+            } else {
+                open.preserve(current);
+            }
+        }
+    }
+
+    private void preserve(Transfer transfer) {
+        LedgerSnapshot open = snapshot;
+        if (open != null && transfer != null) {
+            open.preserve(transfer);
+        }
+    }
+
+    /**
+     * Locks the stripe, counting the acquisitions that had to wait for another thread and how long they waited.
+     *
+     * @return true if the lock was held by another thread
+     */
+    private boolean acquire(ReentrantLock lock) {
+        acquisitions.increment();
+        if (lock.tryLock()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        contended.increment();
+        contendedNanos.add(System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * @return the number of stripe locks taken
+     */
+    public long getLockAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * @return the number of stripe locks that were held by another thread when taken
+     */
+    public long getContendedAcquisitions() {
+        return contended.sum();
+    }
+
+    /**
+     * @return the total time spent waiting for contended stripe locks
+     */
+    public long getContendedNanos() {
+        return contendedNanos.sum();
+    }
+
+    /**
+     * @return whether the account is in the currency; an account without a currency holds none
+     */
+    private static boolean holds(Account account, Currency currency) {
+        return currency != null && currency.equals(account.getCurrency());
+    }
+
+    private static boolean canAdd(long balance, long amount) {
+        return balance <= Long.MAX_VALUE - amount;
+    }
+
+    private static int stripe(int id) {
+        return id & (STRIPES - 1);
+    }
+
+    private ReentrantLock lockFor(int id) {
+        return locks[stripe(id)];
+    }
+
+    /**
+     * A fee entered into the credits of the fee account by {@link #chargeFee}.
+     */
+    private static final class FeeCharge {
+
+        static final FeeCharge NONE = new FeeCharge(null, null, 0, 0);
+
+        final Account account;
+        final long amount;
+        private final CreditStripes credits;
+        private final int cell;
+
+        FeeCharge(Account account, CreditStripes credits, int cell, long amount) {
+            this.account = account;
+            this.credits = credits;
+            this.cell = cell;
+            this.amount = amount;
+        }
+
+        void book() {
+            if (credits != null) {
+                credits.add(cell, amount);
+            }
+        }
+
+        void exit() {
+            if (credits != null) {
+                credits.exit(cell);
+            }
+        }
+
+    }
+
+}
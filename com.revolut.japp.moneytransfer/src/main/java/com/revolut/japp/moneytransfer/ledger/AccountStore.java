@@ -0,0 +1,59 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Iterator;
+
+import com.revolut.japp.moneytransfer.model.Account;
+
+/**
+ * Where an {@link AccountLedger} keeps its accounts. The ledger only writes an account while holding its
+ * lock and tells the store about every change it makes to an account it got from {@link #get(int)}; reads
+ * may happen at any time.
+ */
+public interface AccountStore {
+
+    /**
+     * @return the account, or null if there is none with this id
+     */
+    Account get(int id);
+
+    /**
+     * Adds the account, replacing any account with the same id.
+     */
+    void put(Account account);
+
+    /**
+     * @return the removed account, or null if there was none with this id
+     */
+    Account remove(int id);
+
+    /**
+     * Called after the balance, the epoch or the pending credits of the account changed.
+     */
+    void balanceChanged(Account account);
+
+    /**
+     * Called after anything about the account may have changed.
+     *
+     * @param currency the currency the account had before
+     */
+    void changed(Account account, Currency currency);
+
+    /**
+     * @return the number of accounts
+     */
+    int size();
+
+    /**
+     * @return a live view of all accounts, in ascending order of id
+     */
+    Collection<Account> values();
+
+    /**
+     * @return the ids greater than {@code after} of the accounts with the given currency, or of all accounts
+     *         if it is null, in ascending order
+     */
+    Iterator<Integer> idsAfter(int after, Currency currency);
+
+}
@@ -0,0 +1,80 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.revolut.japp.moneytransfer.index.IdIndex;
+import com.revolut.japp.moneytransfer.model.Account;
+
+/**
+ * Keeps the accounts as objects on the heap: in a concurrent map for lookups, and ordered by id and indexed
+ * by currency for {@link AccountLedger#page(int, int, Currency) keyset pagination}. Changes need no writing
+ * back, as the ledger changes the stored objects themselves.
+ */
+public class HeapAccountStore implements AccountStore {
+
+    private final Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Account> ordered = new ConcurrentSkipListMap<>();
+    private final IdIndex<Currency> byCurrency = new IdIndex<>();
+
+    @Override
+    public Account get(int id) {
+        return accounts.get(id);
+    }
+
+    @Override
+    public void put(Account account) {
+        Account replaced = accounts.put(account.getId(), account);
+        ordered.put(account.getId(), account);
+        reindex(account.getId(), replaced == null ? null : replaced.getCurrency(), account.getCurrency());
+    }
+
+    @Override
+    public Account remove(int id) {
+        Account removed = accounts.remove(id);
+        if (removed != null) {
+            ordered.remove(id);
+            reindex(id, removed.getCurrency(), null);
+        }
+        return removed;
+    }
+
+    @Override
+    public void balanceChanged(Account account) {
+    }
+
+    @Override
+    public void changed(Account account, Currency currency) {
+        reindex(account.getId(), currency, account.getCurrency());
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public Collection<Account> values() {
+        return ordered.values();
+    }
+
+    @Override
+    public Iterator<Integer> idsAfter(int after, Currency currency) {
+        return currency == null ? ordered.tailMap(after, false).keySet().iterator() : byCurrency.after(currency, after);
+    }
+
+    private void reindex(int id, Currency before, Currency after) {
+        if (before != null && !before.equals(after)) {
+            byCurrency.remove(before, id);
+        }
+        if (after != null) {
+            byCurrency.add(after, id);
+        }
+    }
+
+}
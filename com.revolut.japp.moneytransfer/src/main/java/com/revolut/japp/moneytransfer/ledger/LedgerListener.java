@@ -0,0 +1,50 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+/**
+ * Told about every change the {@link AccountLedger} makes. Callbacks run while the locks of the affected
+ * accounts are still held, so for any one account they arrive in the order the changes were made; they
+ * must therefore be short and must not call back into the ledger.
+ */
+public interface LedgerListener {
+
+    LedgerListener NONE = new LedgerListener() {
+    };
+
+    default void accountChanged(Account account) {
+    }
+
+    default void accountRemoved(int id) {
+    }
+
+    /**
+     * @param transfer the executed transfer, or null for a plain ledger transfer
+     * @param from the debited account, or null if no money was moved
+     * @param to the credited account, or null if no money was moved
+     * @param feeAccount the hot account the fee of the transfer is pending on in its current epoch, or null
+     * @param fee the fee pending on {@code feeAccount}, in its currency
+     */
+    default void transferred(Transfer transfer, Account from, Account to, Account feeAccount, long fee) {
+    }
+
+    /**
+     * Called instead of {@link #transferred} when the credited account is hot: the amount is pending on it
+     * in its current epoch rather than added to its balance, and the lock of {@code to} is not held.
+     *
+     * @param transfer the executed transfer, or null for a plain ledger transfer
+     * @param feeAccount the hot account the fee of the transfer is pending on in its current epoch, or null
+     * @param fee the fee pending on {@code feeAccount}, in its currency
+     */
+    default void transferredToHot(Transfer transfer, Account from, Account to, long amount, Account feeAccount, long fee) {
+    }
+
+    /**
+     * Called when one leg of a transfer executed in legs debited or credited the account, with the transfer
+     * recording which legs are done.
+     */
+    default void legMoved(Transfer transfer, Account account) {
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+/**
+ * The balances of all accounts and the statuses of all transfers at the instant {@link AccountLedger#snapshot}
+ * took it, read while they go on changing.
+ * <p>
+ * Taking it holds every lock stripe only long enough to copy the hot accounts. From then on the ledger
+ * preserves the balance of an account and the status of a transfer here before it first changes them, so
+ * {@link #balances()} and {@link #statusOf(Transfer)} see them as they were, and the totals of a report
+ * reconcile exactly however many transfers execute meanwhile.
+ */
+public class LedgerSnapshot {
+
+    /**
+     * Marks an account added after the snapshot was taken.
+     */
+    private static final Balance ADDED = new Balance(-1, null, 0);
+
+    private final AccountLedger ledger;
+    private final long takenAt = System.currentTimeMillis();
+    private final int transferIds;
+    private final Map<Integer, Balance> accounts = new ConcurrentHashMap<>();
+    private final Map<Integer, TransferStatus> statuses = new ConcurrentHashMap<>();
+
+    LedgerSnapshot(AccountLedger ledger, int transferIds) {
+        this.ledger = ledger;
+        this.transferIds = transferIds;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Copies the balance of every account the snapshot has not preserved yet, in parallel, and streams them
+     * with those preserved before.
+     *
+     * @return the balance of every account at the time of the snapshot, as a parallel stream
+     */
+    public Stream<Balance> balances() {
+        ledger.freeze(this);
+        return accounts.values().parallelStream().filter(balance -> balance != ADDED);
+    }
+
+    /**
+     * @return the status the transfer had at the time of the snapshot, or null if it was created after
+     */
+    public TransferStatus statusOf(Transfer transfer) {
+        if (transfer.getId() >= transferIds) {
+            return null;
+        }
+        synchronized (transfer) {
+            TransferStatus status = statuses.get(transfer.getId());
+            return status == null ? transfer.getStatus() : status;
+        }
+    }
+
+    /**
+     * Keeps the balance of the account unless it is already kept. Must be called holding the lock of the
+     * account, before changing it.
+     */
+    void preserve(Account account) {
+        accounts.putIfAbsent(account.getId(), new Balance(account.getId(), account.getCurrency(), account.getBalanceMinor()));
+    }
+
+    /**
+     * Notes that the account did not exist yet. Must be called holding the lock of the account, before
+     * adding it.
+     */
+    void preserveAdded(int id) {
+        accounts.putIfAbsent(id, ADDED);
+    }
+
+    /**
+     * Keeps the status of the transfer unless it is already kept. Must be called holding the monitor of the
+     * transfer, before changing its status.
+     */
+    void preserve(Transfer transfer) {
+        statuses.putIfAbsent(transfer.getId(), transfer.getStatus());
+    }
+
+    /**
+     * The balance of one account at the time of the snapshot.
+     */
+    public static final class Balance {
+
+        private final int id;
+        private final Currency currency;
+        private final long balanceMinor;
+
+        Balance(int id, Currency currency, long balanceMinor) {
+            this.id = id;
+            this.currency = currency;
+            this.balanceMinor = balanceMinor;
+        }
+
+        /**
+         * @return the id of the account
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the currency of the account
+         */
+        public Currency getCurrency() {
+            return currency;
+        }
+
+        /**
+         * @return the balance in minor units of the currency, including pending credits
+         */
+        public long getBalanceMinor() {
+            return balanceMinor;
+        }
+
+    }
+
+}
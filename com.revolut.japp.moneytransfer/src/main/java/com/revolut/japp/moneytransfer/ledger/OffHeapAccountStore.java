@@ -0,0 +1,325 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import com.revolut.japp.moneytransfer.model.Account;
+
+/**
+ * Keeps the accounts outside the heap, for very large numbers of accounts. Each account is a fixed-width
+ * slot of direct memory at the position of its id, holding its balance, epoch and currency and where its
+ * name is in a separate arena of UTF-8 bytes. An {@link Account} is only created when one is asked for,
+ * e.g. to answer a request or for the duration of a transfer, so tens of millions of accounts take a
+ * gigabyte or so of direct memory and next to no heap for the garbage collector to trace.
+ * <p>
+ * Hot accounts are the exception: the credits pending on them live on the account object, which therefore
+ * stays resident, and is returned as is, while the account is hot.
+ * <p>
+ * Slots are allocated in blocks of consecutive ids, so ids are expected to be dense, as the ids handed out
+ * by {@link Account} are. The name arena only grows: renaming an account leaves its old name behind. A
+ * read without the lock of the account sees every field as it was written, but not necessarily all fields
+ * as of the same change.
+ */
+public class OffHeapAccountStore implements AccountStore {
+
+    private static final int SLOT = 32;
+    private static final int BALANCE = 0;
+    private static final int EPOCH = 8;
+    /**
+     * Where the name starts in the arena, shifted left by 16 bits, plus its length in bytes; -1 for none.
+     */
+    private static final int NAME = 16;
+    /**
+     * One more than the index of the currency in {@link #currencies}, 0 for a free slot.
+     */
+    private static final int CURRENCY = 24;
+    /**
+     * 1 if the account is resident.
+     */
+    private static final int RESIDENT = 28;
+
+    private static final int BLOCK_BITS = 16;
+    private static final int BLOCK_SLOTS = 1 << BLOCK_BITS;
+    private static final int ARENA_BLOCK = 1 << 20;
+    private static final int MAX_NAME = 0xffff;
+    private static final long NO_NAME = -1;
+
+    private volatile ByteBuffer[] blocks = new ByteBuffer[0];
+    private volatile ByteBuffer[] arena = new ByteBuffer[0];
+    private long arenaEnd;
+    private volatile Currency[] currencies = new Currency[0];
+    private final Map<Currency, Integer> currencyIndex = new ConcurrentHashMap<>();
+    private final Map<Integer, Account> resident = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile int highest = -1;
+
+    @Override
+    public Account get(int id) {
+        ByteBuffer block = block(id);
+        if (block == null) {
+            return null;
+        }
+        int at = slot(id);
+        int currency = block.getInt(at + CURRENCY);
+        if (currency == 0) {
+            return null;
+        }
+        if (block.getInt(at + RESIDENT) != 0) {
+            Account account = resident.get(id);
+            if (account != null) {
+                return account;
+            }
+        }
+        return Account.materialize(id, name(block.getLong(at + NAME)), block.getLong(at + BALANCE),
+                currencies[currency - 1], block.getLong(at + EPOCH));
+    }
+
+    @Override
+    public void put(Account account) {
+        ByteBuffer block = allocate(account.getId());
+        boolean added = block.getInt(slot(account.getId()) + CURRENCY) == 0;
+        write(account, true);
+        if (added) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Override
+    public Account remove(int id) {
+        Account removed = get(id);
+        if (removed != null) {
+            ByteBuffer block = block(id);
+            block.putInt(slot(id) + CURRENCY, 0);
+            block.putInt(slot(id) + RESIDENT, 0);
+            resident.remove(id);
+            count.decrementAndGet();
+        }
+        return removed;
+    }
+
+    @Override
+    public void balanceChanged(Account account) {
+        write(account, false);
+    }
+
+    @Override
+    public void changed(Account account, Currency currency) {
+        write(account, true);
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public Collection<Account> values() {
+        return new AbstractCollection<Account>() {
+            @Override
+            public Iterator<Account> iterator() {
+                Iterator<Integer> ids = idsAfter(-1, null);
+                return new Iterator<Account>() {
+                    private Account next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && ids.hasNext()) {
+                            next = get(ids.next());
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Account next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Account account = next;
+                        next = null;
+                        return account;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return count.get();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Integer> idsAfter(int after, Currency currency) {
+        if (currency == null) {
+            return scan(after, index -> index != 0);
+        }
+        Integer wanted = currencyIndex.get(currency);
+        return wanted == null ? scan(Integer.MAX_VALUE, index -> false) : scan(after, index -> index == wanted + 1);
+    }
+
+    /**
+     * @return the ids after the given one whose slot holds a currency index matching the predicate
+     */
+    private Iterator<Integer> scan(int after, IntPredicate currency) {
+        return new Iterator<Integer>() {
+            private int id = after;
+            private int next = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (next < 0 && id < highest) {
+                    id++;
+                    ByteBuffer block = block(id);
+                    if (block == null) {
+                        id = (id | (BLOCK_SLOTS - 1));
+                    } else if (currency.test(block.getInt(slot(id) + CURRENCY))) {
+                        next = id;
+                    }
+                }
+                return next >= 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int found = next;
+                next = -1;
+                return found;
+            }
+        };
+    }
+
+    /**
+     * Writes the account into its slot, the currency last so that a new slot is complete once it shows.
+     */
+    private void write(Account account, boolean everything) {
+        int id = account.getId();
+        ByteBuffer block = block(id);
+        int at = slot(id);
+        if (account.getCredits() != null) {
+            resident.put(id, account);
+            block.putInt(at + RESIDENT, 1);
+        } else {
+            block.putInt(at + RESIDENT, 0);
+            resident.remove(id);
+        }
+        block.putLong(at + BALANCE, account.getFoldedBalanceMinor());
+        block.putLong(at + EPOCH, account.getEpoch());
+        if (everything) {
+            long name = block.getLong(at + NAME);
+            if (block.getInt(at + CURRENCY) == 0 || !equal(name, account.getUserName())) {
+                block.putLong(at + NAME, store(account.getUserName()));
+            }
+            block.putInt(at + CURRENCY, currency(account.getCurrency()) + 1);
+        }
+    }
+
+    private ByteBuffer block(int id) {
+        ByteBuffer[] all = blocks;
+        int index = id >>> BLOCK_BITS;
+        return id < 0 || index >= all.length ? null : all[index];
+    }
+
+    private static int slot(int id) {
+        return (id & (BLOCK_SLOTS - 1)) * SLOT;
+    }
+
+    private synchronized ByteBuffer allocate(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative account id " + id);
+        }
+        int index = id >>> BLOCK_BITS;
+        ByteBuffer[] all = blocks;
+        if (index >= all.length) {
+            all = Arrays.copyOf(all, Math.max(index + 1, all.length * 2));
+        }
+        if (all[index] == null) {
+            all[index] = ByteBuffer.allocateDirect(BLOCK_SLOTS * SLOT).order(ByteOrder.nativeOrder());
+        }
+        blocks = all;
+        highest = Math.max(highest, id);
+        return all[index];
+    }
+
+    private int currency(Currency currency) {
+        if (currency == null) {
+            throw new IllegalArgumentException("An account needs a currency");
+        }
+        Integer index = currencyIndex.get(currency);
+        if (index != null) {
+            return index;
+        }
+        synchronized (currencyIndex) {
+            return currencyIndex.computeIfAbsent(currency, added -> {
+                Currency[] all = Arrays.copyOf(currencies, currencies.length + 1);
+                all[all.length - 1] = added;
+                currencies = all;
+                return all.length - 1;
+            });
+        }
+    }
+
+    /**
+     * Appends the name to the arena.
+     *
+     * @return where it starts, shifted left by 16 bits, plus its length
+     */
+    private synchronized long store(String name) {
+        if (name == null) {
+            return NO_NAME;
+        }
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > MAX_NAME) {
+            throw new IllegalArgumentException("Names are limited to " + MAX_NAME + " bytes");
+        }
+        if (arenaEnd % ARENA_BLOCK + utf8.length > ARENA_BLOCK) {
+            arenaEnd += ARENA_BLOCK - arenaEnd % ARENA_BLOCK;
+        }
+        int index = (int) (arenaEnd / ARENA_BLOCK);
+        if (index == arena.length) {
+            ByteBuffer[] all = Arrays.copyOf(arena, index + 1);
+            all[index] = ByteBuffer.allocateDirect(ARENA_BLOCK);
+            arena = all;
+        }
+        ByteBuffer block = arena[index];
+        int offset = (int) (arenaEnd % ARENA_BLOCK);
+        for (int i = 0; i < utf8.length; i++) {
+            block.put(offset + i, utf8[i]);
+        }
+        long reference = arenaEnd << 16 | utf8.length;
+        arenaEnd += utf8.length;
+        return reference;
+    }
+
+    private String name(long reference) {
+        if (reference == NO_NAME) {
+            return null;
+        }
+        long start = reference >>> 16;
+        byte[] utf8 = new byte[(int) (reference & MAX_NAME)];
+        ByteBuffer block = arena[(int) (start / ARENA_BLOCK)];
+        int offset = (int) (start % ARENA_BLOCK);
+        for (int i = 0; i < utf8.length; i++) {
+            utf8[i] = block.get(offset + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private boolean equal(long reference, String name) {
+        return reference == NO_NAME ? name == null : name != null && name.equals(name(reference));
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.revolut.japp.moneytransfer.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed Prometheus buckets. Every bucket is a {@link LongAdder}, so recording from
+ * many threads at once never contends on a shared counter.
+ */
+public class Histogram {
+
+    private static final double[] BOUNDS = {0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUND_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUND_NANOS.length && nanos > BOUND_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Appends the cumulative buckets, sum and count of the histogram in Prometheus text format.
+     *
+     * @param labels the labels of the series without braces, e.g. {@code method="GET"}, or empty
+     */
+    void render(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(BOUNDS[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BOUNDS.length].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String series = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(series).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(series).append(' ').append(cumulative).append('\n');
+    }
+
+}
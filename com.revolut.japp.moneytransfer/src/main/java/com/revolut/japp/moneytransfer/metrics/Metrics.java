@@ -0,0 +1,167 @@
+package com.revolut.japp.moneytransfer.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.revolut.japp.moneytransfer.admission.AdmissionControl;
+import com.revolut.japp.moneytransfer.journal.Journal;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+import com.revolut.japp.moneytransfer.replication.ReplicationFollower;
+import com.revolut.japp.moneytransfer.replication.ReplicationLeader;
+
+/**
+ * Counters and histograms of the service, rendered in the Prometheus text format by {@link #render}.
+ * <p>
+ * Everything recorded on a request path is a {@link LongAdder} or a {@link Histogram} of them, which spread
+ * concurrent updates over cells instead of contending on one field; the cells are only summed up when the
+ * metrics are scraped.
+ */
+public class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final Map<TransferStatus, LongAdder> transfers = new EnumMap<>(TransferStatus.class);
+    private final LongAdder transfersCreated = new LongAdder();
+    private final Histogram eventLoopLag = new Histogram();
+
+    public Metrics() {
+        for (TransferStatus status : TransferStatus.values()) {
+            transfers.put(status, new LongAdder());
+        }
+    }
+
+    /**
+     * Records one answered request.
+     *
+     * @param route the path pattern of the route the request was meant for, e.g. {@code /api/transfers/:id}
+     */
+    public void request(String method, String route, int status, long nanos) {
+        String key = method + ' ' + route + ' ' + status;
+        Route metrics = routes.get(key);
+        if (metrics == null) {
+            metrics = routes.computeIfAbsent(key, k -> new Route(method, route, status));
+        }
+        metrics.latency.record(nanos);
+    }
+
+    public void transferCreated() {
+        transfersCreated.increment();
+    }
+
+    /**
+     * Records the outcome of a transfer execution.
+     */
+    public void transferExecuted(TransferStatus status) {
+        transfers.get(status).increment();
+    }
+
+    /**
+     * Records how late a timer of an event loop fired.
+     */
+    public void eventLoopLag(long nanos) {
+        eventLoopLag.record(nanos);
+    }
+
+    /**
+     * @param journal   the journal, or null if there is none
+     * @param leader    the replication to followers, or null if there is none
+     * @param follower  the replication from a leader, or null if there is none
+     */
+    public String render(AccountLedger ledger, AdmissionControl admission, Journal journal, ReplicationLeader leader, ReplicationFollower follower) {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP http_request_duration_seconds Time from routing a request to the end of its response.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Route route : routes.values()) {
+            route.latency.render(out, "http_request_duration_seconds", route.labels);
+        }
+
+        out.append("# HELP transfers_created_total Transfers created.\n");
+        out.append("# TYPE transfers_created_total counter\n");
+        out.append("transfers_created_total ").append(transfersCreated.sum()).append('\n');
+        out.append("# HELP transfers_executed_total Transfer executions by resulting status.\n");
+        out.append("# TYPE transfers_executed_total counter\n");
+        for (Map.Entry<TransferStatus, LongAdder> entry : transfers.entrySet()) {
+            out.append("transfers_executed_total{status=\"").append(entry.getKey().name()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        out.append("# HELP vertx_event_loop_lag_seconds How late the periodic probe timer of an event loop fired.\n");
+        out.append("# TYPE vertx_event_loop_lag_seconds histogram\n");
+        eventLoopLag.render(out, "vertx_event_loop_lag_seconds", "");
+
+        out.append("# HELP admission_concurrency_limit Requests that may be in flight, adapted to event loop lag.\n");
+        out.append("# TYPE admission_concurrency_limit gauge\n");
+        out.append("admission_concurrency_limit ").append(admission.getLimit()).append('\n');
+        out.append("# HELP admission_in_flight Requests admitted and not answered yet.\n");
+        out.append("# TYPE admission_in_flight gauge\n");
+        out.append("admission_in_flight ").append(admission.getInFlight()).append('\n');
+        out.append("# HELP admission_rejected_total Requests refused before being read.\n");
+        out.append("# TYPE admission_rejected_total counter\n");
+        out.append("admission_rejected_total{reason=\"throttled\"} ").append(admission.getThrottled()).append('\n');
+        out.append("admission_rejected_total{reason=\"shed\"} ").append(admission.getShed()).append('\n');
+
+        out.append("# HELP ledger_accounts Accounts in the ledger.\n");
+        out.append("# TYPE ledger_accounts gauge\n");
+        out.append("ledger_accounts ").append(ledger.size()).append('\n');
+        out.append("# HELP ledger_hot_accounts Accounts whose credits are striped and folded in periodically.\n");
+        out.append("# TYPE ledger_hot_accounts gauge\n");
+        out.append("ledger_hot_accounts ").append(ledger.getHotAccounts()).append('\n');
+        out.append("# HELP ledger_lock_acquisitions_total Account stripe locks taken.\n");
+        out.append("# TYPE ledger_lock_acquisitions_total counter\n");
+        out.append("ledger_lock_acquisitions_total ").append(ledger.getLockAcquisitions()).append('\n');
+        out.append("# HELP ledger_lock_contended_total Account stripe locks that were held by another thread.\n");
+        out.append("# TYPE ledger_lock_contended_total counter\n");
+        out.append("ledger_lock_contended_total ").append(ledger.getContendedAcquisitions()).append('\n');
+        out.append("# HELP ledger_lock_wait_seconds_total Time spent waiting for contended stripe locks.\n");
+        out.append("# TYPE ledger_lock_wait_seconds_total counter\n");
+        out.append("ledger_lock_wait_seconds_total ").append(ledger.getContendedNanos() / 1e9).append('\n');
+
+        if (journal != null) {
+            out.append("# HELP journal_records_total Records written to the journal.\n");
+            out.append("# TYPE journal_records_total counter\n");
+            out.append("journal_records_total ").append(journal.getRecords()).append('\n');
+            out.append("# HELP journal_syncs_total Journal fsyncs.\n");
+            out.append("# TYPE journal_syncs_total counter\n");
+            out.append("journal_syncs_total ").append(journal.getSyncs()).append('\n');
+            out.append("# HELP journal_write_amplification Bytes written per byte of record payload.\n");
+            out.append("# TYPE journal_write_amplification gauge\n");
+            out.append("journal_write_amplification ").append(journal.getWriteAmplification()).append('\n');
+        }
+
+        if (leader != null) {
+            out.append("# HELP replication_followers Followers connected.\n");
+            out.append("# TYPE replication_followers gauge\n");
+            out.append("replication_followers ").append(leader.getFollowers()).append('\n');
+            out.append("# HELP replication_sequence Records published to followers.\n");
+            out.append("# TYPE replication_sequence counter\n");
+            out.append("replication_sequence ").append(leader.getSequence()).append('\n');
+        }
+        if (follower != null) {
+            out.append("# HELP replication_connected Whether the follower is connected to its leader.\n");
+            out.append("# TYPE replication_connected gauge\n");
+            out.append("replication_connected ").append(follower.isConnected() ? 1 : 0).append('\n');
+            out.append("# HELP replication_applied_sequence Sequence of the last record of the leader applied.\n");
+            out.append("# TYPE replication_applied_sequence gauge\n");
+            out.append("replication_applied_sequence ").append(follower.getApplied()).append('\n');
+            out.append("# HELP replication_lag_seconds Time since the leader sent the last frame applied.\n");
+            out.append("# TYPE replication_lag_seconds gauge\n");
+            out.append("replication_lag_seconds ").append(follower.getLagMillis() / 1e3).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static final class Route {
+
+        private final String labels;
+        private final Histogram latency = new Histogram();
+
+        private Route(String method, String route, int status) {
+            this.labels = "method=\"" + method + "\",route=\"" + route + "\",status=\"" + status + "\"";
+        }
+
+    }
+
+}
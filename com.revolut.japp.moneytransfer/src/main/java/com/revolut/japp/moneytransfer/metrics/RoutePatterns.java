@@ -0,0 +1,66 @@
+package com.revolut.japp.moneytransfer.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The path patterns of a router, matched against request paths in the order the router tries them. A
+ * request is labelled with the route it was meant for even if it was answered before getting there, e.g.
+ * refused by admission control or by the body handler.
+ * <p>
+ * A pattern is matched segment by segment, a {@code :param} segment matching any one segment, and a pattern
+ * ending with a slash, as a router reports {@code /assets/*}, matching every path under it.
+ */
+public class RoutePatterns {
+
+    public static final String OTHER = "other";
+
+    private final List<String[]> segments = new ArrayList<>();
+    private final List<String> labels = new ArrayList<>();
+
+    /**
+     * @param paths the paths of the routes in the order they were added; null paths of catch-all routes are skipped
+     */
+    public RoutePatterns(List<String> paths) {
+        for (String path : paths) {
+            if (path == null) {
+                continue;
+            }
+            boolean prefix = path.endsWith("/") && path.length() > 1;
+            segments.add(split(prefix ? path.substring(0, path.length() - 1) : path));
+            labels.add(prefix ? path + "*" : path);
+        }
+    }
+
+    /**
+     * @return the pattern of the first route matching the path, or {@link #OTHER} if none does
+     */
+    public String match(String path) {
+        String[] request = split(path);
+        for (int i = 0; i < segments.size(); i++) {
+            String[] pattern = segments.get(i);
+            boolean prefix = labels.get(i).endsWith("*");
+            if (request.length == pattern.length || prefix && request.length > pattern.length) {
+                if (matches(pattern, request)) {
+                    return labels.get(i);
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    private static boolean matches(String[] pattern, String[] request) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i].startsWith(":") ? request[i].isEmpty() : !pattern[i].equals(request[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] split(String path) {
+        String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        return trimmed.isEmpty() ? new String[0] : trimmed.substring(1).split("/", -1);
+    }
+
+}
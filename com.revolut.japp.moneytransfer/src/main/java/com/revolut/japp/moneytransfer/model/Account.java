@@ -4,6 +4,10 @@ import java.math.BigDecimal;
 import java.util.Currency;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import io.vertx.core.buffer.Buffer;
+
 public class Account {
 	
 	private static final AtomicInteger COUNTER = new AtomicInteger();
@@ -12,10 +16,33 @@ public class Account {
 	
 	private String userName;
 	
-	private BigDecimal balance;
+	/**
+	 * Balance in minor units of the currency, without the pending credits of a hot account.
+	 */
+	private volatile long balance;
+	
+	/**
+	 * Credits not folded into the balance yet, or null unless the account is hot.
+	 */
+	private volatile CreditStripes credits;
+	
+	/**
+	 * Bumped twice by every fold, so it is odd while the balance and the pending credits are being combined.
+	 */
+	private volatile long epoch;
+	
+	/**
+	 * Balance set before the currency was known, e.g. while decoding JSON.
+	 */
+	private BigDecimal unscaledBalance;
 	
 	private Currency currency;
 
+	/**
+	 * The last encoded JSON of the account, used while it still shows the current state.
+	 */
+	private volatile AccountView view;
+
 	
 	
 	public Account(String userName, BigDecimal balance, Currency currency) {
@@ -30,6 +57,33 @@ public class Account {
 		this.id = COUNTER.getAndIncrement();
 	}
 	
+	/**
+	 * Recreates an account with a known id, e.g. from the journal. Ids handed out afterwards are higher.
+	 */
+	public Account(int id, String userName, long balance, Currency currency) {
+		this.id = id;
+		COUNTER.accumulateAndGet(id + 1, Math::max);
+		this.userName = userName;
+		this.balance = balance;
+		this.currency = currency;
+	}
+
+	private Account(int id, String userName, long balance, Currency currency, long epoch) {
+		this.id = id;
+		this.userName = userName;
+		this.balance = balance;
+		this.currency = currency;
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Recreates an account that is stored outside the heap, for as long as it is used. Unlike restoring one
+	 * from the journal, this leaves the ids handed out alone.
+	 */
+	public static Account materialize(int id, String userName, long balance, Currency currency, long epoch) {
+		return new Account(id, userName, balance, currency, epoch);
+	}
+
 	/**
 	 * @return the id
 	 */
@@ -56,16 +110,140 @@ public class Account {
 	 * @return the balance
 	 */
 	public BigDecimal getBalance() {
-		return balance;
+		return currency == null ? unscaledBalance : Money.toDecimal(getBalanceMinor(), currency);
 	}
 
 	/**
 	 * @param balance the balance to set
 	 */
 	public void setBalance(BigDecimal balance) {
+		if (currency == null || balance == null) {
+			this.unscaledBalance = balance;
+		} else {
+			this.balance = Money.toMinor(balance, currency);
+		}
+	}
+
+	/**
+	 * @return the balance in minor units of the currency, including pending credits
+	 */
+	@JsonIgnore
+	public long getBalanceMinor() {
+		CreditStripes pending = credits;
+		if (pending == null) {
+			return balance;
+		}
+		while (true) {
+			long before = epoch;
+			long total = balance + pending.sum();
+			if ((before & 1) == 0 && before == epoch) {
+				return total;
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return the balance in minor units without pending credits, which belong to the current {@link #getEpoch() epoch}
+	 */
+	@JsonIgnore
+	public long getFoldedBalanceMinor() {
+		return balance;
+	}
+
+	/**
+	 * @return the number of folds times two, plus one while a fold is in progress
+	 */
+	@JsonIgnore
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @param epoch the epoch to set, e.g. from the journal
+	 */
+	@JsonIgnore
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * @return the pending credits, or null unless the account is hot
+	 */
+	@JsonIgnore
+	public CreditStripes getCredits() {
+		return credits;
+	}
+
+	/**
+	 * @param credits the pending credits to keep from now on; the account is hot while they are not null
+	 */
+	@JsonIgnore
+	public void setCredits(CreditStripes credits) {
+		this.credits = credits;
+	}
+
+	/**
+	 * Moves the pending credits into the balance and starts a new epoch. Credits wait until {@code whileClosed}
+	 * has run, e.g. to journal the folded balance. The caller must hold the lock of the account.
+	 *
+	 * @param cool whether the account stops being hot
+	 * @return the amount folded
+	 */
+	public long fold(boolean cool, Runnable whileClosed) {
+		CreditStripes pending = credits;
+		if (pending == null) {
+			whileClosed.run();
+			return 0;
+		}
+		pending.close();
+		try {
+			epoch++;
+			long sum = pending.drain();
+			balance = Money.add(balance, sum);
+			if (cool) {
+				credits = null;
+			}
+			epoch++;
+			whileClosed.run();
+			return sum;
+		} finally {
+			if ((epoch & 1) != 0) {
+				epoch++;
+			}
+			pending.open();
+		}
+	}
+
+	/**
+	 * @param balance the balance in minor units of the currency to set
+	 */
+	@JsonIgnore
+	public void setBalanceMinor(long balance) {
 		this.balance = balance;
 	}
 
+	/**
+	 * Encodes the account only if it changed since the last call, including through credits to a hot account.
+	 * An account without a currency is encoded on every call.
+	 *
+	 * @return the encoded account, shared by all callers and not to be modified
+	 */
+	public Buffer getView(AccountEncoder encoder) {
+		String name = userName;
+		long total = getBalanceMinor();
+		Currency current = currency;
+		if (current == null) {
+			return encoder.encode(id, name, total, unscaledBalance, null);
+		}
+		AccountView cached = view;
+		if (cached == null || !cached.shows(name, total, current)) {
+			cached = new AccountView(id, name, total, current, encoder);
+			view = cached;
+		}
+		return cached.getJson();
+	}
+
 	/**
 	 * @return the currency
 	 */
@@ -77,6 +255,12 @@ public class Account {
 	 * @param currency the currency to set
 	 */
 	public void setCurrency(Currency currency) {
+		if (currency != null && this.currency == null && unscaledBalance != null) {
+			this.balance = Money.toMinor(unscaledBalance, currency);
+			this.unscaledBalance = null;
+		} else if (currency != null && this.currency != null) {
+			this.balance = Money.rescale(balance, this.currency, currency);
+		}
 		this.currency = currency;
 	}
 	
@@ -94,17 +278,17 @@ public class Account {
 	
 	public String toString() {
 		return "Account{" +
-				"id=" + id + ", balance=" + balance + ", name='" + userName + '\'' +
+				"id=" + id + ", balance=" + getBalance() + ", name='" + userName + '\'' +
 				", currency=" + currency + '}';
 		
 	}
 	
-	public void withdraw(BigDecimal amount) {
-        this.balance = balance.subtract(amount);
+	public void withdraw(long amount) {
+        this.balance = Money.subtract(balance, amount);
     }
 
-    public void deposit(BigDecimal amount) {
-        this.balance = balance.add(amount);
+    public void deposit(long amount) {
+        this.balance = Money.add(balance, amount);
     }
 
 }
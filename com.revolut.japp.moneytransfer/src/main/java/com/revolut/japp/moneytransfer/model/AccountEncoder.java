@@ -0,0 +1,21 @@
+package com.revolut.japp.moneytransfer.model;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Encodes an account as it was in a given state, for the views {@link Account#getView} caches.
+ */
+@FunctionalInterface
+public interface AccountEncoder {
+
+	/**
+	 * @param balance         the balance in minor units of the currency
+	 * @param unscaledBalance the balance of an account without a currency, otherwise null
+	 * @return the encoded account
+	 */
+	Buffer encode(int id, String userName, long balance, BigDecimal unscaledBalance, Currency currency);
+
+}
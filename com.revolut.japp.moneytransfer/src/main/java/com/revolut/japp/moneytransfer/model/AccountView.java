@@ -0,0 +1,47 @@
+package com.revolut.japp.moneytransfer.model;
+
+import java.util.Currency;
+import java.util.Objects;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * The encoded JSON of an {@link Account} together with the state it was encoded from, so that reads can send
+ * the same bytes until the account changes.
+ * <p>
+ * The buffer is never released, so it can be written to any number of responses without being copied. This
+ * relies on Vert.x 3, whose {@link Buffer#getByteBuf()} hands every write a duplicate of the underlying
+ * unpooled buffer: reading a duplicate moves its own indices and leaves the cached bytes as they were.
+ */
+final class AccountView {
+
+	private final long balance;
+
+	private final String userName;
+
+	private final Currency currency;
+
+	private final Buffer json;
+
+	AccountView(int id, String userName, long balance, Currency currency, AccountEncoder encoder) {
+		this.balance = balance;
+		this.userName = userName;
+		this.currency = currency;
+		this.json = encoder.encode(id, userName, balance, null, currency);
+	}
+
+	/**
+	 * @return true if the view shows an account with this state
+	 */
+	boolean shows(String userName, long balance, Currency currency) {
+		return this.balance == balance && this.currency == currency && Objects.equals(this.userName, userName);
+	}
+
+	/**
+	 * @return the json
+	 */
+	Buffer getJson() {
+		return json;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.revolut.japp.moneytransfer.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Credits to a hot {@link Account} that are not folded into its balance yet.
+ * <p>
+ * A crediting thread adds to one of several cells, picked by thread and a cache line apart from each other,
+ * so credits from different cores into the same account do not contend. Each cell also counts the credits
+ * in progress on it: a fold closes the gate, waits until no credit is in progress and only then drains the
+ * cells, so every credit, together with whatever the crediting thread does while it holds its cell, happens
+ * either wholly before a fold or wholly after it.
+ */
+public final class CreditStripes {
+
+	/**
+	 * Longs per cell: the amount, the credits in progress, and padding up to 128 bytes.
+	 */
+	private static final int CELL = 16;
+
+	private static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * CELL);
+
+	private volatile boolean closed;
+
+	/**
+	 * Waits for any fold in progress and takes a cell of the calling thread, which must be handed back to
+	 * {@link #exit(int)}.
+	 *
+	 * @return the cell to credit
+	 */
+	public int enter() {
+		int cell = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * CELL;
+		while (true) {
+			cells.incrementAndGet(cell + 1);
+			if (!closed) {
+				return cell;
+			}
+			cells.decrementAndGet(cell + 1);
+			while (closed) {
+				Thread.yield();
+			}
+		}
+	}
+
+	public void add(int cell, long amount) {
+		cells.addAndGet(cell, amount);
+	}
+
+	public void exit(int cell) {
+		cells.decrementAndGet(cell + 1);
+	}
+
+	/**
+	 * @return the pending credits; credits in progress may or may not be counted
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * CELL);
+		}
+		return sum;
+	}
+
+	/**
+	 * Closes the gate and waits until no credit is in progress.
+	 */
+	void close() {
+		closed = true;
+		for (int i = 0; i < STRIPES; i++) {
+			while (cells.get(i * CELL + 1) != 0) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Empties the cells of a closed gate.
+	 *
+	 * @return the pending credits
+	 */
+	long drain() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.getAndSet(i * CELL, 0);
+		}
+		return sum;
+	}
+
+	void open() {
+		closed = false;
+	}
+
+}
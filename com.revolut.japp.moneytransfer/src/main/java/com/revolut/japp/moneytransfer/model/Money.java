@@ -0,0 +1,87 @@
+package com.revolut.japp.moneytransfer.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Conversions between decimal amounts and the scaled {@code long} minor units (e.g. cents) that balances
+ * and transfer amounts are kept in. A currency is scaled by its default fraction digits, so 12.34 EUR is
+ * held as 1234. Decimals only appear at the JSON boundary; all arithmetic on minor units is overflow-checked.
+ */
+public final class Money {
+
+	/**
+	 * The digits of the largest {@code long}, beyond which no amount has minor units.
+	 */
+	private static final int MAX_INTEGER_DIGITS = 19;
+
+	/**
+	 * The most digits an amount with more fraction digits than its currency may have.
+	 */
+	private static final int MAX_PRECISION = 64;
+
+	private Money() {
+	}
+
+	/**
+	 * @return the number of fraction digits minor units of the currency carry
+	 */
+	public static int fractionDigits(Currency currency) {
+		return Math.max(currency.getDefaultFractionDigits(), 0);
+	}
+
+	/**
+	 * @return the amount in minor units of the currency
+	 * @throws ArithmeticException if the amount has more fraction digits than the currency or does not fit in a long
+	 */
+	public static long toMinor(BigDecimal amount, Currency currency) {
+		int digits = fractionDigits(currency);
+		// bound the exponent first: rescaling e.g. 1e99999999 would build a number of a hundred million digits
+		if ((long) amount.precision() - amount.scale() > MAX_INTEGER_DIGITS) {
+			throw new ArithmeticException("amount too large");
+		}
+		if (amount.scale() > digits) {
+			// only a few trailing zeros are worth stripping, e.g. 12.50 JPY
+			if (amount.precision() > MAX_PRECISION) {
+				throw new ArithmeticException("amount has too many digits");
+			}
+			amount = amount.stripTrailingZeros();
+			if (amount.scale() > digits) {
+				throw new ArithmeticException("amount has more fraction digits than " + currency);
+			}
+		}
+		return amount.setScale(digits, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * @return the decimal value of an amount in minor units of the currency, with only the fraction digits
+	 *         it needs, e.g. 650 rather than 650.00, as amounts were written before they were kept in minor units
+	 */
+	public static BigDecimal toDecimal(long minor, Currency currency) {
+		BigDecimal decimal = BigDecimal.valueOf(minor, fractionDigits(currency)).stripTrailingZeros();
+		return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+	}
+
+	/**
+	 * Re-expresses an amount in the minor units of another currency without changing its decimal value.
+	 *
+	 * @throws ArithmeticException if the value cannot be expressed exactly in the target currency
+	 */
+	public static long rescale(long minor, Currency from, Currency to) {
+		int shift = fractionDigits(to) - fractionDigits(from);
+		if (shift == 0) {
+			return minor;
+		}
+		return toMinor(toDecimal(minor, from), to);
+	}
+
+	public static long add(long a, long b) {
+		return Math.addExact(a, b);
+	}
+
+	public static long subtract(long a, long b) {
+		return Math.subtractExact(a, b);
+	}
+
+}
@@ -4,6 +4,10 @@ import java.math.BigDecimal;
 import java.util.Currency;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(value = "fee", allowGetters = true)
 public class Transfer {
 	
 	private static final AtomicInteger COUNTER	= new AtomicInteger();
@@ -14,24 +18,42 @@ public class Transfer {
 	
 	private int toAccountId;
 	
-	private BigDecimal amount;
+	/**
+	 * Amount in minor units of the currency.
+	 */
+	private long amount;
+	
+	/**
+	 * Amount set before the currency was known, e.g. while decoding JSON.
+	 */
+	private BigDecimal unscaledAmount;
 	
 	private double discount = 0.0;
 	
 	private double feeRate = 0.0;
 	
+	/**
+	 * Fee charged when the transfer was executed, in minor units of the currency.
+	 */
+	private long fee;
+	
 	private Currency currency;
 	
 	private String comment;
 	
-	private TransferStatus status;
+	private volatile TransferStatus status;
+	
+	/**
+	 * What a transfer executed in legs still owes, or null unless it is between its debit and its outcome.
+	 */
+	private volatile TransferLegs legs;
 	
 	public Transfer(int fromAccountId, int toAccountId, BigDecimal amount, Currency currency, String comment) {
         this.id = COUNTER.getAndIncrement();
         this.fromAccountId = fromAccountId;
         this.toAccountId = toAccountId;
-        this.amount = amount;
         this.currency = currency;
+        this.setAmount(amount);
         this.comment = comment;
         this.status = TransferStatus.PENDING;
     }
@@ -40,6 +62,27 @@ public class Transfer {
 		this.id = COUNTER.getAndIncrement();
 		this.status = TransferStatus.PENDING;
 	}
+	
+	/**
+	 * @return the number of ids handed out so far, which is greater than the id of every transfer created
+	 */
+	public static int getIssuedIds() {
+		return COUNTER.get();
+	}
+	
+	/**
+	 * Recreates a transfer with a known id, e.g. from the journal. Ids handed out afterwards are higher.
+	 */
+	public Transfer(int id, int fromAccountId, int toAccountId, long amount, Currency currency, String comment, TransferStatus status) {
+		this.id = id;
+		COUNTER.accumulateAndGet(id + 1, Math::max);
+		this.fromAccountId = fromAccountId;
+		this.toAccountId = toAccountId;
+		this.amount = amount;
+		this.currency = currency;
+		this.comment = comment;
+		this.status = status;
+	}
 
 	/**
 	 * @return the id
@@ -85,7 +128,7 @@ public class Transfer {
 	 * @return the amount
 	 */
 	public BigDecimal getAmount() {
-		return amount;
+		return currency == null ? unscaledAmount : Money.toDecimal(amount, currency);
 	}
 
 
@@ -93,6 +136,28 @@ public class Transfer {
 	 * @param amount the amount to set
 	 */
 	public void setAmount(BigDecimal amount) {
+		if (currency == null || amount == null) {
+			this.unscaledAmount = amount;
+		} else {
+			this.amount = Money.toMinor(amount, currency);
+		}
+	}
+
+
+	/**
+	 * @return the amount in minor units of the currency
+	 */
+	@JsonIgnore
+	public long getAmountMinor() {
+		return amount;
+	}
+
+
+	/**
+	 * @param amount the amount in minor units of the currency to set
+	 */
+	@JsonIgnore
+	public void setAmountMinor(long amount) {
 		this.amount = amount;
 	}
 
@@ -129,6 +194,32 @@ public class Transfer {
 	}
 
 
+	/**
+	 * @return the fee charged when the transfer was executed
+	 */
+	public BigDecimal getFee() {
+		return currency == null ? null : Money.toDecimal(fee, currency);
+	}
+
+
+	/**
+	 * @return the fee charged when the transfer was executed, in minor units of the currency
+	 */
+	@JsonIgnore
+	public long getFeeMinor() {
+		return fee;
+	}
+
+
+	/**
+	 * @param fee the fee in minor units of the currency to set
+	 */
+	@JsonIgnore
+	public void setFeeMinor(long fee) {
+		this.fee = fee;
+	}
+
+
 	/**
 	 * @return the currency
 	 */
@@ -141,6 +232,12 @@ public class Transfer {
 	 * @param currency the currency to set
 	 */
 	public void setCurrency(Currency currency) {
+		if (currency != null && this.currency == null && unscaledAmount != null) {
+			this.amount = Money.toMinor(unscaledAmount, currency);
+			this.unscaledAmount = null;
+		} else if (currency != null && this.currency != null) {
+			this.amount = Money.rescale(amount, this.currency, currency);
+		}
 		this.currency = currency;
 	}
 
@@ -176,4 +273,22 @@ public class Transfer {
 		this.status = status;
 	}
 
+
+	/**
+	 * @return what the transfer owes while it is executed in legs, or null
+	 */
+	@JsonIgnore
+	public TransferLegs getLegs() {
+		return legs;
+	}
+
+
+	/**
+	 * @param legs the legs to set, or null once the outcome is recorded
+	 */
+	@JsonIgnore
+	public void setLegs(TransferLegs legs) {
+		this.legs = legs;
+	}
+
 }
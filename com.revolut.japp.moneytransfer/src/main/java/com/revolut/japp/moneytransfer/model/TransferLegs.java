@@ -0,0 +1,146 @@
+package com.revolut.japp.moneytransfer.model;
+
+import java.util.Currency;
+
+/**
+ * What a transfer executed in legs, e.g. across account shards, took from the sender and still owes the
+ * other accounts. It is attached to the transfer from the debit until the outcome is recorded, and journaled
+ * with it, so a transfer interrupted between its legs can be finished when the journal is replayed.
+ * <p>
+ * Each credit leg is marked once applied, in the same journal record as the credit, so a leg sent again
+ * because its reply was lost is credited only once.
+ */
+public final class TransferLegs {
+
+	private final long debit;
+
+	private final long feeDebit;
+
+	private final Currency fromCurrency;
+
+	private final long credit;
+
+	private final Currency toCurrency;
+
+	private final int feeAccountId;
+
+	private final long feeCredit;
+
+	private final Currency feeCurrency;
+
+	private final long fee;
+
+	private volatile boolean credited;
+
+	private volatile boolean feeCredited;
+
+	/**
+	 * @param debit        what the sender was debited, fee included, in its currency
+	 * @param feeDebit     the part of the debit that pays the fee
+	 * @param credit       what the receiver is owed, in its currency
+	 * @param feeAccountId the account owed the fee, or -1 if the fee is not credited anywhere
+	 * @param feeCredit    what the fee account is owed, in its currency
+	 * @param fee          the fee in the currency of the transfer
+	 */
+	public TransferLegs(long debit, long feeDebit, Currency fromCurrency, long credit, Currency toCurrency,
+			int feeAccountId, long feeCredit, Currency feeCurrency, long fee) {
+		this.debit = debit;
+		this.feeDebit = feeDebit;
+		this.fromCurrency = fromCurrency;
+		this.credit = credit;
+		this.toCurrency = toCurrency;
+		this.feeAccountId = feeAccountId;
+		this.feeCredit = feeCredit;
+		this.feeCurrency = feeCurrency;
+		this.fee = fee;
+	}
+
+	/**
+	 * @return what the sender was debited, fee included, in its currency
+	 */
+	public long getDebit() {
+		return debit;
+	}
+
+	/**
+	 * @return the part of the debit that pays the fee
+	 */
+	public long getFeeDebit() {
+		return feeDebit;
+	}
+
+	/**
+	 * @return the currency of the sender
+	 */
+	public Currency getFromCurrency() {
+		return fromCurrency;
+	}
+
+	/**
+	 * @return what the receiver is owed, in its currency
+	 */
+	public long getCredit() {
+		return credit;
+	}
+
+	/**
+	 * @return the currency of the receiver
+	 */
+	public Currency getToCurrency() {
+		return toCurrency;
+	}
+
+	/**
+	 * @return the account owed the fee, or -1 if there is no fee leg
+	 */
+	public int getFeeAccountId() {
+		return feeAccountId;
+	}
+
+	/**
+	 * @return what the fee account is owed, in its currency
+	 */
+	public long getFeeCredit() {
+		return feeCredit;
+	}
+
+	/**
+	 * @return the currency of the fee account, or null if there is no fee leg
+	 */
+	public Currency getFeeCurrency() {
+		return feeCurrency;
+	}
+
+	/**
+	 * @return the fee in the currency of the transfer
+	 */
+	public long getFee() {
+		return fee;
+	}
+
+	/**
+	 * @return true if the transfer owes the fee account a credit
+	 */
+	public boolean hasFeeLeg() {
+		return feeAccountId >= 0 && feeCredit > 0;
+	}
+
+	/**
+	 * @return true if the receiver, or for {@code fee} the fee account, has been credited
+	 */
+	public boolean isCredited(boolean fee) {
+		return fee ? feeCredited : credited;
+	}
+
+	/**
+	 * Marks the credit to the receiver, or for {@code fee} to the fee account, as applied.
+	 */
+	public void setCredited(boolean fee) {
+		if (fee) {
+			feeCredited = true;
+		} else {
+			credited = true;
+		}
+	}
+
+}
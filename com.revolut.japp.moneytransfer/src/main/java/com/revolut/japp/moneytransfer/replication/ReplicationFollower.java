@@ -0,0 +1,198 @@
+package com.revolut.japp.moneytransfer.replication;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.journal.JournalHandler;
+import com.revolut.japp.moneytransfer.journal.JournalRecord;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+/**
+ * Keeps a read-only copy of the state of a {@link ReplicationLeader} by applying the records it streams, in
+ * order, through the same {@link JournalHandler} that replays the journal.
+ * <p>
+ * On every connection the follower applies the leader's snapshot, drops the accounts the snapshot no
+ * longer has, e.g. removed while it was disconnected, and skips the records the snapshot already covers.
+ * It reconnects every {@value #RECONNECT_MILLIS} ms while the leader is unreachable, serving what it has in
+ * the meantime.
+ * <p>
+ * The lag is the time since the leader sent the last frame applied. The leader sends a heartbeat every few
+ * hundred milliseconds after everything published before it, so an idle follower that is up to date lags by
+ * less than that, and the lag keeps growing while the follower is behind or disconnected.
+ * <p>
+ * In the bank config, {@code {"replication": {"leader": "localhost:9090"}}} makes the bank such a follower: it
+ * has no journal and leaves folding hot accounts to the leader.
+ */
+public class ReplicationFollower {
+
+    private static final Logger log = Logger.getLogger(ReplicationFollower.class);
+
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private final Vertx vertx;
+    private final String host;
+    private final int port;
+    private final AccountLedger ledger;
+    private final JournalHandler handler;
+    private volatile boolean connected;
+    private volatile long applied;
+    private volatile long leaderMillis;
+
+    /**
+     * @param handler applies the entries of the records received
+     */
+    public ReplicationFollower(Vertx vertx, String host, int port, AccountLedger ledger, JournalHandler handler) {
+        this.vertx = vertx;
+        this.host = host;
+        this.port = port;
+        this.ledger = ledger;
+        this.handler = handler;
+    }
+
+    public void start() {
+        vertx.createNetClient().connect(port, host, result -> {
+            if (result.failed()) {
+                log.warn("[replication]: cannot reach leader " + host + ":" + port + ": " + result.cause().getMessage());
+                vertx.setTimer(RECONNECT_MILLIS, id -> start());
+                return;
+            }
+            log.info("[replication]: following " + host + ":" + port);
+            follow(result.result());
+        });
+    }
+
+    /**
+     * @return true while connected to the leader
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return the sequence of the last record applied
+     */
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * @return the time since the leader sent the last frame applied, or -1 before the first one
+     */
+    public long getLagMillis() {
+        long sent = leaderMillis;
+        return sent == 0 ? -1 : Math.max(0, System.currentTimeMillis() - sent);
+    }
+
+    private void follow(NetSocket socket) {
+        connected = true;
+        Sync sync = new Sync();
+        RecordParser parser = RecordParser.newFixed(4, null);
+        parser.setOutput(new Handler<Buffer>() {
+            private boolean header = true;
+
+            @Override
+            public void handle(Buffer buffer) {
+                if (header) {
+                    int length = buffer.getInt(0);
+                    if (length < ReplicationLeader.HEADER || length > MAX_FRAME) {
+                        log.error("[replication]: bad frame of " + length + " bytes from the leader");
+                        socket.close();
+                        return;
+                    }
+                    parser.fixedSizeMode(length);
+                } else {
+                    sync.frame(buffer);
+                    parser.fixedSizeMode(4);
+                }
+                header = !header;
+            }
+        });
+        socket.handler(parser);
+        socket.exceptionHandler(e -> socket.close());
+        socket.closeHandler(v -> {
+            connected = false;
+            log.warn("[replication]: lost leader " + host + ":" + port + " at record " + applied);
+            vertx.setTimer(RECONNECT_MILLIS, id -> start());
+        });
+    }
+
+    /**
+     * Applies the frames of one connection.
+     */
+    private final class Sync implements JournalHandler {
+
+        /**
+         * The accounts seen in the snapshot, or null once it has been applied.
+         */
+        private Set<Integer> seen = new HashSet<>();
+        private long snapshotAt = -1;
+
+        void frame(Buffer frame) {
+            byte type = frame.getByte(0);
+            long sequence = frame.getLong(1);
+            long millis = frame.getLong(9);
+            switch (type) {
+                case ReplicationLeader.RECORD:
+                    if (seen != null || sequence > snapshotAt) {
+                        JournalRecord.decode(frame.getByteBuf().nioBuffer(ReplicationLeader.HEADER, frame.length() - ReplicationLeader.HEADER), this);
+                    }
+                    break;
+                case ReplicationLeader.SNAPSHOT_END:
+                    for (Account account : ledger.getAll()) {
+                        if (!seen.contains(account.getId())) {
+                            ledger.remove(account.getId());
+                        }
+                    }
+                    seen = null;
+                    snapshotAt = sequence;
+                    applied = sequence;
+                    log.info("[replication]: applied snapshot at record " + sequence);
+                    break;
+                case ReplicationLeader.HEARTBEAT:
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown replication frame type " + type);
+            }
+            if (seen == null) {
+                applied = Math.max(applied, sequence);
+                leaderMillis = millis;
+            }
+        }
+
+        @Override
+        public void account(Account account) {
+            if (seen != null) {
+                seen.add(account.getId());
+            }
+            handler.account(account);
+        }
+
+        @Override
+        public void accountRemoved(int id) {
+            handler.accountRemoved(id);
+        }
+
+        @Override
+        public void transfer(Transfer transfer) {
+            handler.transfer(transfer);
+        }
+
+        @Override
+        public void credited(int id, long amount, long epoch) {
+            handler.credited(id, amount, epoch);
+        }
+
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.revolut.japp.moneytransfer.replication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.revolut.japp.moneytransfer.journal.JournalRecord;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+
+/**
+ * Streams every change to {@link ReplicationFollower followers} connected over TCP, so reads can be served
+ * by other processes.
+ * <p>
+ * The changes are the {@link JournalRecord records} that are journaled, published in the order they are
+ * made. Every frame is {@code [int length][byte type][long sequence][long leader time][payload]}: a
+ * {@link #RECORD} carries the encoded entries of one record, a {@link #HEARTBEAT}, sent every
+ * {@value #HEARTBEAT_MILLIS} ms, none. The sequence counts the records published so far.
+ * <p>
+ * A new follower first gets a snapshot of all accounts and transfers, ended by {@link #SNAPSHOT_END}, then
+ * the records published after it connected. Like a journal snapshot it is read from the live state while
+ * changes go on, which is safe because every record holds the complete state of what it touches and the
+ * follower applies those published meanwhile after the snapshot; hot accounts are folded first so that no
+ * pending credit is missing from it.
+ * <p>
+ * Publishing only queues the record; an event loop sends whatever has queued up to all followers in one
+ * write each. A follower that does not keep up is disconnected rather than slowing the leader down, and
+ * resynchronises when it reconnects.
+ * <p>
+ * In the bank config, {@code {"replication": {"port": 9090}}} makes the bank a leader listening on that port.
+ */
+public class ReplicationLeader {
+
+    private static final Logger log = Logger.getLogger(ReplicationLeader.class);
+
+    static final byte RECORD = 1;
+    static final byte SNAPSHOT_END = 2;
+    static final byte HEARTBEAT = 3;
+    static final int HEADER = 1 + 8 + 8;
+
+    private static final int HEARTBEAT_MILLIS = 200;
+    private static final int SNAPSHOT_BATCH = 512;
+    private static final int SNAPSHOT_CHUNK = 1 << 20;
+
+    private final Vertx vertx;
+    private final AccountLedger ledger;
+    private final Collection<Transfer> transfers;
+    private final Context context;
+
+    private final Object lock = new Object();
+    private final List<Follower> followers = new ArrayList<>();
+    private List<Buffer> pending = new ArrayList<>();
+    private boolean draining;
+    private long sequence;
+
+    /**
+     * @param transfers all transfers, in ascending order of id
+     */
+    public ReplicationLeader(Vertx vertx, AccountLedger ledger, Collection<Transfer> transfers) {
+        this.vertx = vertx;
+        this.ledger = ledger;
+        this.transfers = transfers;
+        this.context = vertx.getOrCreateContext();
+    }
+
+    public void listen(int port, Handler<AsyncResult<NetServer>> handler) {
+        context.runOnContext(v -> {
+            vertx.createNetServer()
+                    .connectHandler(this::connected)
+                    .listen(port, handler);
+            vertx.setPeriodic(HEARTBEAT_MILLIS, id -> heartbeat());
+        });
+    }
+
+    /**
+     * Queues the record for every follower.
+     */
+    public void publish(JournalRecord record) {
+        if (record.isEmpty()) {
+            return;
+        }
+        byte[] payload = record.toBytes();
+        synchronized (lock) {
+            sequence++;
+            if (!followers.isEmpty()) {
+                queue(frame(RECORD, sequence, payload));
+            }
+        }
+    }
+
+    /**
+     * @return the number of records published
+     */
+    public long getSequence() {
+        synchronized (lock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * @return the number of connected followers
+     */
+    public int getFollowers() {
+        synchronized (lock) {
+            return followers.size();
+        }
+    }
+
+    private void heartbeat() {
+        synchronized (lock) {
+            if (!followers.isEmpty()) {
+                queue(frame(HEARTBEAT, sequence, null));
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void queue(Buffer frame) {
+        pending.add(frame);
+        if (!draining) {
+            draining = true;
+            context.runOnContext(v -> drain());
+        }
+    }
+
+    private void drain() {
+        List<Buffer> frames;
+        List<Follower> targets;
+        synchronized (lock) {
+            frames = pending;
+            pending = new ArrayList<>();
+            draining = false;
+            targets = new ArrayList<>(followers);
+        }
+        Buffer out = Buffer.buffer();
+        for (Buffer frame : frames) {
+            out.appendBuffer(frame);
+        }
+        for (Follower follower : targets) {
+            follower.send(out);
+        }
+    }
+
+    private void connected(NetSocket socket) {
+        Follower follower = new Follower(socket);
+        long start;
+        synchronized (lock) {
+            followers.add(follower);
+            start = sequence;
+        }
+        socket.closeHandler(v -> disconnected(follower));
+        socket.exceptionHandler(e -> socket.close());
+        socket.handler(buffer -> {
+        });
+        log.info("[replication]: follower " + socket.remoteAddress() + " connected at record " + start);
+        vertx.executeBlocking(future -> {
+            ledger.foldHotAccounts();
+            Snapshot snapshot = new Snapshot(socket, start);
+            for (Account account : ledger.getAll()) {
+                snapshot.record.account(account);
+                snapshot.added();
+            }
+            for (Transfer transfer : transfers) {
+                snapshot.record.transfer(transfer);
+                snapshot.added();
+            }
+            snapshot.flush();
+            future.complete();
+        }, false, result -> {
+            if (result.failed()) {
+                log.error("[replication]: snapshot for " + socket.remoteAddress() + " failed", result.cause());
+                socket.close();
+                return;
+            }
+            socket.write(frame(SNAPSHOT_END, start, null));
+            follower.live();
+        });
+    }
+
+    private void disconnected(Follower follower) {
+        synchronized (lock) {
+            followers.remove(follower);
+        }
+        log.info("[replication]: follower " + follower.socket.remoteAddress() + " disconnected");
+    }
+
+    static Buffer frame(byte type, long sequence, byte[] payload) {
+        int length = HEADER + (payload == null ? 0 : payload.length);
+        Buffer frame = Buffer.buffer(4 + length)
+                .appendInt(length)
+                .appendByte(type)
+                .appendLong(sequence)
+                .appendLong(System.currentTimeMillis());
+        return payload == null ? frame : frame.appendBytes(payload);
+    }
+
+    /**
+     * A connected follower. Everything but the snapshot runs on the leader's event loop.
+     */
+    private final class Follower {
+
+        private final NetSocket socket;
+        /**
+         * Records published while the snapshot is being sent, or null once it has been.
+         */
+        private List<Buffer> backlog = new ArrayList<>();
+
+        Follower(NetSocket socket) {
+            this.socket = socket;
+        }
+
+        void send(Buffer frames) {
+            if (backlog != null) {
+                backlog.add(frames);
+            } else if (socket.writeQueueFull()) {
+                log.warn("[replication]: disconnecting " + socket.remoteAddress() + ", which does not keep up");
+                socket.close();
+            } else {
+                socket.write(frames);
+            }
+        }
+
+        void live() {
+            for (Buffer frames : backlog) {
+                socket.write(frames);
+            }
+            backlog = null;
+        }
+
+    }
+
+    /**
+     * Batches the snapshot into records of {@value #SNAPSHOT_BATCH} entries and hands them to the event loop
+     * a chunk at a time.
+     */
+    private final class Snapshot {
+
+        private final NetSocket socket;
+        private final long sequence;
+        private JournalRecord record = new JournalRecord();
+        private int entries;
+        private Buffer chunk = Buffer.buffer();
+
+        Snapshot(NetSocket socket, long sequence) {
+            this.socket = socket;
+            this.sequence = sequence;
+        }
+
+        void added() {
+            if (++entries % SNAPSHOT_BATCH == 0) {
+                endRecord();
+                if (chunk.length() >= SNAPSHOT_CHUNK) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            endRecord();
+            Buffer full = chunk;
+            chunk = Buffer.buffer();
+            if (full.length() > 0) {
+                context.runOnContext(v -> socket.write(full));
+            }
+        }
+
+        private void endRecord() {
+            if (!record.isEmpty()) {
+                chunk.appendBuffer(frame(RECORD, sequence, record.toBytes()));
+                record = new JournalRecord();
+            }
+        }
+
+    }
+
+}
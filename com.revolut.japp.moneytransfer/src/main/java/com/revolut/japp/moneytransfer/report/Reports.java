@@ -0,0 +1,131 @@
+package com.revolut.japp.moneytransfer.report;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+import com.revolut.japp.moneytransfer.ledger.LedgerSnapshot;
+import com.revolut.japp.moneytransfer.model.Money;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Aggregates over a {@link LedgerSnapshot}, computed with parallel streams on the common fork/join pool and
+ * rendered as JSON. Every worker totals its part of the accounts or transfers on its own before the parts
+ * are merged, so the workers never contend. Amounts are decimal strings in the currency they are totalled
+ * in, so they stay exact.
+ * <p>
+ * Being read from one snapshot, the totals reconcile: e.g. the balances of a currency differ from those of
+ * an earlier report by exactly the money the transfers that succeeded in between moved in and out of it.
+ */
+public final class Reports {
+
+    private static final Comparator<Currency> BY_CODE = Comparator.comparing(Currency::getCurrencyCode);
+
+    private Reports() {
+    }
+
+    /**
+     * Totals the balances of the accounts by currency. Accounts without a currency, whose balance is not in
+     * minor units of any, are left out.
+     *
+     * @return the number of accounts and their total balance per currency
+     */
+    public static JsonObject balances(LedgerSnapshot snapshot) {
+        Map<Currency, Totals> totals = snapshot.balances()
+                .filter(balance -> balance.getCurrency() != null)
+                .collect(Collectors.groupingBy(LedgerSnapshot.Balance::getCurrency, () -> new TreeMap<>(BY_CODE),
+                        Collector.of(Totals::new, (sum, balance) -> sum.add(balance.getBalanceMinor(), 0), Totals::merge)));
+        JsonObject currencies = new JsonObject();
+        totals.forEach((currency, sum) -> currencies.put(currency.getCurrencyCode(), new JsonObject()
+                .put("accounts", sum.count)
+                .put("balance", Money.toDecimal(sum.amount, currency).toPlainString())));
+        return new JsonObject()
+                .put("takenAt", snapshot.getTakenAt())
+                .put("currencies", currencies);
+    }
+
+    /**
+     * Totals the transfers created before the snapshot by the status they had then. Transfers without a
+     * currency, which never move money, are left out.
+     *
+     * @param transfers all transfers
+     * @return the number of transfers, their total amount and their total fee per status and currency
+     */
+    public static JsonObject transfers(LedgerSnapshot snapshot, Collection<Transfer> transfers) {
+        Map<TransferStatus, Map<Currency, Totals>> totals = transfers.parallelStream()
+                .filter(transfer -> transfer.getCurrency() != null)
+                .map(transfer -> new Status(transfer, snapshot.statusOf(transfer)))
+                .filter(status -> status.status != null)
+                .collect(Collectors.groupingBy(status -> status.status, () -> new EnumMap<>(TransferStatus.class),
+                        Collectors.groupingBy(status -> status.transfer.getCurrency(), () -> new TreeMap<>(BY_CODE),
+                                Collector.of(Totals::new, (sum, status) -> sum.add(status.transfer.getAmountMinor(), status.fee()), Totals::merge))));
+        JsonObject statuses = new JsonObject();
+        for (TransferStatus status : TransferStatus.values()) {
+            JsonObject currencies = new JsonObject();
+            totals.getOrDefault(status, Collections.emptyMap()).forEach((currency, sum) -> currencies.put(currency.getCurrencyCode(), new JsonObject()
+                    .put("transfers", sum.count)
+                    .put("amount", Money.toDecimal(sum.amount, currency).toPlainString())
+                    .put("fee", Money.toDecimal(sum.fee, currency).toPlainString())));
+            statuses.put(status.name(), currencies);
+        }
+        return new JsonObject()
+                .put("takenAt", snapshot.getTakenAt())
+                .put("statuses", statuses);
+    }
+
+    /**
+     * A transfer with the status it had at the time of the snapshot.
+     */
+    private static final class Status {
+
+        final Transfer transfer;
+        final TransferStatus status;
+
+        Status(Transfer transfer, TransferStatus status) {
+            this.transfer = transfer;
+            this.status = status;
+        }
+
+        /**
+         * @return the fee charged, which a transfer only has once it succeeded
+         */
+        long fee() {
+            return status == TransferStatus.SUCCEED ? transfer.getFeeMinor() : 0;
+        }
+
+    }
+
+    /**
+     * A count and sums of minor units, failing rather than overflowing.
+     */
+    private static final class Totals {
+
+        long count;
+        long amount;
+        long fee;
+
+        void add(long amount, long fee) {
+            count++;
+            this.amount = Money.add(this.amount, amount);
+            this.fee = Money.add(this.fee, fee);
+        }
+
+        Totals merge(Totals other) {
+            count += other.count;
+            amount = Money.add(amount, other.amount);
+            fee = Money.add(fee, other.fee);
+            return this;
+        }
+
+    }
+
+}
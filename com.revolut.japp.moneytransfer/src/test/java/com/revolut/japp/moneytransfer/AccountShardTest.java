@@ -0,0 +1,191 @@
+package com.revolut.japp.moneytransfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Currency;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.fees.FeeSchedule;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class AccountShardTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private final Vertx vertx = Vertx.vertx();
+    private final Bank bank = new Bank();
+    private final AccountLedger ledger = bank.getLedger();
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void creditsReceiverAndFeeAccountOnTheirShards() throws Exception {
+        start(30000);
+        chargeFees(1003);
+        ledger.add(new Account(1000, "from", 10000, EUR));
+        ledger.add(new Account(1001, "to", 0, EUR));
+        ledger.add(new Account(1003, "fees", 0, EUR));
+
+        Transfer transfer = transfer(1000, 1001, 5000);
+        assertThat(execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(ledger.get(1000).getBalanceMinor()).isEqualTo(4900);
+        assertThat(ledger.get(1001).getBalanceMinor()).isEqualTo(5000);
+        assertThat(ledger.get(1003).getBalanceMinor()).isEqualTo(100);
+        assertThat(transfer.getFeeMinor()).isEqualTo(100);
+        assertThat(transfer.getLegs()).isNull();
+    }
+
+    @Test
+    public void refundsTheSenderWhenTheCreditIsRefused() throws Exception {
+        start(30000);
+        ledger.add(new Account(1000, "from", 10000, EUR));
+        ledger.add(new Account(1001, "full", Long.MAX_VALUE - 1, EUR));
+
+        Transfer transfer = transfer(1000, 1001, 5000);
+        assertThat(execute(transfer)).isEqualTo(TransferStatus.FAILED);
+        assertThat(ledger.get(1000).getBalanceMinor()).isEqualTo(10000);
+        assertThat(ledger.get(1001).getBalanceMinor()).isEqualTo(Long.MAX_VALUE - 1);
+        assertThat(transfer.getLegs()).isNull();
+    }
+
+    @Test
+    public void refundsTheFeeWhenTheFeeAccountRefusesIt() throws Exception {
+        start(30000);
+        chargeFees(1003);
+        ledger.add(new Account(1000, "from", 10000, EUR));
+        ledger.add(new Account(1001, "to", 0, EUR));
+        ledger.add(new Account(1003, "full", Long.MAX_VALUE - 1, EUR));
+
+        Transfer transfer = transfer(1000, 1001, 5000);
+        assertThat(execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(ledger.get(1000).getBalanceMinor()).isEqualTo(5000);
+        assertThat(ledger.get(1001).getBalanceMinor()).isEqualTo(5000);
+        assertThat(transfer.getFeeMinor()).isZero();
+    }
+
+    @Test
+    public void sendsATimedOutCreditAgainWithoutCreditingTwice() throws Exception {
+        start(200);
+        AtomicInteger dropped = new AtomicInteger();
+        vertx.eventBus().addInterceptor(context -> {
+            Object body = context.message().body();
+            // the empty reply of the first credit is lost
+            if (body instanceof JsonObject && ((JsonObject) body).isEmpty() && dropped.getAndIncrement() == 0) {
+                return;
+            }
+            context.next();
+        });
+        ledger.add(new Account(1000, "from", 10000, EUR));
+        ledger.add(new Account(1001, "to", 0, EUR));
+
+        Transfer transfer = transfer(1000, 1001, 5000);
+        assertThat(execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(dropped.get()).isEqualTo(2);
+        assertThat(ledger.get(1000).getBalanceMinor()).isEqualTo(5000);
+        assertThat(ledger.get(1001).getBalanceMinor()).isEqualTo(5000);
+    }
+
+    @Test
+    public void answersAnInvalidUpdateWithoutChangingTheAccount() throws Exception {
+        start(30000);
+        ledger.add(new Account(1000, "Ann", 10000, EUR));
+        JsonObject update = new JsonObject()
+                .put("op", AccountShard.OP_UPDATE)
+                .put("account", 1000)
+                .put("body", new JsonObject().put("name", "Bo").put("balance", "ten"));
+        CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+        vertx.eventBus().<JsonObject>send(AccountShard.address(AccountShard.shardOf(1000, 2)), update, result -> {
+            if (result.succeeded()) {
+                reply.complete(result.result().body());
+            } else {
+                reply.completeExceptionally(result.cause());
+            }
+        });
+        assertThat(reply.get(10, TimeUnit.SECONDS).getBoolean("updated")).isFalse();
+        assertThat(ledger.get(1000).getUserName()).isEqualTo("Ann");
+    }
+
+    @Test
+    public void replaySettlesTransfersInterruptedBetweenTheirLegs() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        JsonObject config = new JsonObject().put("journal", new JsonObject().put("dir", dir.toString()).put("snapshotInterval", 0));
+        Vertx crashed = Vertx.vertx();
+        Transfer debited;
+        Transfer credited;
+        try {
+            AccountLedger before = Bank.shared(crashed, config).getLedger();
+            before.add(new Account(1000, "from", 10000, EUR));
+            before.add(new Account(1001, "to", 0, EUR));
+            debited = transfer(Bank.shared(crashed, config), 1000, 1001, 3000);
+            credited = transfer(Bank.shared(crashed, config), 1000, 1001, 2000);
+            assertThat(before.debitLeg(debited, new TransferLegs(3000, 0, EUR, 3000, EUR, -1, 0, null, 0))).isTrue();
+            assertThat(before.debitLeg(credited, new TransferLegs(2000, 0, EUR, 2000, EUR, -1, 0, null, 0))).isTrue();
+            assertThat(before.creditLeg(credited, false)).isTrue();
+            CompletableFuture<Void> durable = new CompletableFuture<>();
+            Bank.shared(crashed, config).whenDurable(result -> durable.complete(null));
+            durable.get(5, TimeUnit.SECONDS);
+        } finally {
+            crashed.close();
+        }
+
+        Bank replayed = Bank.shared(vertx, config);
+        assertThat(replayed.getTransfers().get(debited.getId()).getStatus()).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(replayed.getTransfers().get(credited.getId()).getStatus()).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(replayed.getTransfers().get(credited.getId()).getLegs()).isNull();
+        assertThat(replayed.getLedger().get(1000).getBalanceMinor()).isEqualTo(5000);
+        assertThat(replayed.getLedger().get(1001).getBalanceMinor()).isEqualTo(5000);
+    }
+
+    private void start(long creditTimeout) {
+        for (int shard = 0; shard < 2; shard++) {
+            new AccountShard(vertx, bank, shard, 2, creditTimeout).register();
+        }
+    }
+
+    private void chargeFees(int accountId) {
+        ledger.setFees(FeeSchedule.parse(new JsonObject().put("account", accountId).put("rules", new JsonArray()
+                .add(new JsonObject().put("currency", "EUR").put("from", "0").put("rate", "0.02")))));
+    }
+
+    private Transfer transfer(int from, int to, long amount) {
+        return transfer(bank, from, to, amount);
+    }
+
+    private static Transfer transfer(Bank bank, int from, int to, long amount) {
+        Transfer transfer = new Transfer(Transfer.getIssuedIds(), from, to, amount, EUR, null, TransferStatus.PENDING);
+        bank.addTransfer(transfer);
+        return transfer;
+    }
+
+    private TransferStatus execute(Transfer transfer) throws Exception {
+        CompletableFuture<TransferStatus> status = new CompletableFuture<>();
+        JsonObject debit = new JsonObject().put("op", AccountShard.OP_DEBIT).put("transfer", transfer.getId());
+        vertx.eventBus().<JsonObject>send(AccountShard.address(AccountShard.shardOf(transfer.getFromAccountId(), 2)), debit, reply -> {
+            if (reply.succeeded()) {
+                status.complete(TransferStatus.valueOf(reply.result().body().getString("status")));
+            } else {
+                status.completeExceptionally(reply.cause());
+            }
+        });
+        return status.get(10, TimeUnit.SECONDS);
+    }
+
+}
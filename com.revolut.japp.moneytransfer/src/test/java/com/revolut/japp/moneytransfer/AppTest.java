@@ -9,6 +9,7 @@ import com.jayway.restassured.RestAssured;
 import com.jayway.restassured.response.ValidatableResponse;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.isOneOf;
 
 /**
  * Unit test for simple App.
@@ -210,18 +211,47 @@ public class AppTest
     }
 
     @Test
-    public void successUpdateTransfer() {
+    public void successUpdateTransfer() throws InterruptedException {
         put("api/transfers/1")
                 .then()
                 .assertThat()
+                .statusCode(isOneOf(200, 202));
+        settled("/api/transfers/1")
                 .body("status", equalTo("SUCCEED"));
     }
 
     @Test
-    public void failUpdateTransfer() {
-        put("api/transfers/0")
+    public void failUpdateTransfer() throws InterruptedException {
+        // more than the 234 EUR account 1 holds
+        final int id = given().body("{\n" +
+                "    \"fromAccountId\": \"1\",\n" +
+                "    \"toAccountId\": \"0\",\n" +
+                "    \"amount\": \"100000\",\n" +
+                "    \"currency\": \"EUR\",\n" +
+                "    \"comment\": \"too much\"\n" +
+                "}")
+                .when()
+                .post("api/transfers")
                 .then()
                 .assertThat()
+                .statusCode(201)
+                .extract()
+                .jsonPath().getInt("id");
+        put("api/transfers/" + id)
+                .then()
+                .assertThat()
+                .statusCode(isOneOf(200, 202));
+        settled("/api/transfers/" + id)
                 .body("status", equalTo("FAILED"));
     }
+
+    /**
+     * Polls a transfer until the settlement queue has executed it.
+     */
+    private static ValidatableResponse settled(String path) throws InterruptedException {
+        for (int i = 0; i < 50 && "PENDING".equals(get(path).jsonPath().getString("status")); i++) {
+            Thread.sleep(100);
+        }
+        return get(path).then().assertThat();
+    }
 }
@@ -0,0 +1,55 @@
+package com.revolut.japp.moneytransfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Currency;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Account;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class BankTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    private final Bank bank = new Bank();
+
+    @Test
+    public void appliesEveryValidField() {
+        Account account = new Account(1, "Ann", 1250, EUR);
+        assertThat(bank.update(account, new JsonObject().put("name", "Bo").put("balance", "20.5"))).isTrue();
+        assertThat(account.getUserName()).isEqualTo("Bo");
+        assertThat(account.getBalanceMinor()).isEqualTo(2050);
+
+        assertThat(bank.update(account, new JsonObject().put("balance", 300).put("currency", "JPY"))).isTrue();
+        assertThat(account.getCurrency()).isEqualTo(JPY);
+        assertThat(account.getBalanceMinor()).isEqualTo(300);
+        assertThat(bank.update(account, new JsonObject().put("name", ""))).isFalse();
+    }
+
+    @Test
+    public void changesNothingWhenAFieldIsInvalid() {
+        Account account = new Account(1, "Ann", 1250, EUR);
+        JsonObject[] invalid = {
+                new JsonObject().put("name", "Bo").put("balance", "12,50"),
+                new JsonObject().put("name", "Bo").put("balance", "-1"),
+                new JsonObject().put("name", "Bo").put("balance", "1e99999999"),
+                new JsonObject().put("name", "Bo").put("balance", "1.001"),
+                new JsonObject().put("name", "Bo").put("currency", "XYZ"),
+                new JsonObject().put("name", "Bo").put("balance", "1.5").put("currency", "JPY"),
+                new JsonObject().put("name", "Bo").put("currency", "JPY"),
+                new JsonObject().put("name", new JsonArray()).put("balance", "1"),
+        };
+        for (JsonObject json : invalid) {
+            assertThat(bank.update(account, json)).as(json.encode()).isFalse();
+            assertThat(account.getUserName()).isEqualTo("Ann");
+            assertThat(account.getBalanceMinor()).isEqualTo(1250);
+            assertThat(account.getCurrency()).isEqualTo(EUR);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.revolut.japp.moneytransfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+public class BinaryServerTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private final Vertx vertx = Vertx.vertx();
+    private final BlockingQueue<Buffer> responses = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void answersPipelinedRequestsInOrder() throws Exception {
+        Bank bank = new Bank();
+        bank.getLedger().add(new Account(1, "from", 10000, EUR));
+        bank.getLedger().add(new Account(2, "to", 0, EUR));
+        Buffer requests = getAccount(1, 1)
+                .appendBuffer(getAccount(2, 99))
+                .appendBuffer(createTransfer(3, 1, 2, 2500, "EUR", true))
+                .appendBuffer(getAccount(4, 2));
+        NetSocket socket = connect(bank);
+        // frames split at arbitrary points are put back together
+        for (int i = 0; i < requests.length(); i += 3) {
+            socket.write(requests.getBuffer(i, Math.min(i + 3, requests.length())));
+        }
+
+        Buffer found = next();
+        assertThat(found.getInt(0)).isEqualTo(1);
+        assertThat(found.getByte(4)).isEqualTo(BinaryServer.OK);
+        assertThat(found.getInt(5)).isEqualTo(1);
+        assertThat(found.getLong(9)).isEqualTo(10000);
+        assertThat(found.getString(17, 20, "US-ASCII")).isEqualTo("EUR");
+        Buffer missing = next();
+        assertThat(missing.getInt(0)).isEqualTo(2);
+        assertThat(missing.getByte(4)).isEqualTo(BinaryServer.NOT_FOUND);
+        assertThat(missing.length()).isEqualTo(5);
+        Buffer created = next();
+        assertThat(created.getInt(0)).isEqualTo(3);
+        assertThat(created.getByte(4)).isEqualTo(BinaryServer.OK);
+        assertThat(created.getInt(9)).isEqualTo(1);
+        assertThat(created.getInt(13)).isEqualTo(2);
+        assertThat(created.getLong(17)).isEqualTo(2500);
+        assertThat(created.getByte(28)).isEqualTo((byte) TransferStatus.SUCCEED.ordinal());
+        Buffer credited = next();
+        assertThat(credited.getInt(0)).isEqualTo(4);
+        assertThat(credited.getLong(9)).isEqualTo(2500);
+    }
+
+    @Test
+    public void refusesFramesOfTheWrongLengthBeforeActingOnThem() throws Exception {
+        Bank bank = new Bank();
+        bank.getLedger().add(new Account(1, "from", 10000, EUR));
+        bank.getLedger().add(new Account(2, "to", 0, EUR));
+        Buffer create = createTransfer(3, 1, 2, 2500, "EUR", true);
+        int issued = Transfer.getIssuedIds();
+        NetSocket socket = connect(bank);
+        socket.write(frame(1, BinaryServer.CREATE_TRANSFER, create.getBuffer(9, create.length() - 1)));
+        socket.write(frame(2, BinaryServer.CREATE_TRANSFER, create.getBuffer(9, create.length()).appendByte((byte) 0)));
+        socket.write(frame(3, BinaryServer.GET_ACCOUNT, Buffer.buffer().appendShort((short) 1)));
+        socket.write(frame(4, (byte) 9, Buffer.buffer().appendInt(1)));
+        socket.write(frame(5, BinaryServer.CREATE_TRANSFER, create.getBuffer(9, 29).setString(16, "EU\u0000", "US-ASCII")));
+        socket.write(getAccount(6, 1));
+
+        for (int tag = 1; tag <= 5; tag++) {
+            Buffer refused = next();
+            assertThat(refused.getInt(0)).isEqualTo(tag);
+            assertThat(refused.getByte(4)).isEqualTo(BinaryServer.BAD_REQUEST);
+        }
+        Buffer account = next();
+        assertThat(account.getInt(0)).isEqualTo(6);
+        assertThat(account.getLong(9)).isEqualTo(10000);
+        for (int id = issued; id < Transfer.getIssuedIds(); id++) {
+            assertThat(bank.getTransfers().get(id)).isNull();
+        }
+
+        socket.write(Buffer.buffer().appendInt(4).appendInt(7));
+        closed.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void answersAccountsWithoutCurrencyWithAnErrorAndGoesOn() throws Exception {
+        Bank bank = new Bank();
+        bank.getLedger().add(new Account(1, "from", 10000, EUR));
+        Account unscaled = new Account(2, "legacy", 0, null);
+        unscaled.setBalance(new BigDecimal("12.5"));
+        bank.getLedger().add(unscaled);
+        NetSocket socket = connect(bank);
+        socket.write(getAccount(1, 2).appendBuffer(getAccount(2, 1)));
+        socket.write(getAccount(3, 2));
+        socket.write(getAccount(4, 1));
+
+        for (int tag = 1; tag <= 4; tag++) {
+            Buffer response = next();
+            assertThat(response.getInt(0)).isEqualTo(tag);
+            assertThat(response.getByte(4)).isEqualTo(tag % 2 == 1 ? BinaryServer.ERROR : BinaryServer.OK);
+        }
+    }
+
+    @Test
+    public void answersChangesOnceTheyAreDurable() throws Exception {
+        DurableLater bank = new DurableLater();
+        bank.getLedger().add(new Account(1, "from", 10000, EUR));
+        bank.getLedger().add(new Account(2, "to", 0, EUR));
+        NetSocket socket = connect(bank);
+        socket.write(createTransfer(1, 1, 2, 2500, "EUR", true).appendBuffer(getAccount(2, 2)));
+
+        assertThat(responses.poll(300, TimeUnit.MILLISECONDS)).isNull();
+        bank.release();
+        Buffer created = next();
+        assertThat(created.getInt(0)).isEqualTo(1);
+        assertThat(created.getByte(4)).isEqualTo(BinaryServer.OK);
+        // the read after the change waits its turn behind it
+        assertThat(next().getInt(0)).isEqualTo(2);
+    }
+
+    @Test
+    public void stopsReadingWhileTooManyRequestsAreInFlight() throws Exception {
+        DurableLater bank = new DurableLater();
+        int count = 40000;
+        Buffer requests = Buffer.buffer(count * 29);
+        for (int tag = 0; tag < count; tag++) {
+            requests.appendBuffer(createTransfer(tag, 1, 2, 1, "EUR", false));
+        }
+        int issued = Transfer.getIssuedIds();
+        NetSocket socket = connect(bank);
+        socket.write(requests);
+
+        Thread.sleep(500);
+        assertThat(Transfer.getIssuedIds() - issued).isBetween(4096, count / 2);
+        bank.release();
+        for (int tag = 0; tag < count; tag++) {
+            Buffer response = next();
+            assertThat(response.getInt(0)).isEqualTo(tag);
+            assertThat(response.getByte(4)).isEqualTo(BinaryServer.OK);
+        }
+        assertThat(Transfer.getIssuedIds() - issued).isEqualTo(count);
+    }
+
+    private NetSocket connect(Bank bank) throws Exception {
+        CompletableFuture<NetServer> server = new CompletableFuture<>();
+        new BinaryServer(vertx, bank, 1).listen(0, result -> complete(server, result));
+        int port = server.get(5, TimeUnit.SECONDS).actualPort();
+        CompletableFuture<NetSocket> socket = new CompletableFuture<>();
+        vertx.createNetClient().connect(port, "localhost", result -> complete(socket, result));
+        NetSocket connected = socket.get(5, TimeUnit.SECONDS);
+        RecordParser parser = RecordParser.newFixed(4, null);
+        parser.setOutput(new Handler<Buffer>() {
+            private boolean header = true;
+
+            @Override
+            public void handle(Buffer buffer) {
+                if (header) {
+                    parser.fixedSizeMode(buffer.getInt(0));
+                } else {
+                    responses.add(buffer);
+                    parser.fixedSizeMode(4);
+                }
+                header = !header;
+            }
+        });
+        connected.handler(parser);
+        connected.closeHandler(v -> closed.complete(null));
+        return connected;
+    }
+
+    private Buffer next() throws InterruptedException {
+        Buffer response = responses.poll(10, TimeUnit.SECONDS);
+        assertThat(response).as("response").isNotNull();
+        return response;
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, AsyncResult<T> result) {
+        if (result.succeeded()) {
+            future.complete(result.result());
+        } else {
+            future.completeExceptionally(result.cause());
+        }
+    }
+
+    private static Buffer getAccount(int tag, int id) {
+        return frame(tag, BinaryServer.GET_ACCOUNT, Buffer.buffer().appendInt(id));
+    }
+
+    private static Buffer createTransfer(int tag, int from, int to, long amount, String currency, boolean execute) {
+        return frame(tag, BinaryServer.CREATE_TRANSFER, Buffer.buffer()
+                .appendInt(from)
+                .appendInt(to)
+                .appendLong(amount)
+                .appendString(currency, StandardCharsets.US_ASCII.name())
+                .appendByte((byte) (execute ? 1 : 0)));
+    }
+
+    private static Buffer frame(int tag, byte op, Buffer body) {
+        return Buffer.buffer().appendInt(5 + body.length()).appendInt(tag).appendByte(op).appendBuffer(body);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.revolut.japp.moneytransfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.revolut.japp.moneytransfer.journal.Journal;
+import com.revolut.japp.moneytransfer.journal.JournalHandler;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+/**
+ * A bank with a journal whose changes only become durable once released.
+ */
+final class DurableLater extends Bank {
+
+    private final Journal journal;
+    private final List<Handler<AsyncResult<Void>>> waiting = new ArrayList<>();
+    private boolean released;
+
+    DurableLater() throws IOException {
+        journal = Journal.open(Files.createTempDirectory("journal"), 1 << 20, new JournalHandler() {
+            @Override
+            public void account(Account account) {
+            }
+
+            @Override
+            public void accountRemoved(int id) {
+            }
+
+            @Override
+            public void transfer(Transfer transfer) {
+            }
+
+            @Override
+            public void credited(int id, long amount, long epoch) {
+            }
+        });
+    }
+
+    @Override
+    public Journal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void whenDurable(Handler<AsyncResult<Void>> handler) {
+        synchronized (waiting) {
+            if (!released) {
+                waiting.add(handler);
+                return;
+            }
+        }
+        handler.handle(Future.succeededFuture());
+    }
+
+    void release() {
+        List<Handler<AsyncResult<Void>>> handlers;
+        synchronized (waiting) {
+            released = true;
+            handlers = new ArrayList<>(waiting);
+        }
+        handlers.forEach(handler -> handler.handle(Future.succeededFuture()));
+    }
+
+}
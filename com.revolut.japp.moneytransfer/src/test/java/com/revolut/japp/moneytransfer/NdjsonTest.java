@@ -0,0 +1,162 @@
+package com.revolut.japp.moneytransfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+public class NdjsonTest {
+
+    private static final int RECORDS = 200000;
+    private static final String PADDING = new String(new char[100]).replace('\0', 'x');
+
+    private final Vertx vertx = Vertx.vertx();
+    private final HttpClient client = vertx.createHttpClient();
+    private final AtomicInteger pulled = new AtomicInteger();
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void exportsOnlyAsFastAsTheClientReads() throws Exception {
+        int port = listen(request -> Ndjson.export(request.response(), records(), (out, i) -> out.value(PADDING)));
+        CompletableFuture<HttpClientResponse> paused = new CompletableFuture<>();
+        client.getNow(port, "localhost", "/", response -> {
+            response.pause();
+            paused.complete(response);
+        });
+        HttpClientResponse response = paused.get(5, TimeUnit.SECONDS);
+        assertThat(response.getHeader("content-type")).isEqualTo(Ndjson.CONTENT_TYPE);
+
+        Thread.sleep(500);
+        assertThat(pulled.get()).isLessThan(RECORDS / 2);
+        int[] lines = new int[1];
+        CompletableFuture<Integer> ended = new CompletableFuture<>();
+        vertx.runOnContext(v -> {
+            response.handler(buffer -> {
+                for (int i = 0; i < buffer.length(); i++) {
+                    if (buffer.getByte(i) == '\n') {
+                        lines[0]++;
+                    }
+                }
+            });
+            response.endHandler(end -> ended.complete(lines[0]));
+            response.resume();
+        });
+        assertThat(ended.get(30, TimeUnit.SECONDS)).isEqualTo(RECORDS);
+        assertThat(pulled.get()).isEqualTo(RECORDS);
+    }
+
+    @Test
+    public void stopsExportingOnceTheClientIsGone() throws Exception {
+        int port = listen(request -> Ndjson.export(request.response(), records(), (out, i) -> out.value(PADDING)));
+        CompletableFuture<Void> paused = new CompletableFuture<>();
+        client.getNow(port, "localhost", "/", response -> {
+            response.pause();
+            paused.complete(null);
+        });
+        paused.get(5, TimeUnit.SECONDS);
+        Thread.sleep(200);
+
+        client.close();
+        Thread.sleep(300);
+        int afterClose = pulled.get();
+        Thread.sleep(300);
+        assertThat(pulled.get()).isEqualTo(afterClose).isLessThan(RECORDS);
+    }
+
+    @Test
+    public void importWaitsForTheJournalEveryWindowOfLines() throws Exception {
+        DurableLater bank = new DurableLater();
+        AtomicInteger decoded = new AtomicInteger();
+        int port = listen(request -> Ndjson.read(request, Vertx.currentContext(), bank, line -> {
+            decoded.incrementAndGet();
+            if (line.getByte(0) == 'x') {
+                throw new IllegalArgumentException("not a record");
+            }
+        }, counts -> request.response().end(counts.encode())));
+
+        CompletableFuture<JsonObject> counts = new CompletableFuture<>();
+        HttpClientRequest request = client.request(HttpMethod.POST, port, "localhost", "/", response ->
+                response.bodyHandler(body -> counts.complete(new JsonObject(body.toString()))));
+        request.setChunked(true);
+        for (int i = 0; i < 10000; i++) {
+            request.write(i % 1000 == 0 ? "x\n" : "{}\n");
+            if (i % 2500 == 0) {
+                request.write("\n  \n");
+            }
+        }
+        request.end("{}");
+
+        Thread.sleep(500);
+        assertThat(decoded.get()).isBetween(4096, 2 * 4096 - 1);
+        assertThat(counts.isDone()).isFalse();
+        bank.release();
+        JsonObject imported = counts.get(10, TimeUnit.SECONDS);
+        assertThat(imported.getLong("imported")).isEqualTo(9991);
+        assertThat(imported.getLong("failed")).isEqualTo(10);
+    }
+
+    @Test
+    public void refusesALineLongerThanTheLimitWithoutBufferingIt() throws Exception {
+        AtomicInteger decoded = new AtomicInteger();
+        int port = listen(request -> Ndjson.read(request, Vertx.currentContext(), new Bank(),
+                line -> decoded.incrementAndGet(), counts -> request.response().end(counts.encode())));
+
+        CompletableFuture<Integer> status = new CompletableFuture<>();
+        HttpClientRequest request = client.request(HttpMethod.POST, port, "localhost", "/",
+                response -> status.complete(response.statusCode()));
+        request.exceptionHandler(e -> status.complete(-1));
+        request.setChunked(true);
+        request.write("{}\n{}\n");
+        for (int i = 0; i < Ndjson.MAX_LINE / 1000 + 1; i++) {
+            request.write(new String(new char[1000]).replace('\0', 'x'));
+        }
+        assertThat(status.get(5, TimeUnit.SECONDS)).isEqualTo(413);
+        assertThat(decoded.get()).isEqualTo(2);
+    }
+
+    private Iterator<Integer> records() {
+        return new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return pulled.get() < RECORDS;
+            }
+
+            @Override
+            public Integer next() {
+                return pulled.getAndIncrement();
+            }
+        };
+    }
+
+    private int listen(Handler<HttpServerRequest> handler) throws Exception {
+        CompletableFuture<HttpServer> server = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(handler).listen(0, result -> {
+            if (result.succeeded()) {
+                server.complete(result.result());
+            } else {
+                server.completeExceptionally(result.cause());
+            }
+        });
+        return server.get(5, TimeUnit.SECONDS).actualPort();
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.revolut.japp.moneytransfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.ServerSocket;
+import java.util.Currency;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class TransferBatchTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private final Vertx vertx = Vertx.vertx();
+    private final HttpClient client = vertx.createHttpClient();
+    private Bank bank;
+    private int port;
+    private Buffer lastBody;
+
+    @Before
+    public void deploy() throws Exception {
+        port = freePort();
+        JsonObject config = new JsonObject().put("httpPort", port).put("binaryPort", freePort());
+        bank = Bank.shared(vertx, config);
+        bank.getLedger().add(new Account(1000, "from", 10000, EUR));
+        bank.getLedger().add(new Account(1001, "to", 0, EUR));
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new App(), new DeploymentOptions().setConfig(config), result -> {
+            if (result.succeeded()) {
+                deployed.complete(result.result());
+            } else {
+                deployed.completeExceptionally(result.cause());
+            }
+        });
+        deployed.get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void executesTheValidItemsInOrderAndReportsEachOne() throws Exception {
+        JsonArray batch = new JsonArray()
+                .add(transfer(1000, 1001, "60"))
+                .add(transfer(1000, 1001, "1").put("colour", "red"))
+                .add(transfer(1000, 1001, "60").putNull("amount"))
+                .add(transfer(1000, 1001, "60"))
+                .add(transfer(1001, 1000, "10"))
+                .add(transfer(1000, 1001, "30"))
+                .add(transfer(1000, 1001, "1").putNull("currency"));
+
+        HttpClientResponse response = post(batch.encode());
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.getHeader("content-type")).isEqualTo("application/json; charset=utf-8");
+        JsonArray results = new JsonArray(lastBody.toString());
+        assertThat(results.size()).isEqualTo(7);
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.getJsonObject(i).getInteger("index")).isEqualTo(i);
+        }
+        assertThat(results.getJsonObject(1).fieldNames()).containsOnly("index", "error");
+        assertThat(results.getJsonObject(1).getString("error")).isEqualTo("invalid transfer");
+        assertThat(results.getJsonObject(2).getString("error")).isEqualTo("invalid transfer");
+        assertThat(results.getJsonObject(6).getString("error")).isEqualTo("amount and currency are required");
+
+        // executed in the order given: the second 60 finds too little left, the 10 sent back makes room for the 30
+        int[] executed = {0, 3, 4, 5};
+        TransferStatus[] statuses = {TransferStatus.SUCCEED, TransferStatus.FAILED, TransferStatus.SUCCEED, TransferStatus.SUCCEED};
+        int previousId = -1;
+        for (int i = 0; i < executed.length; i++) {
+            JsonObject result = results.getJsonObject(executed[i]);
+            assertThat(result.fieldNames()).containsOnly("index", "id", "status");
+            assertThat(result.getString("status")).isEqualTo(statuses[i].name());
+            Transfer stored = bank.getTransfers().get(result.getInteger("id"));
+            assertThat(stored.getStatus()).isEqualTo(statuses[i]);
+            assertThat(stored.getId()).isGreaterThan(previousId);
+            previousId = stored.getId();
+        }
+        assertThat(bank.getLedger().get(1000).getBalanceMinor()).isEqualTo(10000 - 6000 + 1000 - 3000);
+        assertThat(bank.getLedger().get(1001).getBalanceMinor()).isEqualTo(6000 - 1000 + 3000);
+    }
+
+    @Test
+    public void refusesABodyThatIsNotAnArrayWithoutExecutingAnything() throws Exception {
+        int issued = Transfer.getIssuedIds();
+        assertThat(post("[" + transfer(1000, 1001, "60").encode() + ",").statusCode()).isEqualTo(400);
+        assertThat(post(transfer(1000, 1001, "60").encode()).statusCode()).isEqualTo(400);
+        for (int id = issued; id < Transfer.getIssuedIds(); id++) {
+            assertThat(bank.getTransfers().get(id)).isNull();
+        }
+        assertThat(bank.getLedger().get(1000).getBalanceMinor()).isEqualTo(10000);
+    }
+
+    @Test
+    public void answersAnEmptyBatchWithAnEmptyArray() throws Exception {
+        HttpClientResponse response = post("[]");
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(lastBody.toString()).isEqualTo("[]");
+    }
+
+    private HttpClientResponse post(String body) throws Exception {
+        CompletableFuture<HttpClientResponse> response = new CompletableFuture<>();
+        client.post(port, "localhost", "/api/transfers/batch", result -> result.bodyHandler(read -> {
+            lastBody = read;
+            response.complete(result);
+        })).exceptionHandler(response::completeExceptionally).end(body);
+        return response.get(10, TimeUnit.SECONDS);
+    }
+
+    private static JsonObject transfer(int from, int to, String amount) {
+        return new JsonObject().put("fromAccountId", from).put("toAccountId", to).put("amount", amount).put("currency", "EUR");
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
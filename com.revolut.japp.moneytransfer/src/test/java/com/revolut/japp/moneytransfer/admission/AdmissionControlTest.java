@@ -0,0 +1,81 @@
+package com.revolut.japp.moneytransfer.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.admission.AdmissionControl.Decision;
+import com.revolut.japp.moneytransfer.admission.AdmissionControl.Priority;
+
+public class AdmissionControlTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void throttlesClientsOutOfTokensOnly() {
+        AdmissionControl admission = new AdmissionControl(10, 2, 1, 100, 50, now::get);
+        assertThat(admit(admission, "a", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admit(admission, "a", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admit(admission, "a", Priority.NORMAL)).isEqualTo(Decision.THROTTLED);
+        assertThat(admit(admission, "b", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(admit(admission, "a", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admit(admission, "a", Priority.NORMAL)).isEqualTo(Decision.THROTTLED);
+        assertThat(admission.getThrottled()).isEqualTo(2);
+        assertThat(admission.getInFlight()).isZero();
+    }
+
+    @Test
+    public void shedsBulkRequestsBeforeTransfers() {
+        AdmissionControl admission = new AdmissionControl(1000, 1000, 1, 8, 50, now::get);
+        for (int i = 0; i < 4; i++) {
+            assertThat(admission.admit("a", Priority.BULK)).isEqualTo(Decision.ADMITTED);
+        }
+        assertThat(admission.admit("a", Priority.BULK)).isEqualTo(Decision.SHED);
+        assertThat(admission.admit("a", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admission.admit("a", Priority.NORMAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admission.admit("a", Priority.NORMAL)).isEqualTo(Decision.SHED);
+        assertThat(admission.admit("a", Priority.CRITICAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admission.admit("a", Priority.CRITICAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admission.admit("a", Priority.CRITICAL)).isEqualTo(Decision.SHED);
+
+        admission.release();
+        assertThat(admission.admit("a", Priority.CRITICAL)).isEqualTo(Decision.ADMITTED);
+        assertThat(admission.getShed()).isEqualTo(3);
+    }
+
+    @Test
+    public void shrinksLimitWhileLoopsLagAndGrowsItWhenSaturated() {
+        AdmissionControl admission = new AdmissionControl(1000, 1000, 16, 64, 50, now::get);
+        for (int i = 0; i < 10; i++) {
+            tick(admission, 80);
+        }
+        assertThat(admission.getLimit()).isEqualTo(16);
+
+        tick(admission, 1);
+        assertThat(admission.getLimit()).isEqualTo(16);
+        for (int i = 0; i < 16; i++) {
+            admission.admit("c" + i, Priority.CRITICAL);
+        }
+        tick(admission, 1);
+        assertThat(admission.getLimit()).isEqualTo(17);
+    }
+
+    private static Decision admit(AdmissionControl admission, String client, Priority priority) {
+        Decision decision = admission.admit(client, priority);
+        if (decision == Decision.ADMITTED) {
+            admission.release();
+        }
+        return decision;
+    }
+
+    private void tick(AdmissionControl admission, long lagMillis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        admission.lag(TimeUnit.MILLISECONDS.toNanos(lagMillis));
+    }
+
+}
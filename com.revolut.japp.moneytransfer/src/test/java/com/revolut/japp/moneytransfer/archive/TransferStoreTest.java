@@ -0,0 +1,68 @@
+package com.revolut.japp.moneytransfer.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+public class TransferStoreTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void movesFinishedTransfersToTheArchiveOnceOldEnough() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        TransferStore store = new TransferStore(now::get);
+        store.archiveTo(TransferArchive.open(dir, transfer -> { }), 500);
+        Transfer done = new Transfer(1, 10, 11, 2500, EUR, "rent", TransferStatus.SUCCEED);
+        done.setFeeMinor(13);
+        done.setDiscount(0.25);
+        Transfer pending = new Transfer(2, 11, 10, 100, EUR, null, TransferStatus.PENDING);
+        Transfer failed = new Transfer(3, 10, 12, 0, null, "no currency", TransferStatus.FAILED);
+        failed.setAmount(new BigDecimal("0.125"));
+        store.put(done);
+        store.put(pending);
+        store.put(failed);
+
+        assertThat(store.archive()).isZero();
+        now.addAndGet(500);
+        assertThat(store.archive()).isEqualTo(2);
+        assertThat(store.inMemory()).containsExactly(pending);
+
+        Transfer archived = store.get(1);
+        assertThat(archived).isNotSameAs(done);
+        assertThat(archived.getAmountMinor()).isEqualTo(2500);
+        assertThat(archived.getFeeMinor()).isEqualTo(13);
+        assertThat(archived.getDiscount()).isEqualTo(0.25);
+        assertThat(archived.getComment()).isEqualTo("rent");
+        assertThat(archived.getStatus()).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(store.get(3).getCurrency()).isNull();
+        assertThat(store.get(3).getAmount()).isEqualTo(new BigDecimal("0.125"));
+        assertThat(store.get(4)).isNull();
+        assertThat(store.values()).extracting(Transfer::getId).containsExactly(1, 2, 3);
+
+        List<Integer> recovered = new ArrayList<>();
+        TransferStore reopened = new TransferStore(now::get);
+        reopened.archiveTo(TransferArchive.open(dir, transfer -> recovered.add(transfer.getId())), 500);
+        assertThat(recovered).containsExactly(1, 3);
+        assertThat(reopened.get(3).getComment()).isEqualTo("no currency");
+        assertThat(reopened.get(3).getAmount()).isEqualTo(new BigDecimal("0.125"));
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.revolut.japp.moneytransfer.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Currency;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+
+public class ModelCodecTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Test
+    public void encodesAccountsAsJacksonDoes() {
+        Account account = new Account("Ann \"A\\B\"\n\u00e9\u20ac", new BigDecimal("-12.5"), EUR);
+        assertThat(ModelCodec.encode(account).toString()).isEqualTo(Json.encode(account));
+        assertThat(account.getView(ModelCodec::encode).toString()).isEqualTo(Json.encode(account));
+
+        Account unknown = new Account();
+        unknown.setBalance(new BigDecimal("3.250"));
+        assertThat(ModelCodec.encode(unknown).toString()).isEqualTo(Json.encode(unknown));
+    }
+
+    @Test
+    public void encodesTransfersAsJacksonDoes() {
+        Transfer transfer = new Transfer(1, 2, new BigDecimal("1000.05"), EUR, "rent\t\u0001");
+        transfer.setFeeRate(0.015);
+        transfer.setFeeMinor(1500);
+        Transfer yen = new Transfer(3, 4, new BigDecimal("5000"), JPY, null);
+        yen.setStatus(TransferStatus.SUCCEED);
+        Transfer empty = new Transfer();
+        for (Transfer each : Arrays.asList(transfer, yen, empty)) {
+            assertThat(ModelCodec.encode(each).toString()).isEqualTo(Json.encode(each));
+        }
+        assertThat(ModelCodec.encodeTransfers(Arrays.asList(transfer, yen)).toString())
+                .isEqualTo(Json.encode(Arrays.asList(transfer, yen)));
+    }
+
+    @Test
+    public void writesAmountsWithOnlyTheFractionDigitsTheyNeed() {
+        assertThat(ModelCodec.encode(new Transfer(0, 1, new BigDecimal("650"), EUR, null)).toString())
+                .contains("\"amount\":650,");
+        assertThat(ModelCodec.encode(new Account(5, "Bo", 125050, EUR)).toString()).contains("\"balance\":1250.5,");
+        assertThat(ModelCodec.encode(new Account(6, "Bo", -5, EUR)).toString()).contains("\"balance\":-0.05,");
+        assertThat(ModelCodec.encode(new Account(7, "Bo", -300, EUR)).toString()).contains("\"balance\":-3,");
+        assertThat(new Account(5, "Bo", 125000, EUR).getBalance()).isEqualTo(new BigDecimal("1250"));
+    }
+
+    @Test
+    public void decodesWhatItEncodes() {
+        Transfer transfer = new Transfer(7, 0, 0, 0, null, null, TransferStatus.PENDING);
+        transfer.setFromAccountId(1);
+        transfer.setToAccountId(2);
+        transfer.setCurrency(EUR);
+        transfer.setAmount(new BigDecimal("99.99"));
+        transfer.setDiscount(0.5);
+        transfer.setComment("caf\u00e9 \"\\/\"");
+        transfer.setStatus(TransferStatus.FAILED);
+
+        Transfer decoded = ModelCodec.decodeTransfer(ModelCodec.encode(transfer));
+        assertThat(ModelCodec.encode(decoded).toString()).isEqualTo(ModelCodec.encode(transfer).toString());
+
+        Account account = new Account(5, "Bo", 1234, EUR);
+        Account copy = ModelCodec.decodeAccount(ModelCodec.encode(account));
+        assertThat(copy.getId()).isEqualTo(5);
+        assertThat(copy.getBalanceMinor()).isEqualTo(1234);
+        assertThat(copy.getUserName()).isEqualTo("Bo");
+    }
+
+    @Test
+    public void decodesFieldsInAnyOrderWithEscapesAndQuotedNumbers() {
+        Transfer transfer = ModelCodec.decodeTransfer(Buffer.buffer(
+                " { \"comment\" : \"a\\u0062\\nc\", \"amount\":\"10.5\", \"currency\":\"EUR\",\"fee\":3,"
+                        + "\"fromAccountId\":1, \"toAccountId\":\"2\" }\n"));
+        assertThat(transfer.getComment()).isEqualTo("ab\nc");
+        assertThat(transfer.getAmountMinor()).isEqualTo(1050);
+        assertThat(transfer.getFeeMinor()).isZero();
+        assertThat(transfer.getToAccountId()).isEqualTo(2);
+        assertThat(transfer.getStatus()).isEqualTo(TransferStatus.PENDING);
+    }
+
+    @Test
+    public void refusesWhatJacksonRefuses() {
+        assertThatThrownBy(() -> ModelCodec.decodeAccount(Buffer.buffer("{\"nickname\":{\"a\":[1]}}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeAccount(Buffer.buffer("{\"currency\":\"XYZW\"}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"status\":\"LOST\"}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"currency\":\"EUR\",\"amount\":1.001}")))
+                .isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"currency\":\"EUR\",\"amount\":null}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"amount\":1,}")))
+                .isInstanceOf(DecodeException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{} {}")))
+                .isInstanceOf(DecodeException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeAccount(Buffer.buffer("{\"userName\":12}")))
+                .isInstanceOf(DecodeException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"comment\":true}")))
+                .isInstanceOf(DecodeException.class);
+        assertThatThrownBy(() -> ModelCodec.decodeTransfer(Buffer.buffer("{\"currency\":1.5}")))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    public void refusesDeeplyNestedValuesWithoutOverflowingTheStack() {
+        StringBuilder deep = new StringBuilder("{\"nickname\":");
+        for (int i = 0; i < 100000; i++) {
+            deep.append('[');
+        }
+        assertThatThrownBy(() -> ModelCodec.decodeAccount(Buffer.buffer(deep.toString())))
+                .isInstanceOf(DecodeException.class)
+                .hasMessageContaining("nested too deeply");
+
+        StringBuilder nested = new StringBuilder("{\"nickname\":");
+        for (int i = 0; i < 100; i++) {
+            nested.append("{\"a\":[");
+        }
+        for (int i = 0; i < 100; i++) {
+            nested.append("]}");
+        }
+        // within the limit an unknown field is read whole and refused as usual
+        assertThatThrownBy(() -> ModelCodec.decodeAccount(Buffer.buffer(nested.append('}').toString())))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("unknown field");
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.revolut.japp.moneytransfer.fees;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+
+import io.vertx.core.json.JsonObject;
+
+public class FeeScheduleTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private static final FeeSchedule SCHEDULE = FeeSchedule.parse(new JsonObject("{\"account\": 9, \"rules\": [" +
+            "{\"currency\": \"EUR\", \"from\": \"1000\", \"rate\": \"0.002\"}," +
+            "{\"currency\": \"EUR\", \"from\": \"10\", \"rate\": \"0.005\", \"fixed\": \"0.25\"}]}"));
+
+    @Test
+    public void chargesTheRuleOfTheAmountBand() {
+        assertThat(SCHEDULE.getAccountId()).isEqualTo(9);
+        assertThat(SCHEDULE.fee(transfer("5"))).isEqualTo(0);
+        // 0.25 + 0.5% of 10.00
+        assertThat(SCHEDULE.fee(transfer("10"))).isEqualTo(30);
+        // 0.25 + 0.5% of 999.99, rounded half up
+        assertThat(SCHEDULE.fee(transfer("999.99"))).isEqualTo(525);
+        assertThat(SCHEDULE.fee(transfer("1000"))).isEqualTo(200);
+        assertThat(SCHEDULE.fee(new Transfer(0, 1, new BigDecimal("1000"), Currency.getInstance("USD"), null))).isEqualTo(0);
+        assertThat(FeeSchedule.NONE.fee(transfer("1000"))).isEqualTo(0);
+    }
+
+    @Test
+    public void appliesTheRateAndDiscountOfTheTransfer() {
+        Transfer transfer = transfer("100");
+        transfer.setFeeRate(0.01);
+        assertThat(SCHEDULE.fee(transfer)).isEqualTo(125);
+        transfer.setDiscount(0.2);
+        assertThat(SCHEDULE.fee(transfer)).isEqualTo(100);
+    }
+
+    @Test
+    public void rejectsInvalidRules() {
+        assertThatThrownBy(() -> FeeSchedule.parse(new JsonObject("{\"rules\": [{\"currency\": \"EUR\", \"rate\": \"-0.1\"}]}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FeeSchedule.parse(new JsonObject("{\"rules\": [{\"currency\": \"EUR\", \"fixed\": \"0.001\"}]}")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Transfer transfer(String amount) {
+        return new Transfer(0, 1, new BigDecimal(amount), EUR, null);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.revolut.japp.moneytransfer.fx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Currency;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class RateTableTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency GBP = Currency.getInstance("GBP");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    private static final RateTable RATES = RateTable.parse(new JsonObject(
+            "{\"base\":\"EUR\",\"rates\":{\"USD\":\"1.0842\",\"GBP\":0.8571,\"JPY\":\"161.5\"}}"));
+
+    @Test
+    public void convertsBetweenAnyTwoCurrencies() {
+        assertThat(RATES.convert(10000, EUR, USD)).isEqualTo(10842);
+        assertThat(RATES.convert(10842, USD, EUR)).isEqualTo(10000);
+        // 100.00 USD = 92.2339... EUR = 79.0537... GBP
+        assertThat(RATES.convert(10000, USD, GBP)).isEqualTo(7905);
+        assertThat(RATES.convert(1234, EUR, JPY)).isEqualTo(1993);
+        assertThat(RATES.convert(1993, JPY, EUR)).isEqualTo(1234);
+        assertThat(RATES.convert(5, EUR, EUR)).isEqualTo(5);
+        assertThat(RATES.convert(5, EUR, Currency.getInstance("CHF"))).isEqualTo(-1);
+        assertThat(RateTable.EMPTY.convert(5, EUR, USD)).isEqualTo(-1);
+    }
+
+    @Test
+    public void roundsHalfToEvenAndSurvivesLargeAmounts() {
+        RateTable half = RateTable.parse(new JsonObject("{\"base\":\"EUR\",\"rates\":{\"USD\":\"0.5\"}}"));
+        assertThat(half.convert(5, EUR, USD)).isEqualTo(2);
+        assertThat(half.convert(7, EUR, USD)).isEqualTo(4);
+
+        assertThat(RATES.convert(Long.MAX_VALUE / 2, EUR, GBP)).isEqualTo(3952676086394114172L);
+        assertThat(RATES.convert(Long.MAX_VALUE, EUR, JPY)).isEqualTo(-1);
+    }
+
+    @Test
+    public void refusesRatesWithHugeExponentsOrTooManyDigits() {
+        for (String rate : new String[] {"1e-999999999", "1e999999999", "1.5e-19", "1234567890.1234567891", "1e-20"}) {
+            assertThatThrownBy(() -> RateTable.parse(new JsonObject().put("base", "EUR")
+                    .put("rates", new JsonObject().put("USD", rate))))
+                    .as(rate)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        RateTable tiny = RateTable.parse(new JsonObject(
+                "{\"base\":\"EUR\",\"rates\":{\"USD\":\"1e-18\",\"JPY\":\"1.000e18\"}}"));
+        assertThat(tiny.convert(1000000, JPY, JPY)).isEqualTo(1000000);
+    }
+
+}
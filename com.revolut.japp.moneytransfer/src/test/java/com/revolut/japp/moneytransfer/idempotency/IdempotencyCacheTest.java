@@ -0,0 +1,59 @@
+package com.revolut.japp.moneytransfer.idempotency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class IdempotencyCacheTest {
+
+    @Test
+    public void remembersOutcomesUntilTheyExpire() {
+        AtomicLong now = new AtomicLong();
+        IdempotencyCache cache = new IdempotencyCache(7000, 1 << 16, now::get);
+
+        assertThat(cache.reserve("a")).isEqualTo(IdempotencyCache.ABSENT);
+        assertThat(cache.reserve("a")).isEqualTo(IdempotencyCache.IN_FLIGHT);
+        cache.complete("a", IdempotencyCache.succeeded(0));
+        cache.release("a");
+        assertThat(IdempotencyCache.transferId(cache.reserve("a"))).isEqualTo(0);
+
+        assertThat(cache.reserve("b")).isEqualTo(IdempotencyCache.ABSENT);
+        cache.release("b");
+        assertThat(cache.reserve("b")).isEqualTo(IdempotencyCache.ABSENT);
+        cache.complete("b", IdempotencyCache.failed(400));
+        assertThat(IdempotencyCache.statusCode(cache.reserve("b"))).isEqualTo(400);
+
+        now.set(7000);
+        assertThat(cache.reserve("a")).isNotEqualTo(IdempotencyCache.ABSENT);
+        now.set(8001);
+        assertThat(cache.reserve("a")).isEqualTo(IdempotencyCache.ABSENT);
+    }
+
+    @Test
+    public void holdsMaxKeysBeforeEvictingAny() {
+        for (int maxKeys : new int[] {3000, 1 << 12, 100000}) {
+            IdempotencyCache cache = new IdempotencyCache(60000, maxKeys, () -> 0);
+            for (int i = 0; i < maxKeys; i++) {
+                assertThat(cache.reserve("key-" + i)).isEqualTo(IdempotencyCache.ABSENT);
+                cache.complete("key-" + i, IdempotencyCache.succeeded(i));
+            }
+            for (int i = 0; i < maxKeys; i++) {
+                assertThat(IdempotencyCache.transferId(cache.reserve("key-" + i))).as("key-" + i).isEqualTo(i);
+            }
+        }
+    }
+
+    @Test
+    public void evictsOldestKeysWhenFull() {
+        IdempotencyCache cache = new IdempotencyCache(60000, 1 << 12, () -> 0);
+        for (int i = 0; i < 100000; i++) {
+            assertThat(cache.reserve("key-" + i)).isEqualTo(IdempotencyCache.ABSENT);
+            cache.complete("key-" + i, IdempotencyCache.succeeded(i));
+        }
+        assertThat(cache.reserve("key-0")).isEqualTo(IdempotencyCache.ABSENT);
+        assertThat(IdempotencyCache.transferId(cache.reserve("key-99999"))).isEqualTo(99999);
+    }
+
+}
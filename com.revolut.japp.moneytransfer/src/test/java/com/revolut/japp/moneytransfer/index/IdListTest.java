@@ -0,0 +1,42 @@
+package com.revolut.japp.moneytransfer.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class IdListTest {
+
+    @Test
+    public void keepsIdsSortedAndUnique() {
+        IdList list = new IdList();
+        TreeSet<Integer> expected = new TreeSet<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add(i * 3);
+        }
+        Collections.shuffle(ids.subList(1000, 3000), new Random(7));
+        for (int id : ids) {
+            assertThat(list.add(id)).isTrue();
+            expected.add(id);
+        }
+        assertThat(list.add(300)).isFalse();
+
+        assertThat(list.size()).isEqualTo(expected.size());
+        assertThat(drain(list.after(-1))).containsExactlyElementsOf(expected);
+        assertThat(drain(list.after(4000))).containsExactlyElementsOf(expected.tailSet(4000, false));
+    }
+
+    private static List<Integer> drain(Iterator<Integer> ids) {
+        List<Integer> drained = new ArrayList<>();
+        ids.forEachRemaining(drained::add);
+        return drained;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.revolut.japp.moneytransfer.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+public class TransferIndexTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency GBP = Currency.getInstance("GBP");
+
+    private final NavigableMap<Integer, Transfer> transfers = new ConcurrentSkipListMap<>();
+    private final TransferIndex index = new TransferIndex(transfers);
+
+    @Test
+    public void pagesByAccountEitherSide() {
+        Transfer first = add(new Transfer(1, 2, BigDecimal.ONE, EUR, "a"));
+        add(new Transfer(3, 4, BigDecimal.ONE, EUR, "b"));
+        Transfer third = add(new Transfer(2, 1, BigDecimal.ONE, GBP, "c"));
+        Transfer fourth = add(new Transfer(1, 3, BigDecimal.ONE, EUR, "d"));
+
+        assertThat(ids(new TransferQuery().accountId(1).limit(2))).containsExactly(first.getId(), third.getId());
+        assertThat(ids(new TransferQuery().accountId(1).after(third.getId()))).containsExactly(fourth.getId());
+        assertThat(ids(new TransferQuery().fromAccountId(1).currency(EUR))).containsExactly(first.getId(), fourth.getId());
+    }
+
+    @Test
+    public void followsStatusChanges() {
+        Transfer first = add(new Transfer(1, 2, BigDecimal.ONE, EUR, "a"));
+        Transfer second = add(new Transfer(1, 2, BigDecimal.ONE, EUR, "b"));
+        second.setStatus(TransferStatus.SUCCEED);
+        index.statusChanged(second);
+
+        assertThat(ids(new TransferQuery().status(TransferStatus.PENDING))).containsExactly(first.getId());
+        assertThat(ids(new TransferQuery().status(TransferStatus.SUCCEED))).containsExactly(second.getId());
+    }
+
+    private Transfer add(Transfer transfer) {
+        transfers.put(transfer.getId(), transfer);
+        index.add(transfer);
+        return transfer;
+    }
+
+    private List<Integer> ids(TransferQuery query) {
+        return index.page(query).stream().map(Transfer::getId).collect(Collectors.toList());
+    }
+
+}
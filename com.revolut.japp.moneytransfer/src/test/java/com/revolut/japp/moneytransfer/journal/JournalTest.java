@@ -0,0 +1,255 @@
+package com.revolut.japp.moneytransfer.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.AsyncResult;
+
+public class JournalTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysDurableRecords() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Account account = new Account("Yuanwen", new BigDecimal("11.11"), EUR);
+        Transfer transfer = new Transfer(account.getId(), account.getId() + 1, new BigDecimal("1.50"), EUR, "Rent");
+        transfer.setStatus(TransferStatus.SUCCEED);
+
+        Journal journal = Journal.open(dir, 1024, new Recorder());
+        journal.append(new JournalRecord().account(account).transfer(transfer));
+        journal.append(new JournalRecord().accountRemoved(42));
+        awaitDurable(journal);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        Journal.open(dir, 1024, recorder).close();
+        assertThat(recorder.accounts.get(account.getId()).getBalanceMinor()).isEqualTo(1111);
+        assertThat(recorder.accounts.get(account.getId()).getUserName()).isEqualTo("Yuanwen");
+        assertThat(recorder.transfers.get(transfer.getId()).getAmountMinor()).isEqualTo(150);
+        assertThat(recorder.transfers.get(transfer.getId()).getStatus()).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(recorder.removed).isEqualTo(1);
+    }
+
+    @Test
+    public void replaysTheDecimalsOfRecordsWithoutCurrency() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Account account = new Account();
+        account.setUserName("Legacy");
+        account.setBalance(new BigDecimal("12.345"));
+        Account empty = new Account();
+        Transfer transfer = new Transfer(account.getId(), empty.getId(), new BigDecimal("0.125"), null, "Old");
+
+        Journal journal = Journal.open(dir, 1024, new Recorder());
+        journal.append(new JournalRecord().account(account).account(empty).transfer(transfer));
+        awaitDurable(journal);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        Journal.open(dir, 1024, recorder).close();
+        Account replayed = recorder.accounts.get(account.getId());
+        assertThat(replayed.getCurrency()).isNull();
+        assertThat(replayed.getBalance()).isEqualTo(new BigDecimal("12.345"));
+        assertThat(replayed.getUserName()).isEqualTo("Legacy");
+        assertThat(recorder.accounts.get(empty.getId()).getBalance()).isNull();
+        Transfer replayedTransfer = recorder.transfers.get(transfer.getId());
+        assertThat(replayedTransfer.getAmount()).isEqualTo(new BigDecimal("0.125"));
+        assertThat(replayedTransfer.getFromAccountId()).isEqualTo(account.getId());
+        assertThat(replayedTransfer.getComment()).isEqualTo("Old");
+        assertThat(replayedTransfer.getStatus()).isEqualTo(TransferStatus.PENDING);
+    }
+
+    @Test
+    public void cutsTornTail() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Account account = new Account("Bach", new BigDecimal("2.34"), EUR);
+        Journal journal = Journal.open(dir, 1 << 20, new Recorder());
+        journal.append(new JournalRecord().account(account));
+        awaitDurable(journal);
+        journal.close();
+        try (FileChannel file = FileChannel.open(dir.resolve(Journal.segmentName(1)), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            file.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 100, 1, 2}));
+        }
+
+        Recorder recorder = new Recorder();
+        journal = Journal.open(dir, 1 << 20, recorder);
+        assertThat(journal.getRecoveredRecords()).isEqualTo(1);
+        journal.append(new JournalRecord().accountRemoved(account.getId()));
+        awaitDurable(journal);
+        journal.close();
+
+        recorder = new Recorder();
+        Journal.open(dir, 1 << 20, recorder).close();
+        assertThat(recorder.accounts).containsKey(account.getId());
+        assertThat(recorder.removed).isEqualTo(1);
+    }
+
+    @Test
+    public void replaysTailAfterSnapshot() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Account first = new Account("Clara", new BigDecimal("5.00"), EUR);
+        Account second = new Account("Robert", new BigDecimal("7.00"), EUR);
+        Journal journal = Journal.open(dir, 1024, new Recorder());
+        for (int i = 0; i < 100; i++) {
+            journal.append(new JournalRecord().account(first).account(second));
+        }
+        awaitDurable(journal);
+        journal.snapshot(Arrays.asList(first, second), Collections.emptyList());
+        second.deposit(300);
+        journal.append(new JournalRecord().account(second));
+        awaitDurable(journal);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        journal = Journal.open(dir, 1024, recorder);
+        journal.close();
+        assertThat(journal.getRecoveredRecords()).isEqualTo(2);
+        assertThat(recorder.accounts.get(first.getId()).getBalanceMinor()).isEqualTo(500);
+        assertThat(recorder.accounts.get(second.getId()).getBalanceMinor()).isEqualTo(1000);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.map(path -> path.getFileName().toString().replaceAll("\\D", "")).distinct().count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void replaysCreditsPendingOnHotAccounts() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        AccountLedger ledger = new AccountLedger();
+        Account hot = new Account("Merchant", BigDecimal.ZERO, EUR);
+        Account payer = new Account("Payer", new BigDecimal("10.00"), EUR);
+        ledger.add(hot);
+        ledger.add(payer);
+        ledger.setHot(hot.getId(), true);
+        Journal journal = Journal.open(dir, 1 << 20, new Restorer(new AccountLedger()));
+        ledger.setListener(new JournalingListener(journal));
+
+        ledger.transfer(payer.getId(), hot.getId(), 100, EUR);
+        ledger.foldHotAccounts();
+        ledger.transfer(payer.getId(), hot.getId(), 200, EUR);
+        ledger.debit(hot.getId(), 50, EUR);
+        ledger.transfer(payer.getId(), hot.getId(), 300, EUR);
+        journal.snapshot(ledger.getAll(), Collections.emptyList(), ledger::foldHotAccounts);
+        ledger.transfer(payer.getId(), hot.getId(), 400, EUR);
+        awaitDurable(journal);
+        journal.close();
+
+        AccountLedger replayed = new AccountLedger();
+        Journal.open(dir, 1 << 20, new Restorer(replayed)).close();
+        assertThat(replayed.get(hot.getId()).getBalanceMinor()).isEqualTo(950);
+        assertThat(replayed.get(payer.getId()).getBalanceMinor()).isEqualTo(0);
+    }
+
+    @Test
+    public void dropsAppendsOnceAWriteFailed() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Journal journal = Journal.open(dir, 1, new Recorder());
+        // the writer cannot roll over to the next segment
+        Files.createDirectory(dir.resolve(Journal.segmentName(2)));
+        journal.append(new JournalRecord().accountRemoved(1));
+        AtomicReference<AsyncResult<Void>> first = new AtomicReference<>();
+        CountDownLatch failed = new CountDownLatch(1);
+        journal.whenDurable(result -> {
+            first.set(result);
+            failed.countDown();
+        });
+        assertThat(failed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(first.get().failed()).isTrue();
+
+        journal.append(new JournalRecord().accountRemoved(2));
+        assertThat(journal.getAppended()).isEqualTo(1);
+        AtomicReference<AsyncResult<Void>> later = new AtomicReference<>();
+        journal.whenDurable(later::set);
+        assertThat(later.get().failed()).isTrue();
+    }
+
+    private static void awaitDurable(Journal journal) throws InterruptedException, IOException {
+        CountDownLatch latch = new CountDownLatch(1);
+        journal.whenDurable(result -> latch.countDown());
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static class Restorer implements JournalHandler {
+
+        private final AccountLedger ledger;
+
+        private Restorer(AccountLedger ledger) {
+            this.ledger = ledger;
+        }
+
+        @Override
+        public void account(Account account) {
+            ledger.restore(account);
+        }
+
+        @Override
+        public void accountRemoved(int id) {
+            ledger.remove(id);
+        }
+
+        @Override
+        public void transfer(Transfer transfer) {
+        }
+
+        @Override
+        public void credited(int id, long amount, long epoch) {
+            ledger.restoreCredit(id, amount, epoch);
+        }
+
+    }
+
+    private static class Recorder implements JournalHandler {
+
+        private final Map<Integer, Account> accounts = new LinkedHashMap<>();
+        private final Map<Integer, Transfer> transfers = new LinkedHashMap<>();
+        private int removed;
+
+        @Override
+        public void account(Account account) {
+            accounts.put(account.getId(), account);
+        }
+
+        @Override
+        public void accountRemoved(int id) {
+            removed++;
+        }
+
+        @Override
+        public void transfer(Transfer transfer) {
+            transfers.put(transfer.getId(), transfer);
+        }
+
+        @Override
+        public void credited(int id, long amount, long epoch) {
+        }
+
+    }
+
+}
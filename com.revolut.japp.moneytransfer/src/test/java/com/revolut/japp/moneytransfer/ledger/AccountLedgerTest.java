@@ -0,0 +1,300 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.fees.FeeSchedule;
+import com.revolut.japp.moneytransfer.fx.RateTable;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferLegs;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class AccountLedgerTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    @Test
+    public void executesPendingTransferOnce() {
+        AccountLedger ledger = new AccountLedger();
+        Account from = new Account("from", new BigDecimal("100"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), EUR);
+        ledger.add(from);
+        ledger.add(to);
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("60"), EUR, "test");
+
+        assertThat(ledger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(ledger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(from.getBalance()).isEqualByComparingTo("40");
+        assertThat(to.getBalance()).isEqualByComparingTo("60");
+    }
+
+    @Test
+    public void executesBatchInOrder() {
+        AccountLedger ledger = new AccountLedger();
+        Account first = new Account("first", new BigDecimal("10"), EUR);
+        Account second = new Account("second", new BigDecimal("0"), EUR);
+        ledger.add(first);
+        ledger.add(second);
+
+        List<TransferStatus> statuses = ledger.executeAll(Arrays.asList(
+                new Transfer(first.getId(), second.getId(), new BigDecimal("10"), EUR, "all"),
+                new Transfer(second.getId(), first.getId(), new BigDecimal("4"), EUR, "back"),
+                new Transfer(second.getId(), first.getId(), new BigDecimal("7"), EUR, "too much")));
+        assertThat(statuses).containsExactly(TransferStatus.SUCCEED, TransferStatus.SUCCEED, TransferStatus.FAILED);
+        assertThat(first.getBalance()).isEqualByComparingTo("4");
+        assertThat(second.getBalance()).isEqualByComparingTo("6");
+    }
+
+    @Test
+    public void rejectsOverdraftAndCurrencyMismatch() {
+        AccountLedger ledger = new AccountLedger();
+        Account from = new Account("from", new BigDecimal("10"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), Currency.getInstance("GBP"));
+        ledger.add(from);
+        ledger.add(to);
+
+        assertThat(ledger.transfer(from.getId(), to.getId(), 500, EUR)).isFalse();
+        assertThat(ledger.debit(from.getId(), 1100, EUR)).isFalse();
+        assertThat(from.getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void convertsTransfersBetweenCurrencies() {
+        AccountLedger ledger = new AccountLedger();
+        Account from = new Account("from", new BigDecimal("100"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), Currency.getInstance("GBP"));
+        ledger.add(from);
+        ledger.add(to);
+        ledger.setRates(RateTable.parse(new JsonObject("{\"base\":\"EUR\",\"rates\":{\"USD\":\"1.0842\",\"GBP\":\"0.8571\"}}")));
+
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("50"), Currency.getInstance("USD"), "gift");
+        assertThat(ledger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(from.getBalance()).isEqualByComparingTo("53.88");
+        assertThat(to.getBalance()).isEqualByComparingTo("39.53");
+    }
+
+    @Test
+    public void chargesFeesToTheSenderAndCollectsThem() {
+        AccountLedger ledger = new AccountLedger();
+        Account from = new Account("from", new BigDecimal("100"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), EUR);
+        Account fees = new Account("fees", new BigDecimal("0"), EUR);
+        ledger.add(from);
+        ledger.add(to);
+        ledger.add(fees);
+        ledger.setFees(FeeSchedule.parse(new JsonObject()
+                .put("account", fees.getId())
+                .put("rules", new JsonArray().add(new JsonObject().put("currency", "EUR").put("rate", "0.01").put("fixed", "0.50")))));
+
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("50"), EUR, "fee");
+        assertThat(ledger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(transfer.getFee()).isEqualByComparingTo("1.00");
+        assertThat(ledger.execute(new Transfer(from.getId(), to.getId(), new BigDecimal("49"), EUR, "short"))).isEqualTo(TransferStatus.FAILED);
+        ledger.foldHotAccounts();
+        assertThat(from.getBalance()).isEqualByComparingTo("49");
+        assertThat(to.getBalance()).isEqualByComparingTo("50");
+        assertThat(fees.getFoldedBalanceMinor()).isEqualTo(100);
+    }
+
+    @Test
+    public void keepsBalancesInMinorUnits() {
+        Account account = new Account("minor", new BigDecimal("12.34"), EUR);
+        assertThat(account.getBalanceMinor()).isEqualTo(1234);
+        account.deposit(66);
+        assertThat(account.getBalance()).isEqualByComparingTo("13.00");
+        account.setCurrency(Currency.getInstance("JPY"));
+        assertThat(account.getBalanceMinor()).isEqualTo(13);
+    }
+
+    @Test
+    public void rejectsOverflowingCredit() {
+        AccountLedger ledger = new AccountLedger();
+        Account account = new Account("rich", BigDecimal.ZERO, EUR);
+        account.setBalanceMinor(Long.MAX_VALUE - 1);
+        ledger.add(account);
+
+        assertThat(ledger.credit(account.getId(), 2, EUR)).isFalse();
+        assertThat(account.getBalanceMinor()).isEqualTo(Long.MAX_VALUE - 1);
+    }
+
+    @Test
+    public void refusesToMoveMoneyOnAnAccountWithoutCurrency() {
+        AccountLedger ledger = new AccountLedger();
+        Account legacy = new Account();
+        legacy.setBalance(new BigDecimal("10"));
+        Account to = new Account("to", BigDecimal.ZERO, EUR);
+        ledger.add(legacy);
+        ledger.add(to);
+
+        assertThat(ledger.debit(legacy.getId(), 100, EUR)).isFalse();
+        assertThat(ledger.credit(legacy.getId(), 100, EUR)).isFalse();
+        Transfer debited = new Transfer(legacy.getId(), to.getId(), BigDecimal.ONE, EUR, "legacy");
+        assertThat(ledger.debitLeg(debited, new TransferLegs(100, 0, EUR, 100, EUR, -1, 0, null, 0))).isFalse();
+        Transfer credited = new Transfer(to.getId(), legacy.getId(), BigDecimal.ONE, EUR, "legacy");
+        credited.setLegs(new TransferLegs(100, 0, EUR, 100, EUR, -1, 0, null, 0));
+        assertThat(ledger.creditLeg(credited, false)).isFalse();
+        assertThat(legacy.getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void concurrentTransfersNeverOverdraw() throws Exception {
+        AccountLedger ledger = new AccountLedger();
+        Account hot = new Account("hot", new BigDecimal("1000"), EUR);
+        ledger.add(hot);
+        Account[] others = new Account[8];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new Account("other" + i, new BigDecimal("1000"), EUR);
+            ledger.add(others[i]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            final Account other = others[t];
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    ledger.transfer(hot.getId(), other.getId(), 100, EUR);
+                    ledger.transfer(other.getId(), hot.getId(), 100, EUR);
+                }
+            });
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        BigDecimal total = hot.getBalance();
+        for (Account other : others) {
+            assertThat(other.getBalance().signum()).isGreaterThanOrEqualTo(0);
+            total = total.add(other.getBalance());
+        }
+        assertThat(hot.getBalance().signum()).isGreaterThanOrEqualTo(0);
+        assertThat(total).isEqualByComparingTo("9000");
+    }
+
+    @Test
+    public void foldsCreditsToHotAccountWithoutLosingAny() throws Exception {
+        AccountLedger ledger = new AccountLedger();
+        Account hot = new Account("merchant", BigDecimal.ZERO, EUR);
+        ledger.add(hot);
+        ledger.setHot(hot.getId(), true);
+        Account[] payers = new Account[8];
+        for (int i = 0; i < payers.length; i++) {
+            payers[i] = new Account("payer" + i, new BigDecimal("1000"), EUR);
+            ledger.add(payers[i]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        for (Account payer : payers) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    ledger.transfer(payer.getId(), hot.getId(), 1, EUR);
+                }
+            });
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> folder = pool.submit(() -> {
+            while (!done.get()) {
+                ledger.foldHotAccounts();
+            }
+        });
+        Future<Long> decreases = pool.submit(() -> {
+            long last = 0;
+            long seen = 0;
+            while (!done.get()) {
+                long balance = hot.getBalanceMinor();
+                if (balance < last) {
+                    seen++;
+                }
+                last = balance;
+            }
+            return seen;
+        });
+        pool.shutdown();
+        for (int i = 0; i < 300 && hot.getBalanceMinor() < 80000; i++) {
+            Thread.sleep(100);
+        }
+        done.set(true);
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        folder.get();
+
+        assertThat(decreases.get()).isZero();
+        assertThat(hot.getBalanceMinor()).isEqualTo(80000);
+        ledger.foldHotAccounts();
+        assertThat(hot.getFoldedBalanceMinor()).isEqualTo(80000);
+        assertThat(ledger.debit(hot.getId(), 80000, EUR)).isTrue();
+    }
+
+    @Test
+    public void snapshotsReconcileWhileTransfersExecute() throws Exception {
+        AccountLedger ledger = new AccountLedger();
+        Account hot = new Account("merchant", BigDecimal.ZERO, EUR);
+        ledger.add(hot);
+        ledger.setHot(hot.getId(), true);
+        Account[] payers = new Account[8];
+        for (int i = 0; i < payers.length; i++) {
+            payers[i] = new Account("payer" + i, new BigDecimal("100"), EUR);
+            ledger.add(payers[i]);
+        }
+        Queue<Transfer> transfers = new ConcurrentLinkedQueue<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(9);
+        List<Future<?>> paying = new ArrayList<>();
+        for (int p = 0; p < payers.length; p++) {
+            Account payer = payers[p];
+            Account other = payers[(p + 1) % payers.length];
+            paying.add(pool.submit(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    Transfer transfer = new Transfer(payer.getId(), i % 2 == 0 ? hot.getId() : other.getId(), new BigDecimal("0.01"), EUR, null);
+                    transfers.add(transfer);
+                    ledger.execute(transfer);
+                }
+            }));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> folder = pool.submit(() -> {
+            while (!done.get()) {
+                ledger.foldHotAccounts();
+            }
+        });
+        pool.shutdown();
+        int reports = 0;
+        while (paying.stream().anyMatch(payer -> !payer.isDone())) {
+            reports++;
+            long[] totals = ledger.snapshot(snapshot -> {
+                long balances = snapshot.balances().mapToLong(LedgerSnapshot.Balance::getBalanceMinor).sum();
+                long merchant = snapshot.balances().filter(balance -> balance.getId() == hot.getId()).findFirst().get().getBalanceMinor();
+                long paid = transfers.parallelStream()
+                        .filter(transfer -> transfer.getToAccountId() == hot.getId() && snapshot.statusOf(transfer) == TransferStatus.SUCCEED)
+                        .mapToLong(Transfer::getAmountMinor)
+                        .sum();
+                return new long[] {balances, merchant, paid};
+            });
+            assertThat(totals[0]).isEqualTo(80000);
+            assertThat(totals[1]).isEqualTo(totals[2]);
+        }
+        done.set(true);
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        folder.get();
+        for (Future<?> payer : paying) {
+            payer.get();
+        }
+        assertThat(reports).isPositive();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.revolut.japp.moneytransfer.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+public class OffHeapAccountStoreTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+
+    @Test
+    public void keepsAccountsOutsideTheHeap() {
+        OffHeapAccountStore store = new OffHeapAccountStore();
+        store.put(new Account(3, "Bach", 1250, EUR));
+        store.put(new Account(70000, "Dvo\u0159\u00e1k", 99, USD));
+        store.put(new Account(5, null, 0, EUR));
+
+        Account bach = store.get(3);
+        assertThat(bach.getUserName()).isEqualTo("Bach");
+        assertThat(bach.getBalance()).isEqualByComparingTo("12.50");
+        assertThat(store.get(70000).getUserName()).isEqualTo("Dvo\u0159\u00e1k");
+        assertThat(store.get(5).getUserName()).isNull();
+        assertThat(store.get(4)).isNull();
+        assertThat(store.get(1 << 20)).isNull();
+        assertThat(store.size()).isEqualTo(3);
+
+        bach.setUserName("J. S. Bach");
+        bach.setCurrency(USD);
+        store.changed(bach, EUR);
+        assertThat(store.get(3).getUserName()).isEqualTo("J. S. Bach");
+        assertThat(store.get(3).getCurrency()).isEqualTo(USD);
+
+        assertThat(store.remove(5).getId()).isEqualTo(5);
+        assertThat(store.remove(5)).isNull();
+        assertThat(store.size()).isEqualTo(2);
+        List<Integer> ids = new ArrayList<>();
+        store.values().forEach(account -> ids.add(account.getId()));
+        assertThat(ids).containsExactly(3, 70000);
+        List<Integer> usd = new ArrayList<>();
+        store.idsAfter(3, USD).forEachRemaining(usd::add);
+        assertThat(usd).containsExactly(70000);
+    }
+
+    @Test
+    public void writesLedgerChangesBack() {
+        AccountLedger ledger = new AccountLedger(new OffHeapAccountStore());
+        Account from = new Account("from", new BigDecimal("100"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), EUR);
+        ledger.add(from);
+        ledger.add(to);
+        ledger.setHot(to.getId(), true);
+
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("60"), EUR, "test");
+        assertThat(ledger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(ledger.transfer(to.getId(), from.getId(), 500, EUR)).isTrue();
+        assertThat(ledger.get(from.getId()).getBalance()).isEqualByComparingTo("45");
+        assertThat(ledger.get(to.getId()).getBalance()).isEqualByComparingTo("55");
+
+        ledger.setHot(to.getId(), false);
+        ledger.update(to.getId(), account -> {
+            account.setUserName("renamed");
+            return true;
+        });
+        assertThat(ledger.get(to.getId()).getUserName()).isEqualTo("renamed");
+        assertThat(ledger.get(to.getId()).getBalance()).isEqualByComparingTo("55");
+        assertThat(ledger.page(-1, 10, EUR)).extracting(Account::getId).containsExactly(from.getId(), to.getId());
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.revolut.japp.moneytransfer.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.admission.AdmissionControl;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsLatenciesCumulatively() {
+        Histogram histogram = new Histogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(101));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(11));
+
+        StringBuilder out = new StringBuilder();
+        histogram.render(out, "latency", "route=\"/a\"");
+        assertThat(out.toString().split("\n")).containsExactly(
+                "latency_bucket{route=\"/a\",le=\"1.0E-4\"} 1",
+                "latency_bucket{route=\"/a\",le=\"5.0E-4\"} 2",
+                "latency_bucket{route=\"/a\",le=\"0.001\"} 2",
+                "latency_bucket{route=\"/a\",le=\"0.0025\"} 2",
+                "latency_bucket{route=\"/a\",le=\"0.005\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.01\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.025\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.05\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.1\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.25\"} 3",
+                "latency_bucket{route=\"/a\",le=\"0.5\"} 3",
+                "latency_bucket{route=\"/a\",le=\"1.0\"} 3",
+                "latency_bucket{route=\"/a\",le=\"2.5\"} 3",
+                "latency_bucket{route=\"/a\",le=\"5.0\"} 3",
+                "latency_bucket{route=\"/a\",le=\"10.0\"} 3",
+                "latency_bucket{route=\"/a\",le=\"+Inf\"} 4",
+                "latency_sum{route=\"/a\"} 11.003201",
+                "latency_count{route=\"/a\"} 4");
+    }
+
+    @Test
+    public void rendersThePrometheusTextFormat() {
+        Metrics metrics = new Metrics();
+        metrics.request("GET", "/api/accounts/:id", 200, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.request("GET", "/api/accounts/:id", 200, TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.transferCreated();
+        metrics.transferExecuted(TransferStatus.SUCCEED);
+
+        String text = metrics.render(new AccountLedger(), new AdmissionControl(10, 10, 1, 100, 50), null, null, null);
+        assertThat(text).contains(
+                "# TYPE http_request_duration_seconds histogram\n",
+                "http_request_duration_seconds_bucket{method=\"GET\",route=\"/api/accounts/:id\",status=\"200\",le=\"0.0025\"} 1\n",
+                "http_request_duration_seconds_count{method=\"GET\",route=\"/api/accounts/:id\",status=\"200\"} 2\n",
+                "transfers_created_total 1\n",
+                "transfers_executed_total{status=\"SUCCEED\"} 1\n",
+                "ledger_accounts 0\n");
+        assertThat(text).doesNotContain("journal_").doesNotContain("replication_");
+        for (String line : text.split("\n")) {
+            assertThat(line).matches("# (HELP|TYPE) [a-z_]+ .+|[a-z_]+(\\{[a-z]+=\"[^\"]*\"(,[a-z]+=\"[^\"]*\")*\\})? [-+0-9.E]+");
+        }
+    }
+
+    @Test
+    public void labelsRequestsWithTheRouteTheyWereMeantFor() {
+        RoutePatterns routes = new RoutePatterns(Arrays.asList(null, "/", "/assets/", "/api/accounts/export",
+                "/api/accounts/:id", "/api/accounts/:id/transfers", null, "/api/accounts"));
+        assertThat(routes.match("/")).isEqualTo("/");
+        assertThat(routes.match("/assets/css/app.css")).isEqualTo("/assets/*");
+        assertThat(routes.match("/api/accounts/export")).isEqualTo("/api/accounts/export");
+        assertThat(routes.match("/api/accounts/12")).isEqualTo("/api/accounts/:id");
+        assertThat(routes.match("/api/accounts/12/")).isEqualTo("/api/accounts/:id");
+        assertThat(routes.match("/api/accounts/12/transfers")).isEqualTo("/api/accounts/:id/transfers");
+        assertThat(routes.match("/api/accounts")).isEqualTo("/api/accounts");
+        assertThat(routes.match("/api/accounts/12/other")).isEqualTo(RoutePatterns.OTHER);
+        assertThat(routes.match("/api/accounts//transfers")).isEqualTo(RoutePatterns.OTHER);
+        assertThat(routes.match("/nope")).isEqualTo(RoutePatterns.OTHER);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.revolut.japp.moneytransfer.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+
+public class AccountTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    private final AtomicInteger encoded = new AtomicInteger();
+
+    private final AccountEncoder encoder = (id, userName, balance, unscaledBalance, currency) -> {
+        encoded.incrementAndGet();
+        return Buffer.buffer(id + " " + userName + " " + (currency == null ? unscaledBalance : balance + " " + currency));
+    };
+
+    @Test
+    public void keepsTheViewWhileTheAccountIsUnchanged() {
+        Account account = new Account(7, "Ann", 1250, EUR);
+        Buffer view = account.getView(encoder);
+        assertThat(view.toString()).isEqualTo("7 Ann 1250 EUR");
+        assertThat(account.getView(encoder)).isSameAs(view);
+        assertThat(encoded.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void encodesAgainAfterEveryChange() {
+        Account account = new Account(7, "Ann", 1250, EUR);
+        account.getView(encoder);
+
+        account.setBalanceMinor(1300);
+        assertThat(account.getView(encoder).toString()).isEqualTo("7 Ann 1300 EUR");
+        account.setUserName("Bo");
+        assertThat(account.getView(encoder).toString()).isEqualTo("7 Bo 1300 EUR");
+        account.setCurrency(JPY);
+        assertThat(account.getView(encoder).toString()).isEqualTo("7 Bo 13 JPY");
+        assertThat(encoded.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void encodesAccountsWithoutCurrencyEveryTime() {
+        Account account = new Account();
+        account.setBalance(new BigDecimal("3.250"));
+        assertThat(account.getView(encoder).toString()).endsWith(" null 3.250");
+        account.getView(encoder);
+        assertThat(encoded.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void staysIntactAfterBeingWrittenSeveralTimes() {
+        Account account = new Account(7, "Ann", 1250, EUR);
+        Buffer view = account.getView(encoder);
+        for (int i = 0; i < 3; i++) {
+            // what a response does with a buffer it writes
+            ByteBuf written = view.getByteBuf();
+            written.readBytes(new byte[written.readableBytes()]);
+            Buffer.buffer().appendBuffer(view);
+        }
+        assertThat(account.getView(encoder)).isSameAs(view);
+        assertThat(view.toString()).isEqualTo("7 Ann 1250 EUR");
+        assertThat(view.getByteBuf().readableBytes()).isEqualTo(view.length());
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.revolut.japp.moneytransfer.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import org.junit.Test;
+
+public class MoneyTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Test
+    public void convertsAmountsThatFit() {
+        assertThat(Money.toMinor(new BigDecimal("12.5"), EUR)).isEqualTo(1250);
+        assertThat(Money.toMinor(new BigDecimal("12.500"), EUR)).isEqualTo(1250);
+        assertThat(Money.toMinor(new BigDecimal("1E+3"), JPY)).isEqualTo(1000);
+        assertThat(Money.toMinor(new BigDecimal("92233720368547758.07"), EUR)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test(timeout = 5000)
+    public void refusesHugeExponentsWithoutRescaling() {
+        assertThatThrownBy(() -> Money.toMinor(new BigDecimal("1e99999999"), EUR))
+                .isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> Money.toMinor(new BigDecimal("1e-99999999"), EUR))
+                .isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> Money.toMinor(new BigDecimal("1e20"), JPY))
+                .isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> Money.toMinor(new BigDecimal("12.501"), EUR))
+                .isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test(timeout = 5000)
+    public void refusesHugeExponentsThroughTheModel() {
+        Transfer transfer = new Transfer();
+        transfer.setCurrency(EUR);
+        assertThatThrownBy(() -> transfer.setAmount(new BigDecimal("1e99999999")))
+                .isInstanceOf(ArithmeticException.class);
+        Account account = new Account();
+        account.setBalance(new BigDecimal("-1e99999999"));
+        assertThatThrownBy(() -> account.setCurrency(EUR)).isInstanceOf(ArithmeticException.class);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.revolut.japp.moneytransfer.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.journal.JournalHandler;
+import com.revolut.japp.moneytransfer.journal.JournalingListener;
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+import com.revolut.japp.moneytransfer.model.Transfer;
+import com.revolut.japp.moneytransfer.model.TransferStatus;
+
+import io.vertx.core.Vertx;
+
+public class ReplicationTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private final Vertx vertx = Vertx.vertx();
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void followerCatchesUpWithSnapshotAndKeepsUp() throws Exception {
+        AccountLedger leaderLedger = new AccountLedger();
+        ReplicationLeader leader = new ReplicationLeader(vertx, leaderLedger, new ArrayList<>());
+        leaderLedger.setListener(new JournalingListener(leader::publish));
+        Account from = new Account("from", new BigDecimal("100"), EUR);
+        Account to = new Account("to", new BigDecimal("0"), EUR);
+        leaderLedger.add(from);
+        leaderLedger.add(to);
+
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        leader.listen(0, result -> {
+            if (result.succeeded()) {
+                port.complete(result.result().actualPort());
+            } else {
+                port.completeExceptionally(result.cause());
+            }
+        });
+        AccountLedger followerLedger = new AccountLedger();
+        Map<Integer, Transfer> transfers = new ConcurrentHashMap<>();
+        ReplicationFollower follower = new ReplicationFollower(vertx, "localhost", port.get(5, TimeUnit.SECONDS),
+                followerLedger, new JournalHandler() {
+                    @Override
+                    public void account(Account account) {
+                        followerLedger.restore(account);
+                    }
+
+                    @Override
+                    public void accountRemoved(int id) {
+                        followerLedger.remove(id);
+                    }
+
+                    @Override
+                    public void transfer(Transfer transfer) {
+                        transfers.put(transfer.getId(), transfer);
+                    }
+
+                    @Override
+                    public void credited(int id, long amount, long epoch) {
+                        followerLedger.restoreCredit(id, amount, epoch);
+                    }
+                });
+        follower.start();
+        await(() -> followerLedger.size() == 2);
+
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("60"), EUR, "test");
+        assertThat(leaderLedger.execute(transfer)).isEqualTo(TransferStatus.SUCCEED);
+        leaderLedger.remove(to.getId());
+        await(() -> followerLedger.get(to.getId()) == null);
+
+        assertThat(followerLedger.get(from.getId()).getBalance()).isEqualByComparingTo("40");
+        assertThat(transfers.get(transfer.getId()).getStatus()).isEqualTo(TransferStatus.SUCCEED);
+        assertThat(follower.isConnected()).isTrue();
+        assertThat(follower.getApplied()).isEqualTo(leader.getSequence());
+        assertThat(follower.getLagMillis()).isBetween(0L, 5000L);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
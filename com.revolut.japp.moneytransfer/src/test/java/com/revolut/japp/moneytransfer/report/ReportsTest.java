@@ -0,0 +1,37 @@
+package com.revolut.japp.moneytransfer.report;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import org.junit.Test;
+
+import com.revolut.japp.moneytransfer.ledger.AccountLedger;
+import com.revolut.japp.moneytransfer.model.Account;
+
+import io.vertx.core.json.JsonObject;
+
+public class ReportsTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Test
+    public void totalsBalancesByCurrencyLeavingOutAccountsWithoutOne() {
+        AccountLedger ledger = new AccountLedger();
+        ledger.add(new Account(1, "a", 1050, EUR));
+        ledger.add(new Account(2, "b", 2000, EUR));
+        ledger.add(new Account(3, "c", 500, JPY));
+        Account unscaled = new Account(4, "d", 0, null);
+        unscaled.setBalance(new BigDecimal("12.345"));
+        ledger.add(unscaled);
+
+        JsonObject currencies = ledger.snapshot(Reports::balances).getJsonObject("currencies");
+        assertThat(currencies.fieldNames()).containsOnly("EUR", "JPY");
+        assertThat(currencies.getJsonObject("EUR").getLong("accounts")).isEqualTo(2);
+        assertThat(currencies.getJsonObject("EUR").getString("balance")).isEqualTo("30.5");
+        assertThat(currencies.getJsonObject("JPY").getString("balance")).isEqualTo("500");
+    }
+
+}